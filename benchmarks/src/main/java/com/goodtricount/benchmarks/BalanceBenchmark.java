@@ -0,0 +1,99 @@
+package com.goodtricount.benchmarks;
+
+import com.goodtricount.dto.BalanceDAO;
+import com.goodtricount.dto.BalanceDTO;
+import com.goodtricount.dto.ExpenseDTO;
+import com.goodtricount.dto.GroupDTO;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Balance computation over synthetic groups: recomputing from the full ledger the way the
+ * web client does (expenses x participants) against the server's materialized per-user totals.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BalanceBenchmark {
+
+    @Param({ "10", "100" })
+    public int participants;
+
+    @Param({ "100", "10000" })
+    public int expenses;
+
+    private GroupDTO group;
+    private List<BalanceDTO> totals;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        group = new GroupDTO("bench", "Benchmark group");
+        for (int i = 0; i < participants; i++) {
+            group.addParticipant("user" + i);
+        }
+
+        Map<String, BigDecimal> paid = new HashMap<>();
+        for (int i = 0; i < expenses; i++) {
+            String payer = "user" + random.nextInt(participants);
+            BigDecimal amount = BigDecimal.valueOf(random.nextInt(20000) + 1, 2);
+            group.addExpense(new ExpenseDTO(payer, amount, "Expense " + i));
+            paid.merge(payer, amount, BigDecimal::add);
+        }
+
+        totals = new ArrayList<>();
+        for (String participant : group.getParticipants()) {
+            totals.add(new BalanceDTO(participant, true, paid.getOrDefault(participant, BigDecimal.ZERO),
+                    BigDecimal.ZERO, BigDecimal.ZERO, null));
+        }
+    }
+
+    /**
+     * Port of the balance loop of renderGroupDetail in script.js.
+     */
+    @Benchmark
+    public Map<String, Double> recomputeFromLedger() {
+        Map<String, Double> balances = new HashMap<>();
+        for (String participant : group.getParticipants()) {
+            balances.put(participant, 0.0);
+        }
+        for (ExpenseDTO expense : group.getExpenses()) {
+            double amount = expense.getAmount().doubleValue();
+            double amountPerPerson = amount / group.getParticipants().size();
+            for (String participant : group.getParticipants()) {
+                if (participant.equals(expense.getPayer())) {
+                    balances.put(participant, balances.get(participant) + amount - amountPerPerson);
+                } else {
+                    balances.put(participant, balances.get(participant) - amountPerPerson);
+                }
+            }
+        }
+        return balances;
+    }
+
+    @Benchmark
+    public List<BalanceDTO> fromMaterializedTotals() {
+        BalanceDAO.computeBalances(totals);
+        return totals;
+    }
+}
@@ -0,0 +1,152 @@
+package com.goodtricount.benchmarks;
+
+import com.goodtricount.dto.DatabaseManager;
+import com.goodtricount.dto.ExpenseDAO;
+import com.goodtricount.dto.ExpenseDTO;
+import com.goodtricount.dto.GroupChangeDAO;
+import com.goodtricount.dto.GroupDAO;
+import com.goodtricount.dto.GroupDTO;
+import com.goodtricount.dto.PaymentDAO;
+import com.goodtricount.dto.PaymentDTO;
+import com.goodtricount.dto.UserDAO;
+import com.goodtricount.dto.UserDTO;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DAO round trips against the configured database (use a local PostgreSQL).
+ * Seeds {@value #USERS} users and {@value #GROUPS} groups that all include the first user,
+ * and removes them afterwards.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DaoBenchmark {
+
+    private static final String PREFIX = "jmh_";
+    private static final int USERS = 20;
+    private static final int GROUPS = 50;
+    private static final int RECEIPT_LINES = 30;
+
+    private DatabaseManager manager;
+    private UserDAO userDAO;
+    private GroupDAO groupDAO;
+    private ExpenseDAO expenseDAO;
+    private PaymentDAO paymentDAO;
+    private GroupChangeDAO groupChangeDAO;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        manager = DatabaseManager.getInstance();
+        if (!manager.initializeDatabase()) {
+            throw new IllegalStateException("Cannot initialize the database; check goodtricount.db.url");
+        }
+        userDAO = manager.getUserDAO();
+        groupDAO = manager.getGroupDAO();
+        expenseDAO = manager.getExpenseDAO();
+        paymentDAO = manager.getPaymentDAO();
+        groupChangeDAO = manager.getGroupChangeDAO();
+
+        tearDown();
+        for (int i = 0; i < USERS; i++) {
+            userDAO.insertUser(new UserDTO(PREFIX + "user" + i, "password", PREFIX + i + "@example.com", "User " + i));
+        }
+        for (int g = 0; g < GROUPS; g++) {
+            GroupDTO group = new GroupDTO(PREFIX + "group" + g, "Group " + g);
+            for (int i = 0; i < USERS; i++) {
+                group.addParticipant(PREFIX + "user" + i);
+            }
+            group.addAdmin(PREFIX + "user0");
+            groupDAO.insertGroup(group);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (int g = 0; g < GROUPS; g++) {
+            groupDAO.deleteGroup(PREFIX + "group" + g);
+        }
+        for (int i = 0; i < USERS; i++) {
+            userDAO.deleteUser(PREFIX + "user" + i);
+        }
+    }
+
+    @Benchmark
+    public UserDTO getUserByUsername() {
+        return userDAO.getUserByUsername(PREFIX + "user7");
+    }
+
+    @Benchmark
+    public GroupDTO getGroupById() {
+        return groupDAO.getGroupById(PREFIX + "group7");
+    }
+
+    /** The group, its expenses and its payments as a page showing the group loads them: five queries. */
+    @Benchmark
+    public Object[] getGroupExpensesAndPayments() {
+        String groupId = PREFIX + "group7";
+        GroupDTO group = groupDAO.getGroupById(groupId);
+        List<ExpenseDTO> expenses = expenseDAO.getExpensesForGroup(groupId);
+        List<PaymentDTO> payments = paymentDAO.getPaymentsForGroup(groupId);
+        return new Object[] { group, expenses, payments };
+    }
+
+    /** The same in one query. */
+    @Benchmark
+    public GroupDTO getGroupDetail() {
+        return groupDAO.getGroupDetail(PREFIX + "group7");
+    }
+
+    /** Revalidating an unchanged group, as a conditional GET of /api/group does. */
+    @Benchmark
+    public long getVersion() {
+        return groupChangeDAO.getVersion(PREFIX + "group7");
+    }
+
+    /** A receipt of {@value #RECEIPT_LINES} lines entered one expense at a time. */
+    @Benchmark
+    public int insertReceiptOneByOne() {
+        int last = 0;
+        for (ExpenseDTO line : receipt()) {
+            last = expenseDAO.insertExpense(PREFIX + "group8", line);
+        }
+        return last;
+    }
+
+    /** The same receipt in one call: one transaction and one rewritten batch. */
+    @Benchmark
+    public int[] insertReceipt() {
+        return expenseDAO.insertExpenses(PREFIX + "group8", receipt());
+    }
+
+    private static List<ExpenseDTO> receipt() {
+        List<ExpenseDTO> lines = new ArrayList<>(RECEIPT_LINES);
+        for (int i = 0; i < RECEIPT_LINES; i++) {
+            lines.add(new ExpenseDTO(PREFIX + "user" + (i % USERS), new BigDecimal("4.50"), "Line " + i));
+        }
+        return lines;
+    }
+
+    @Benchmark
+    public List<GroupDTO> getGroupsForUser() {
+        return groupDAO.getGroupsForUser(PREFIX + "user0");
+    }
+}
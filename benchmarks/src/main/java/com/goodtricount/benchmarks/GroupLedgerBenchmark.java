@@ -0,0 +1,211 @@
+package com.goodtricount.benchmarks;
+
+import com.goodtricount.dto.BalanceDAO;
+import com.goodtricount.dto.BalanceDTO;
+import com.goodtricount.dto.GroupDTO;
+import com.goodtricount.dto.GroupLedger;
+import com.goodtricount.dto.Money;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Large groups held as a GroupDTO (lists of usernames, string-keyed balances) against a
+ * GroupLedger (interned indices, bitsets and arrays of cents): building the membership,
+ * looking members up and computing the balances.
+ *
+ * <p>Run with {@code -prof gc} to compare the bytes allocated per operation. {@link #main(String[])}
+ * prints the heap retained by the members and balances of a group in each representation.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GroupLedgerBenchmark {
+
+    @Param({ "1000", "10000" })
+    public int members;
+
+    private String[] usernames;
+    private String[] lookups;
+    private GroupDTO group;
+    private GroupLedger ledger;
+    private List<BalanceDTO> totals;
+
+    @Setup
+    public void setUp() {
+        usernames = usernames(members);
+        group = buildGroupDTO(usernames);
+        ledger = buildLedger(usernames);
+        totals = balanceDTOs(usernames);
+        for (int i = 0; i < members; i++) {
+            ledger.setTotals(i, totals.get(i).getPaidMoney().getCents(), 0, 0);
+        }
+
+        // Fresh String instances, as when usernames come from a request or a result set
+        Random random = new Random(7);
+        lookups = new String[1000];
+        for (int i = 0; i < lookups.length; i++) {
+            lookups[i] = new String(usernames[random.nextInt(members)]);
+        }
+    }
+
+    @Benchmark
+    public GroupDTO buildGroupDTO() {
+        return buildGroupDTO(usernames);
+    }
+
+    @Benchmark
+    public GroupLedger buildLedger() {
+        return buildLedger(usernames);
+    }
+
+    @Benchmark
+    public int lookupGroupDTO() {
+        int found = 0;
+        for (String username : lookups) {
+            if (group.getParticipants().contains(username)) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    @Benchmark
+    public int lookupLedger() {
+        int found = 0;
+        for (String username : lookups) {
+            int index = ledger.indexOf(username);
+            if (index >= 0 && ledger.isParticipant(index)) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    @Benchmark
+    public List<BalanceDTO> balancesFromDTOs() {
+        BalanceDAO.computeBalances(totals);
+        return totals;
+    }
+
+    @Benchmark
+    public long[] balancesFromLedger() {
+        return ledger.computeBalances();
+    }
+
+    /**
+     * Print the heap retained by the members and balances of a group in each representation:
+     * a GroupDTO with a list of BalanceDTOs, as the DAOs used to build, and a GroupLedger.
+     * The usernames are shared and not counted. Run with {@code -XX:+UseSerialGC} for stable numbers.
+     */
+    public static void main(String[] args) {
+        for (int size : new int[] { 1000, 10000 }) {
+            String[] usernames = usernames(size);
+            long dto = retained(size, () -> new Object[] { buildGroupDTO(usernames), balanceDTOs(usernames) });
+            long ledger = retained(size, () -> {
+                GroupLedger built = buildLedger(usernames);
+                for (int i = 0; i < size; i++) {
+                    built.setTotals(i, i, 0, 0);
+                }
+                return built;
+            });
+            System.out.printf("%6d members: GroupDTO and BalanceDTOs %,10d bytes, GroupLedger %,10d bytes%n",
+                    size, dto, ledger);
+        }
+    }
+
+    private static String[] usernames(int count) {
+        String[] usernames = new String[count];
+        for (int i = 0; i < count; i++) {
+            usernames[i] = "user" + i;
+        }
+        return usernames;
+    }
+
+    /**
+     * One admin per hundred members, as GroupDTO would hold them after loading a group.
+     */
+    private static GroupDTO buildGroupDTO(String[] usernames) {
+        GroupDTO group = new GroupDTO("bench", "Benchmark group");
+        for (int i = 0; i < usernames.length; i++) {
+            if (i % 100 == 0) {
+                group.addAdmin(usernames[i]);
+            } else {
+                group.addParticipant(usernames[i]);
+            }
+        }
+        return group;
+    }
+
+    private static List<BalanceDTO> balanceDTOs(String[] usernames) {
+        Random random = new Random(42);
+        List<BalanceDTO> balances = new ArrayList<>(usernames.length);
+        for (String username : usernames) {
+            BalanceDTO balance = new BalanceDTO();
+            balance.setUsername(username);
+            balance.setParticipant(true);
+            balance.setPaidMoney(Money.ofCents(random.nextInt(20000) + 1));
+            balance.setSentMoney(Money.ZERO);
+            balance.setReceivedMoney(Money.ZERO);
+            balances.add(balance);
+        }
+        return balances;
+    }
+
+    private static GroupLedger buildLedger(String[] usernames) {
+        GroupLedger ledger = new GroupLedger("bench");
+        for (int i = 0; i < usernames.length; i++) {
+            if (i % 100 == 0) {
+                ledger.addAdmin(usernames[i]);
+            } else {
+                ledger.addParticipant(usernames[i]);
+            }
+        }
+        return ledger;
+    }
+
+    /**
+     * Average heap retained by the objects of a factory, measured over enough copies to fill
+     * some 64 MB so that the granularity of the heap statistics does not matter.
+     */
+    private static long retained(int members, Supplier<Object> factory) {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        int copies = Math.max(4, (64 << 20) / (members * 150));
+        Object[] keep = new Object[copies];
+        long before = usedAfterGc(memory);
+        for (int i = 0; i < copies; i++) {
+            keep[i] = factory.get();
+        }
+        long after = usedAfterGc(memory);
+        if (keep[copies - 1] == null) {
+            throw new IllegalStateException();
+        }
+        return (after - before) / copies;
+    }
+
+    private static long usedAfterGc(MemoryMXBean memory) {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,118 @@
+package com.goodtricount.benchmarks;
+
+import com.goodtricount.api.Json;
+import com.goodtricount.dto.ExpenseDTO;
+import com.goodtricount.dto.GroupDTO;
+import com.goodtricount.dto.PaymentDTO;
+import com.goodtricount.dto.UserDTO;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonDeserializer;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.JsonSerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gson serialization and deserialization of a GroupDTO with large expense and payment lists, and
+ * of a UserDTO: a reflective Gson, as the servlets used to create, against {@link Json#GSON} and
+ * its streaming type adapters.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GsonBenchmark {
+
+    @Param({ "100", "10000" })
+    public int entries;
+
+    private final Gson reflective = new GsonBuilder()
+            .registerTypeAdapter(LocalDateTime.class,
+                    (JsonSerializer<LocalDateTime>) (src, type, context) -> new JsonPrimitive(src.toString()))
+            .registerTypeAdapter(LocalDateTime.class,
+                    (JsonDeserializer<LocalDateTime>) (json, type, context) -> LocalDateTime.parse(json.getAsString()))
+            .create();
+
+    private GroupDTO group;
+    private String groupJson;
+    private UserDTO user;
+    private String userJson;
+
+    @Setup
+    public void setUp() {
+        group = new GroupDTO("bench", "Benchmark group");
+        for (int i = 0; i < 20; i++) {
+            group.addParticipant("user" + i);
+        }
+        group.addAdmin("user0");
+
+        LocalDateTime now = LocalDateTime.now();
+        for (int i = 0; i < entries; i++) {
+            String payer = "user" + (i % 20);
+            String receiver = "user" + ((i + 1) % 20);
+            BigDecimal amount = BigDecimal.valueOf(i % 20000 + 1, 2);
+            group.addExpense(new ExpenseDTO(payer, amount, "Expense number " + i));
+            group.addPayment(new PaymentDTO(payer, receiver, amount, "confirmed", now.minusMinutes(i), now));
+        }
+        groupJson = Json.GSON.toJson(group);
+
+        user = new UserDTO("user0", null, "user0@example.com", "User Zero");
+        userJson = "{\"username\":\"user0\",\"password\":\"secret\"}";
+    }
+
+    @Benchmark
+    public String serializeGroupReflective() {
+        return reflective.toJson(group);
+    }
+
+    @Benchmark
+    public String serializeGroupAdapters() {
+        return Json.GSON.toJson(group);
+    }
+
+    @Benchmark
+    public GroupDTO deserializeGroupReflective() {
+        return reflective.fromJson(groupJson, GroupDTO.class);
+    }
+
+    @Benchmark
+    public GroupDTO deserializeGroupAdapters() {
+        return Json.GSON.fromJson(groupJson, GroupDTO.class);
+    }
+
+    @Benchmark
+    public String serializeUserReflective() {
+        return reflective.toJson(user);
+    }
+
+    @Benchmark
+    public String serializeUserAdapters() {
+        return Json.GSON.toJson(user);
+    }
+
+    @Benchmark
+    public UserDTO deserializeUserReflective() {
+        return reflective.fromJson(userJson, UserDTO.class);
+    }
+
+    @Benchmark
+    public UserDTO deserializeUserAdapters() {
+        return Json.GSON.fromJson(userJson, UserDTO.class);
+    }
+}
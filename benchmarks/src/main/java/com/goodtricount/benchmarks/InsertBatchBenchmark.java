@@ -0,0 +1,121 @@
+package com.goodtricount.benchmarks;
+
+import com.goodtricount.dto.DatabaseManager;
+import com.goodtricount.dto.ExpenseDAO;
+import com.goodtricount.dto.ExpenseDTO;
+import com.goodtricount.dto.GroupDAO;
+import com.goodtricount.dto.GroupDTO;
+import com.goodtricount.dto.UserDAO;
+import com.goodtricount.dto.UserDTO;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load test of {@link ExpenseDAO#insertExpense} from {@value #THREADS} concurrent callers against
+ * the configured database (use a local PostgreSQL with its default {@code synchronous_commit}),
+ * once with one transaction per expense and once with the group commit of
+ * {@code db.batch.expenses.enabled}. The throughput is in expenses per second; the gain comes
+ * from committing, and flushing the write-ahead log, once per batch instead of once per expense.
+ *
+ * <pre>
+ * java -Dgoodtricount.db.url=jdbc:postgresql://localhost/goodtricount \
+ *     -jar benchmarks/target/benchmarks.jar InsertBatch
+ * </pre>
+ *
+ * Seeds {@value #USERS} users and {@value #GROUPS} groups, so that concurrent inserts mostly go
+ * to different groups as in a burst of activity across trips, and removes them afterwards.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Threads(InsertBatchBenchmark.THREADS)
+public class InsertBatchBenchmark {
+
+    static final int THREADS = 64;
+
+    private static final String PREFIX = "jmh_batch_";
+    private static final int USERS = 20;
+    private static final int GROUPS = 200;
+
+    private static final String POOL = "-Dgoodtricount.db.pool.max=" + THREADS;
+
+    private UserDAO userDAO;
+    private GroupDAO groupDAO;
+    private ExpenseDAO expenseDAO;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        DatabaseManager manager = DatabaseManager.getInstance();
+        if (!manager.initializeDatabase()) {
+            throw new IllegalStateException("Cannot initialize the database; check goodtricount.db.url");
+        }
+        userDAO = manager.getUserDAO();
+        groupDAO = manager.getGroupDAO();
+        expenseDAO = manager.getExpenseDAO();
+
+        tearDown();
+        for (int i = 0; i < USERS; i++) {
+            userDAO.insertUser(new UserDTO(PREFIX + "user" + i, "password", PREFIX + i + "@example.com", "User " + i));
+        }
+        for (int g = 0; g < GROUPS; g++) {
+            GroupDTO group = new GroupDTO(PREFIX + "group" + g, "Group " + g);
+            for (int i = 0; i < USERS; i++) {
+                group.addParticipant(PREFIX + "user" + i);
+            }
+            group.addAdmin(PREFIX + "user0");
+            groupDAO.insertGroup(group);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (int g = 0; g < GROUPS; g++) {
+            groupDAO.deleteGroup(PREFIX + "group" + g);
+        }
+        for (int i = 0; i < USERS; i++) {
+            userDAO.deleteUser(PREFIX + "user" + i);
+        }
+    }
+
+    /** One transaction, and one commit, per expense. */
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = POOL)
+    public int insertExpense() {
+        return insert();
+    }
+
+    /** Concurrent expenses committed together, in batches of up to 64 within 1 ms. */
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = { POOL, "-Dgoodtricount.db.batch.expenses.enabled=true" })
+    public int insertExpenseBatched() {
+        return insert();
+    }
+
+    private int insert() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        ExpenseDTO expense = new ExpenseDTO(PREFIX + "user" + random.nextInt(USERS),
+                BigDecimal.valueOf(random.nextInt(1, 100000), 2), "Load test");
+        int expenseId = expenseDAO.insertExpense(PREFIX + "group" + random.nextInt(GROUPS), expense);
+        if (expenseId < 0) {
+            throw new IllegalStateException("Insert failed");
+        }
+        return expenseId;
+    }
+}
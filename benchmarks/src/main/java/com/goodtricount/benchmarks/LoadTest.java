@@ -0,0 +1,123 @@
+package com.goodtricount.benchmarks;
+
+import com.goodtricount.dto.LatencyHistogram;
+import com.goodtricount.dto.Metrics;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Closed-loop HTTP load test against a running instance: a number of clients send GET requests
+ * to one endpoint for a fixed time, each sending the next request as soon as it has the response.
+ * Prints the throughput, the latency quantiles, the responses by status, and the executor and
+ * pool metrics of the server at the end of the run.
+ *
+ * <p>Used to compare the platform-thread executor with virtual threads: run it against the server
+ * started once without and once with {@code -Dgoodtricount.api.executor.virtualThreads=true},
+ * with the same {@code db.pool.max}.</p>
+ *
+ * <pre>
+ * java -cp benchmarks/target/benchmarks.jar com.goodtricount.benchmarks.LoadTest \
+ *     http://localhost:8080/goodtricount "/api/balances?groupId=..." 2000 30
+ * </pre>
+ */
+public class LoadTest {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("Usage: LoadTest <base URL> <path> [clients, default 500] [seconds, default 30]");
+            return;
+        }
+        String baseUrl = args[0];
+        URL url = new URL(baseUrl + args[1]);
+        int clients = args.length > 2 ? Integer.parseInt(args[2]) : 500;
+        long seconds = args.length > 3 ? Long.parseLong(args[3]) : 30;
+
+        LatencyHistogram latency = Metrics.http("GET " + args[1]);
+        Map<Integer, AtomicLong> statuses = new ConcurrentHashMap<>();
+        AtomicLong failures = new AtomicLong();
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        CountDownLatch done = new CountDownLatch(clients);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < clients; i++) {
+            Thread client = new Thread(() -> {
+                try {
+                    while (System.nanoTime() - end < 0) {
+                        long sent = System.nanoTime();
+                        try {
+                            int status = get(url);
+                            latency.record(sent);
+                            statuses.computeIfAbsent(status, s -> new AtomicLong()).incrementAndGet();
+                        } catch (IOException e) {
+                            latency.error();
+                            failures.incrementAndGet();
+                        }
+                    }
+                } finally {
+                    done.countDown();
+                }
+            }, "load-" + i);
+            client.setDaemon(true);
+            client.start();
+        }
+        done.await();
+        double elapsed = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("%d clients, %.1f s: %d responses, %.1f requests/s, %d connection failures%n",
+                clients, elapsed, latency.getCount(), latency.getCount() / elapsed, failures.get());
+        System.out.printf("latency ms: p50 %.1f  p90 %.1f  p99 %.1f  p999 %.1f  max %.1f%n",
+                millis(latency.getValueAtQuantile(0.5)), millis(latency.getValueAtQuantile(0.9)),
+                millis(latency.getValueAtQuantile(0.99)), millis(latency.getValueAtQuantile(0.999)),
+                millis(latency.getMaxNanos()));
+        System.out.println("responses by status: " + statuses);
+
+        printServerMetrics(new URL(baseUrl + "/api/metrics"));
+    }
+
+    private static int get(URL url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(10000);
+        connection.setReadTimeout(60000);
+        int status = connection.getResponseCode();
+        // Read the body to the end, so that the connection is kept alive for the next request
+        InputStream body = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+        if (body != null) {
+            byte[] buffer = new byte[8192];
+            try (InputStream in = body) {
+                while (in.read(buffer) >= 0) {
+                    // discard
+                }
+            }
+        }
+        return status;
+    }
+
+    private static void printServerMetrics(URL metrics) {
+        try (BufferedReader in = new BufferedReader(
+                new InputStreamReader(metrics.openStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.startsWith("goodtricount_executor_") || line.startsWith("goodtricount_pool_")) {
+                    System.out.println("server " + line);
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Could not read the server metrics: " + e.getMessage());
+        }
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+}
@@ -0,0 +1,77 @@
+package com.goodtricount.benchmarks;
+
+import com.goodtricount.dto.MembershipCache;
+import com.goodtricount.dto.MembershipCache.Membership;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Authorization checks against the membership cache once it is warm, from several threads: the
+ * cost of {@code GroupDAO.isParticipant} when it does not have to query the database.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class MembershipBenchmark {
+
+    @Param({ "1000" })
+    public int groups;
+
+    @Param({ "20", "10000" })
+    public int members;
+
+    private final MembershipCache cache = new MembershipCache(100000, TimeUnit.HOURS.toMillis(1));
+    private MembershipCache.Loader loader;
+    private String[] groupIds;
+    private String[] usernames;
+
+    @Setup
+    public void setUp() throws SQLException {
+        List<String> participants = new ArrayList<>();
+        for (int i = 0; i < members; i++) {
+            participants.add("user" + i);
+        }
+        Membership membership = new Membership(participants, Collections.singletonList("user0"));
+        loader = groupId -> membership;
+
+        groupIds = new String[groups];
+        for (int i = 0; i < groups; i++) {
+            groupIds[i] = "group" + i;
+            cache.get(groupIds[i], loader);
+        }
+        // Fresh String instances, as when they come from a request
+        usernames = new String[1024];
+        for (int i = 0; i < usernames.length; i++) {
+            usernames[i] = new String("user" + (i * 7 % (members * 2)));
+        }
+    }
+
+    @Benchmark
+    public boolean isParticipant() throws SQLException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String groupId = groupIds[random.nextInt(groups)];
+        String username = usernames[random.nextInt(usernames.length)];
+        return cache.get(groupId, loader).isParticipant(username);
+    }
+}
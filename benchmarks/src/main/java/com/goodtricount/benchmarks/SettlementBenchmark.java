@@ -0,0 +1,139 @@
+package com.goodtricount.benchmarks;
+
+import com.goodtricount.dto.SettlementPlan;
+import com.goodtricount.dto.SettlementSolver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the settlement solver with the greedy "who owes whom" loop of the web client
+ * (script.js, renderGroupDetail) on synthetic groups.
+ *
+ * <p>The JMH benchmarks measure the time per group; {@link #main(String[])} prints the
+ * number of transfers each approach suggests.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SettlementBenchmark {
+
+    private static final int[] GROUP_SIZES = { 4, 8, 12, 16, 50, 500, 5000 };
+
+    @Param({ "8", "16", "50", "500", "5000" })
+    public int participants;
+
+    private final SettlementSolver solver = new SettlementSolver();
+    private long[] balances;
+
+    @Setup
+    public void setUp() {
+        balances = randomBalances(participants, new Random(42));
+    }
+
+    @Benchmark
+    public int greedy() {
+        return greedyTransfers(balances);
+    }
+
+    @Benchmark
+    public SettlementPlan solver() {
+        return solver.solve(balances);
+    }
+
+    public static void main(String[] args) {
+        SettlementSolver solver = new SettlementSolver();
+        Random random = new Random(42);
+        int groups = 200;
+
+        System.out.println("participants | greedy transfers | solver transfers | optimal");
+
+        for (int size : GROUP_SIZES) {
+            long greedyTransfers = 0;
+            long solverTransfers = 0;
+            int optimal = 0;
+            for (int g = 0; g < groups; g++) {
+                long[] group = randomBalances(size, random);
+                greedyTransfers += greedyTransfers(group);
+                SettlementPlan plan = solver.solve(group);
+                solverTransfers += plan.size();
+                if (plan.isOptimal()) {
+                    optimal++;
+                }
+            }
+
+            System.out.printf("%12d | %16.2f | %16.2f | %6d%%%n",
+                    size,
+                    (double) greedyTransfers / groups,
+                    (double) solverTransfers / groups,
+                    optimal * 100 / groups);
+        }
+    }
+
+    /**
+     * Random zero-sum balances in cents, drawn from round amounts so that
+     * groups contain debts that cancel each other like real trips do.
+     */
+    static long[] randomBalances(int size, Random random) {
+        long[] balances = new long[size];
+        long total = 0;
+        for (int i = 0; i < size - 1; i++) {
+            balances[i] = (random.nextInt(41) - 20) * 500L + (random.nextBoolean() ? 0 : random.nextInt(100));
+            total += balances[i];
+        }
+        balances[size - 1] = -total;
+        return balances;
+    }
+
+    /**
+     * Port of the greedy two-pointer loop of the web client, in floating point euros.
+     *
+     * @return the number of transfers it suggests
+     */
+    static int greedyTransfers(long[] cents) {
+        double[] balances = new double[cents.length];
+        for (int k = 0; k < cents.length; k++) {
+            balances[k] = cents[k] / 100.0;
+        }
+        Arrays.sort(balances);
+
+        int transfers = 0;
+        int i = 0;
+        int j = balances.length - 1;
+        while (i < j) {
+            double debt = balances[i];
+            double credit = balances[j];
+            transfers++;
+            if (Math.abs(debt) > credit) {
+                balances[i] += credit;
+                balances[j] = 0;
+                j--;
+            } else if (Math.abs(debt) < credit) {
+                balances[j] += debt;
+                balances[i] = 0;
+                i++;
+            } else {
+                balances[i] = 0;
+                balances[j] = 0;
+                i++;
+                j--;
+            }
+        }
+        return transfers;
+    }
+}
@@ -0,0 +1,74 @@
+package com.goodtricount.api;
+
+import com.goodtricount.dto.GroupDAO;
+import com.goodtricount.dto.MembershipCache;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+
+/**
+ * The user of a request and what they may do in a group.
+ *
+ * <p>{@link LoginServlet} stores the username in the HTTP session; the servlets read it with
+ * {@link #getUser} on the container thread, and check it against the members of the group with
+ * {@link #authorize}, which is served from the {@link MembershipCache} of {@link GroupDAO}.</p>
+ */
+final class Auth {
+
+    /** The session attribute holding the username of the logged in user. */
+    static final String USER = "goodtricount.user";
+
+    private static final GroupDAO GROUP_DAO = new GroupDAO();
+
+    private Auth() {
+    }
+
+    /**
+     * Get the user logged in on the session of a request.
+     *
+     * @param req the request
+     * @return the username, or null if nobody is logged in
+     */
+    static String getUser(HttpServletRequest req) {
+        HttpSession session = req.getSession(false);
+        return session == null ? null : (String) session.getAttribute(USER);
+    }
+
+    /**
+     * Log a user in: the session of the request, if any, is replaced by a new one, so that an ID
+     * known before the login cannot be used after it.
+     *
+     * @param req the request
+     * @param username the username
+     */
+    static void login(HttpServletRequest req, String username) {
+        HttpSession old = req.getSession(false);
+        if (old != null) {
+            old.invalidate();
+        }
+        req.getSession(true).setAttribute(USER, username);
+    }
+
+    /**
+     * Check that a user may act on a group. Participants and admins may read and add to a group;
+     * some operations are for admins only.
+     *
+     * @param username the user, or null if nobody is logged in
+     * @param groupId the ID of the group
+     * @param adminOnly whether only admins of the group are allowed
+     * @return 200 if allowed, 401 without a user, 403 if the user is not allowed or the group does
+     * not exist, or 500 if the members cannot be read
+     */
+    static int authorize(String username, String groupId, boolean adminOnly) {
+        if (username == null) {
+            return HttpServletResponse.SC_UNAUTHORIZED;
+        }
+        MembershipCache.Membership membership = GROUP_DAO.getMembership(groupId);
+        if (membership == null) {
+            return HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+        }
+        boolean allowed = membership.isAdmin(username) || (!adminOnly && membership.isParticipant(username));
+        return allowed ? HttpServletResponse.SC_OK : HttpServletResponse.SC_FORBIDDEN;
+    }
+}
@@ -0,0 +1,47 @@
+package com.goodtricount.api;
+
+import com.goodtricount.api.DaoExecutor.Reply;
+import com.goodtricount.dto.BalanceDAO;
+import com.goodtricount.dto.BalanceDTO;
+import com.goodtricount.dto.LatencyHistogram;
+import com.goodtricount.dto.Metrics;
+import com.google.gson.Gson;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.List;
+
+@WebServlet(urlPatterns = "/api/balances", asyncSupported = true)
+public class BalancesServlet extends HttpServlet {
+
+    private static final LatencyHistogram GET_BALANCES = Metrics.http("GET /api/balances");
+
+    private final BalanceDAO balanceDAO = new BalanceDAO();
+    private final Gson gson = Json.GSON;
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        String groupId = req.getParameter("groupId");
+        String user = Auth.getUser(req);
+        DaoExecutor.submit(req, resp, GET_BALANCES, () -> getBalances(groupId, user));
+    }
+
+    private Reply getBalances(String groupId, String user) {
+        if (groupId == null || groupId.isEmpty()) {
+            return Reply.text(HttpServletResponse.SC_BAD_REQUEST, "Missing groupId");
+        }
+
+        int access = Auth.authorize(user, groupId, false);
+        if (access != HttpServletResponse.SC_OK) {
+            return Reply.status(access);
+        }
+
+        List<BalanceDTO> balances = balanceDAO.getBalancesForGroup(groupId);
+
+        return Reply.json(HttpServletResponse.SC_OK, gson.toJson(balances));
+    }
+}
@@ -0,0 +1,80 @@
+package com.goodtricount.api;
+
+import com.goodtricount.api.DaoExecutor.Reply;
+import com.goodtricount.dto.GroupChangeDAO;
+import com.goodtricount.dto.GroupChangesDTO;
+import com.goodtricount.dto.LatencyHistogram;
+import com.goodtricount.dto.Metrics;
+import com.google.gson.Gson;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * GET returns what changed in a group after a version: {@code ?groupId=...&since=...}, where
+ * {@code since} is the version the client has, from the ETag of {@code /api/group} or the
+ * {@code version} of the previous changes. The response holds the new version, the name and
+ * members if they changed, the expenses and payments added or updated, and the IDs of those
+ * deleted; see {@link GroupChangeDAO#getChangesSince(String, long)}.
+ *
+ * <p>Answers 304 if the group is still at that version, and 410 if the group has never had it,
+ * e.g. after the database was restored from a backup; the client then reloads the group. Only the
+ * participants and admins of the group may read its changes.</p>
+ */
+@WebServlet(urlPatterns = "/api/changes", asyncSupported = true)
+public class ChangesServlet extends HttpServlet {
+
+    private static final LatencyHistogram GET_CHANGES = Metrics.http("GET /api/changes");
+
+    private final GroupChangeDAO groupChangeDAO = new GroupChangeDAO();
+    private final Gson gson = Json.GSON;
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        String groupId = req.getParameter("groupId");
+        String sinceParameter = req.getParameter("since");
+        String user = Auth.getUser(req);
+        DaoExecutor.submit(req, resp, GET_CHANGES, () -> getChanges(groupId, sinceParameter, user));
+    }
+
+    private Reply getChanges(String groupId, String sinceParameter, String user) {
+        if (groupId == null || groupId.isEmpty()) {
+            return Reply.text(HttpServletResponse.SC_BAD_REQUEST, "Missing groupId");
+        }
+
+        int access = Auth.authorize(user, groupId, false);
+        if (access != HttpServletResponse.SC_OK) {
+            return Reply.status(access);
+        }
+
+        long since;
+        try {
+            since = Long.parseLong(sinceParameter);
+        } catch (NumberFormatException e) {
+            return Reply.text(HttpServletResponse.SC_BAD_REQUEST, "Invalid since");
+        }
+        if (since < 1) {
+            return Reply.text(HttpServletResponse.SC_BAD_REQUEST, "Invalid since");
+        }
+
+        GroupChangesDTO changes = groupChangeDAO.getChangesSince(groupId, since);
+
+        if (changes == null) {
+            return Reply.text(HttpServletResponse.SC_NOT_FOUND, "Group not found");
+        }
+        if (since > changes.getVersion()) {
+            return Reply.text(HttpServletResponse.SC_GONE, "Unknown version, reload the group");
+        }
+        if (!changes.hasChanges()) {
+            return GroupServlet.notModified(since);
+        }
+
+        return Reply.json(HttpServletResponse.SC_OK, gson.toJson(changes))
+                .header("ETag", GroupServlet.etag(changes.getVersion()))
+                .header("Cache-Control", "no-cache");
+    }
+}
@@ -0,0 +1,112 @@
+package com.goodtricount.api;
+
+import com.goodtricount.dto.ExpenseDAO;
+import com.goodtricount.dto.PaymentDAO;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Bulk CSV transfer of the expenses or payments of a group: {@code ?groupId=...&table=expenses|payments}.
+ * GET downloads them; POST imports the CSV in the request body (UTF-8, with a header) and
+ * returns the number of imported rows. Both stream between the HTTP body and PostgreSQL's COPY.
+ * The participants and admins of the group may download its CSV; only its admins may import.
+ */
+@WebServlet("/api/csv")
+public class CsvServlet extends HttpServlet {
+
+    private final ExpenseDAO expenseDAO = new ExpenseDAO();
+    private final PaymentDAO paymentDAO = new PaymentDAO();
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        String groupId = req.getParameter("groupId");
+        String table = req.getParameter("table");
+
+        if (!validate(groupId, table, resp) || !authorize(req, groupId, false, resp)) {
+            return;
+        }
+
+        resp.setStatus(HttpServletResponse.SC_OK);
+        resp.setContentType("text/csv");
+        resp.setCharacterEncoding("UTF-8");
+        resp.setHeader("Content-Disposition", "attachment; filename=\""
+                + table + "-" + groupId.replaceAll("[^A-Za-z0-9_-]", "_") + ".csv\"");
+
+        Writer out = new BufferedWriter(new OutputStreamWriter(resp.getOutputStream(), StandardCharsets.UTF_8));
+        if ("expenses".equals(table)) {
+            expenseDAO.exportExpensesCsv(groupId, out);
+        } else {
+            paymentDAO.exportPaymentsCsv(groupId, out);
+        }
+        out.flush();
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        String groupId = req.getParameter("groupId");
+        String table = req.getParameter("table");
+
+        // Checked before the body is read, so that nothing is copied for a user who may not import
+        if (!validate(groupId, table, resp) || !authorize(req, groupId, true, resp)) {
+            return;
+        }
+
+        long imported;
+        try (Reader in = new BufferedReader(new InputStreamReader(req.getInputStream(), StandardCharsets.UTF_8))) {
+            if ("expenses".equals(table)) {
+                imported = expenseDAO.importExpensesCsv(groupId, in);
+            } else {
+                imported = paymentDAO.importPaymentsCsv(groupId, in);
+            }
+        } catch (IllegalArgumentException e) {
+            resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            resp.getWriter().write(e.getMessage());
+            return;
+        }
+
+        if (imported < 0) {
+            resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            return;
+        }
+
+        resp.setStatus(HttpServletResponse.SC_OK);
+        resp.setContentType("application/json");
+        resp.getWriter().write("{\"imported\":" + imported + "}");
+    }
+
+    private boolean validate(String groupId, String table, HttpServletResponse resp) throws IOException {
+        if (groupId == null || groupId.isEmpty()) {
+            resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            resp.getWriter().write("Missing groupId");
+            return false;
+        }
+        if (!"expenses".equals(table) && !"payments".equals(table)) {
+            resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            resp.getWriter().write("table must be expenses or payments");
+            return false;
+        }
+        return true;
+    }
+
+    private boolean authorize(HttpServletRequest req, String groupId, boolean adminOnly, HttpServletResponse resp)
+            throws IOException {
+        int access = Auth.authorize(Auth.getUser(req), groupId, adminOnly);
+        if (access != HttpServletResponse.SC_OK) {
+            resp.sendError(access);
+            return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,378 @@
+package com.goodtricount.api;
+
+import com.goodtricount.dto.LatencyHistogram;
+import com.goodtricount.dto.Metrics;
+import com.goodtricount.dto.Settings;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Runs the database work of the API servlets on a bounded pool of threads, so that the container's
+ * request threads are released while the database is slow and keep serving static files and other
+ * requests.
+ *
+ * <p>A servlet puts the request in asynchronous mode with {@link #submit}, and the handler it
+ * passes runs on the executor and returns a {@link Reply}, which is then written to the response.
+ * Handlers never touch the request: once a request has timed out the container may recycle it for
+ * another client while its handler still runs, so the servlet reads the parameters, headers and
+ * body it needs on the container thread, see {@link #readBody}, and passes them to the handler.
+ * Bodies are limited to {@code api.maxBodyBytes}; larger ones are answered with 413.
+ * The executor has a fixed number of threads and a bounded queue: when the queue is full the
+ * request is rejected at once with 503 and a {@code Retry-After} header, instead of piling up.
+ * A request that has not been answered within the timeout gets a 503 too; its handler is
+ * interrupted, which stops it while it waits for a pooled connection, but a statement that is
+ * already running completes.</p>
+ *
+ * <p>The size of the pool, its queue and the timeout are read from the {@code api.executor.threads},
+ * {@code api.executor.queue} and {@code api.executor.timeoutMs} settings. The number of busy
+ * threads, the queue length and the rejected and timed out requests are exported as metrics.</p>
+ *
+ * <p>With {@code api.executor.virtualThreads} set, on Java 21 or later, every handler runs on a
+ * virtual thread of its own instead: there is no pool and no queue, and the only limit on the
+ * requests in progress is the connection pool, whose borrow timeout turns into a 500 when it is
+ * exhausted. The executor is created through reflection, as the application is built for Java 8;
+ * on older runtimes the setting is ignored. Code that runs in the handlers blocks on locks rather
+ * than monitors where it waits or does I/O, so that virtual threads do not pin their carrier
+ * thread.</p>
+ */
+public final class DaoExecutor {
+
+    private static final int THREADS = Settings.getInt("api.executor.threads", 10);
+    private static final int QUEUE_CAPACITY = Settings.getInt("api.executor.queue", 100);
+    private static final long TIMEOUT_MILLIS = Settings.getLong("api.executor.timeoutMs", 10000);
+    private static final long MAX_BODY_BYTES = Settings.getLong("api.maxBodyBytes", 1024 * 1024);
+
+    private static final AtomicInteger ACTIVE = new AtomicInteger();
+    private static final AtomicLong REJECTED = new AtomicLong();
+    private static final AtomicLong TIMED_OUT = new AtomicLong();
+
+    private static final ExecutorService EXECUTOR = Settings.getBoolean("api.executor.virtualThreads", false)
+            ? createVirtualThreadExecutor() : null;
+    private static final ThreadPoolExecutor POOL = EXECUTOR == null ? createPool() : null;
+
+    static {
+        Metrics.gauge("executor_threads_active", "Threads running database work.", ACTIVE::get);
+        Metrics.gauge("executor_virtual_threads", "1 if handlers run on virtual threads, 0 on the thread pool.",
+                () -> POOL == null ? 1 : 0);
+        if (POOL != null) {
+            Metrics.gauge("executor_threads_max", "Maximum number of executor threads.", () -> THREADS);
+            Metrics.gauge("executor_queue_size", "Requests waiting for an executor thread.",
+                    () -> POOL.getQueue().size());
+            Metrics.gauge("executor_queue_capacity", "Maximum number of waiting requests.", () -> QUEUE_CAPACITY);
+        }
+        Metrics.counter("executor_rejected_total", "Requests rejected because the queue was full.",
+                REJECTED::get);
+        Metrics.counter("executor_timeouts_total", "Requests that were not answered within the timeout.",
+                TIMED_OUT::get);
+    }
+
+    private DaoExecutor() {
+    }
+
+    private static ThreadPoolExecutor createPool() {
+        AtomicInteger count = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(THREADS, THREADS, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(QUEUE_CAPACITY), runnable -> {
+                    Thread thread = new Thread(runnable, "goodtricount-dao-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        // Idle threads exit, so an unused or undeployed application keeps none
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Get {@code Executors.newVirtualThreadPerTaskExecutor()} (Java 21), or null if the runtime
+     * does not have virtual threads.
+     */
+    private static ExecutorService createVirtualThreadExecutor() {
+        try {
+            ExecutorService executor = (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            System.out.println("API requests run on virtual threads");
+            return executor;
+        } catch (ReflectiveOperationException e) {
+            System.out.println("Virtual threads need Java 21 or later, using a pool of " + THREADS + " threads");
+            return null;
+        }
+    }
+
+    /**
+     * Check whether handlers run on virtual threads.
+     *
+     * @return true with {@code api.executor.virtualThreads} on Java 21 or later
+     */
+    public static boolean isVirtual() {
+        return POOL == null;
+    }
+
+    /**
+     * Handle a request asynchronously. The request is put in asynchronous mode and the handler is
+     * queued on the executor; the servlet must return without touching the response.
+     *
+     * @param req the request; its servlet must support asynchronous mode
+     * @param resp the response
+     * @param histogram the latency histogram of the endpoint, measured up to the reply
+     * @param handler returns the reply from the values read from the request, without touching
+     *                the request itself; exceptions become a 500
+     */
+    public static void submit(HttpServletRequest req, HttpServletResponse resp, LatencyHistogram histogram,
+                              Callable<Reply> handler) {
+        long start = System.nanoTime();
+        AsyncContext async = req.startAsync(req, resp);
+        async.setTimeout(TIMEOUT_MILLIS);
+        Exchange exchange = new Exchange(async, resp, histogram, start);
+        async.addListener(exchange);
+
+        try {
+            exchange.future = (POOL != null ? POOL : EXECUTOR).submit(() -> {
+                // Not worth running once the request has timed out while queued
+                if (!exchange.finished) {
+                    exchange.finish(call(handler));
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            REJECTED.incrementAndGet();
+            resp.setHeader("Retry-After", "1");
+            exchange.finish(Reply.text(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Server busy, try again later"));
+        }
+    }
+
+    /**
+     * Read the body of a request, on the container thread, to pass it to a handler.
+     * A body larger than {@code api.maxBodyBytes} is rejected from its Content-Length, or as soon
+     * as that many bytes have been read when the length is not declared; the servlet then answers
+     * with 413, see {@link #tooLarge}.
+     *
+     * @param req the request
+     * @return the body, decoded with the encoding of the request, ISO-8859-1 if none is declared,
+     * like {@link HttpServletRequest#getReader()}; or null if it is too large
+     * @throws IOException if the body cannot be read
+     */
+    public static String readBody(HttpServletRequest req) throws IOException {
+        if (req.getContentLength() > MAX_BODY_BYTES) {
+            return null;
+        }
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        InputStream in = req.getInputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            if (body.size() + read > MAX_BODY_BYTES) {
+                return null;
+            }
+            body.write(buffer, 0, read);
+        }
+        String encoding = req.getCharacterEncoding();
+        return body.toString(encoding != null ? encoding : "ISO-8859-1");
+    }
+
+    /**
+     * Answer a request whose body {@link #readBody} rejected.
+     *
+     * @param resp the response
+     * @throws IOException if the response cannot be written
+     */
+    public static void tooLarge(HttpServletResponse resp) throws IOException {
+        resp.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE,
+                "The request body is larger than " + MAX_BODY_BYTES + " bytes");
+    }
+
+    private static Reply call(Callable<Reply> handler) {
+        ACTIVE.incrementAndGet();
+        try {
+            return handler.call();
+        } catch (Exception e) {
+            System.out.println("Error handling request: " + e.getMessage());
+            e.printStackTrace();
+            return Reply.status(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        } finally {
+            ACTIVE.decrementAndGet();
+        }
+    }
+
+    /**
+     * The response to a request: a status and, optionally, headers and a body.
+     */
+    public static final class Reply {
+
+        private final int status;
+        private final String contentType;
+        private final String body;
+        private final Map<String, String> headers = new LinkedHashMap<>();
+        private String user;
+
+        private Reply(int status, String contentType, String body) {
+            this.status = status;
+            this.contentType = contentType;
+            this.body = body;
+        }
+
+        /**
+         * Add a header to the reply.
+         *
+         * @param name the header name
+         * @param value the header value
+         * @return this reply
+         */
+        public Reply header(String name, String value) {
+            headers.put(name, value);
+            return this;
+        }
+
+        /**
+         * Log a user in on the session of the request when the reply is written, see {@link Auth#login}.
+         *
+         * @param username the username
+         * @return this reply
+         */
+        public Reply login(String username) {
+            this.user = username;
+            return this;
+        }
+
+        /**
+         * A JSON reply.
+         *
+         * @param status the HTTP status
+         * @param json the JSON body
+         * @return the reply
+         */
+        public static Reply json(int status, String json) {
+            return new Reply(status, "application/json", json);
+        }
+
+        /**
+         * A reply with a plain message, as the servlets write for errors.
+         *
+         * @param status the HTTP status
+         * @param message the message
+         * @return the reply
+         */
+        public static Reply text(int status, String message) {
+            return new Reply(status, null, message);
+        }
+
+        /**
+         * A reply without a body.
+         *
+         * @param status the HTTP status
+         * @return the reply
+         */
+        public static Reply status(int status) {
+            return new Reply(status, null, null);
+        }
+    }
+
+    /**
+     * One request in asynchronous mode. Whichever comes first, the handler's reply, the timeout or
+     * an error, writes the response and completes the request; the others are ignored.
+     */
+    private static final class Exchange implements AsyncListener {
+
+        private final AsyncContext async;
+        private final HttpServletResponse resp;
+        private final LatencyHistogram histogram;
+        private final long start;
+        // A lock rather than synchronized: the response is written while it is held
+        private final ReentrantLock lock = new ReentrantLock();
+        // Written under the lock; read without it to skip handlers that are no longer needed
+        private volatile boolean finished;
+        volatile Future<?> future;
+
+        Exchange(AsyncContext async, HttpServletResponse resp, LatencyHistogram histogram, long start) {
+            this.async = async;
+            this.resp = resp;
+            this.histogram = histogram;
+            this.start = start;
+        }
+
+        void finish(Reply reply) {
+            lock.lock();
+            try {
+                if (!finished) {
+                    finished = true;
+                    write(reply);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void write(Reply reply) {
+            try {
+                if (reply.user != null) {
+                    Auth.login((HttpServletRequest) async.getRequest(), reply.user);
+                }
+                resp.setStatus(reply.status);
+                for (Map.Entry<String, String> header : reply.headers.entrySet()) {
+                    resp.setHeader(header.getKey(), header.getValue());
+                }
+                if (reply.contentType != null) {
+                    resp.setContentType(reply.contentType);
+                }
+                if (reply.body != null) {
+                    resp.getWriter().write(reply.body);
+                }
+                if (reply.status >= HttpServletResponse.SC_INTERNAL_SERVER_ERROR) {
+                    histogram.error();
+                }
+            } catch (IOException | RuntimeException e) {
+                histogram.error();
+                System.out.println("Error writing response: " + e.getMessage());
+            } finally {
+                histogram.record(start);
+                async.complete();
+            }
+        }
+
+        private void cancel() {
+            Future<?> running = future;
+            if (running != null) {
+                running.cancel(true);
+            }
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            TIMED_OUT.incrementAndGet();
+            cancel();
+            finish(Reply.text(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Request timed out"));
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            cancel();
+            finish(Reply.status(HttpServletResponse.SC_INTERNAL_SERVER_ERROR));
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+}
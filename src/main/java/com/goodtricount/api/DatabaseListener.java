@@ -0,0 +1,28 @@
+package com.goodtricount.api;
+
+import com.goodtricount.dto.DatabaseManager;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import javax.servlet.annotation.WebListener;
+
+/**
+ * Brings the database schema up to date when the application is deployed, before any request is
+ * served, and closes the connection pool when it is undeployed. If the migrations fail, the
+ * deployment fails too, rather than serving requests against an old schema.
+ */
+@WebListener
+public class DatabaseListener implements ServletContextListener {
+
+    @Override
+    public void contextInitialized(ServletContextEvent event) {
+        if (!DatabaseManager.getInstance().initializeDatabase()) {
+            throw new IllegalStateException("Cannot migrate the database schema; check goodtricount.db.url");
+        }
+    }
+
+    @Override
+    public void contextDestroyed(ServletContextEvent event) {
+        DatabaseManager.getInstance().closeConnection();
+    }
+}
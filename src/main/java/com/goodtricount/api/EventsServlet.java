@@ -0,0 +1,285 @@
+package com.goodtricount.api;
+
+import com.goodtricount.dto.GroupChangeDAO;
+import com.goodtricount.dto.GroupNotifications;
+import com.goodtricount.dto.Metrics;
+import com.goodtricount.dto.Settings;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * GET opens a stream of Server-Sent Events with the new versions of a group: {@code ?groupId=...}.
+ * Each event is {@code event: version}, with the version as {@code id} and {@code data}; the
+ * client then fetches what changed from {@code /api/changes}. The first event is the current
+ * version, unless the client already has it as {@code Last-Event-ID}. A deleted group gets
+ * {@code event: deleted} and the stream ends. Only the participants and admins of the group may
+ * open a stream; others get 401 or 403, whether the group exists or not.
+ *
+ * <p>Streams are asynchronous requests that hold no thread while idle: the versions come from
+ * {@link GroupNotifications}, and a small fixed pool of sender threads writes them. A stream keeps
+ * only the latest version it has not sent, so a burst of changes, or a client that reads slowly,
+ * costs one write of the last version rather than a queue of events, and one stream is written by
+ * one sender at a time. Idle streams get a comment every {@code api.events.heartbeatMs}, which
+ * keeps proxies from closing them and detects clients that went away. A stream is closed after
+ * {@code api.events.timeoutMs}; {@code EventSource} reconnects by itself with the
+ * {@code Last-Event-ID} it has.</p>
+ *
+ * <p>Configuration: {@code api.events.threads} (default 2), {@code api.events.maxStreams}
+ * (default 50000, then 503), {@code api.events.heartbeatMs} (default 25000) and
+ * {@code api.events.timeoutMs} (default 1800000).</p>
+ */
+@WebServlet(urlPatterns = "/api/events", asyncSupported = true)
+public class EventsServlet extends HttpServlet {
+
+    private static final int THREADS = Settings.getInt("api.events.threads", 2);
+    private static final int MAX_STREAMS = Settings.getInt("api.events.maxStreams", 50000);
+    private static final long HEARTBEAT_MILLIS = Settings.getLong("api.events.heartbeatMs", 25000);
+    private static final long TIMEOUT_MILLIS = Settings.getLong("api.events.timeoutMs", 1800000);
+
+    private static final Set<Stream> STREAMS = ConcurrentHashMap.newKeySet();
+    private static final AtomicLong SENT = new AtomicLong();
+    private static final AtomicLong REJECTED = new AtomicLong();
+
+    private static final ExecutorService SENDERS = Executors.newFixedThreadPool(THREADS, daemon("goodtricount-events-"));
+    private static final ScheduledExecutorService HEARTBEAT =
+            Executors.newSingleThreadScheduledExecutor(daemon("goodtricount-events-heartbeat-"));
+
+    static {
+        Metrics.gauge("events_streams", "Open event streams.", STREAMS::size);
+        Metrics.counter("events_sent_total", "Version events written to streams.", SENT::get);
+        Metrics.counter("events_rejected_total", "Event streams refused because too many were open.",
+                REJECTED::get);
+
+        HEARTBEAT.scheduleWithFixedDelay(() -> {
+            for (Stream stream : STREAMS) {
+                stream.heartbeat();
+            }
+        }, HEARTBEAT_MILLIS, HEARTBEAT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private final GroupChangeDAO groupChangeDAO = new GroupChangeDAO();
+
+    private static ThreadFactory daemon(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        String groupId = req.getParameter("groupId");
+
+        if (groupId == null || groupId.isEmpty()) {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Missing groupId");
+            return;
+        }
+        // Before the stream takes a slot, and on this thread: a cached membership check
+        int access = Auth.authorize(Auth.getUser(req), groupId, false);
+        if (access != HttpServletResponse.SC_OK) {
+            resp.sendError(access);
+            return;
+        }
+        if (STREAMS.size() >= MAX_STREAMS) {
+            REJECTED.incrementAndGet();
+            resp.setHeader("Retry-After", "10");
+            resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Too many event streams");
+            return;
+        }
+
+        long lastEventId = 0;
+        try {
+            String header = req.getHeader("Last-Event-ID");
+            if (header != null) {
+                lastEventId = Long.parseLong(header.trim());
+            }
+        } catch (NumberFormatException e) {
+            // Not one of ours: send the current version
+        }
+
+        AsyncContext async = req.startAsync(req, resp);
+        async.setTimeout(TIMEOUT_MILLIS);
+        Stream stream = new Stream(async, resp, groupId, lastEventId);
+        async.addListener(stream);
+        STREAMS.add(stream);
+
+        // Subscribed before the version is read, so that no change falls between the two
+        GroupNotifications.getInstance().subscribe(groupId, stream);
+        stream.schedule();
+    }
+
+    /**
+     * One open stream. Notifications and heartbeats only update its state and schedule it; the
+     * sender threads write it, one at a time, until nothing is left to write.
+     */
+    private final class Stream implements GroupNotifications.Subscriber, AsyncListener, Runnable {
+
+        private final AsyncContext async;
+        private final HttpServletResponse resp;
+        private final String groupId;
+        /** The latest version notified, or UNKNOWN until the version is read. */
+        private final AtomicLong pending = new AtomicLong(GroupNotifications.UNKNOWN);
+        /** Schedules not yet drained; the sender that takes it from 0 writes the stream. */
+        private final AtomicInteger scheduled = new AtomicInteger();
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private volatile boolean heartbeatDue;
+        private volatile boolean reload = true;
+        private long sent;
+        private boolean started;
+
+        Stream(AsyncContext async, HttpServletResponse resp, String groupId, long lastEventId) {
+            this.async = async;
+            this.resp = resp;
+            this.groupId = groupId;
+            this.sent = lastEventId;
+        }
+
+        @Override
+        public void groupChanged(String groupId, long version) {
+            if (version == GroupNotifications.UNKNOWN) {
+                reload = true;
+            } else if (version == GroupNotifications.DELETED) {
+                pending.set(GroupNotifications.DELETED);
+            } else {
+                pending.accumulateAndGet(version, (current, next) ->
+                        current == GroupNotifications.DELETED ? current : Math.max(current, next));
+            }
+            schedule();
+        }
+
+        void heartbeat() {
+            heartbeatDue = true;
+            schedule();
+        }
+
+        void schedule() {
+            if (scheduled.getAndIncrement() == 0) {
+                SENDERS.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            do {
+                if (!closed.get()) {
+                    try {
+                        drain();
+                    } catch (IOException | RuntimeException e) {
+                        close();
+                    }
+                }
+                missed = scheduled.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void drain() throws IOException {
+            if (reload) {
+                reload = false;
+                long version = groupChangeDAO.getVersion(groupId);
+                if (version < 0 && !started) {
+                    resp.sendError(HttpServletResponse.SC_NOT_FOUND, "Group not found");
+                    close();
+                    return;
+                }
+                if (version > 0) {
+                    groupChanged(groupId, version);
+                }
+            }
+
+            StringBuilder out = new StringBuilder();
+            if (!started) {
+                started = true;
+                resp.setStatus(HttpServletResponse.SC_OK);
+                resp.setContentType("text/event-stream");
+                resp.setCharacterEncoding("UTF-8");
+                resp.setHeader("Cache-Control", "no-cache");
+                // Keeps nginx from buffering the stream
+                resp.setHeader("X-Accel-Buffering", "no");
+                out.append("retry: 5000\n\n");
+            }
+
+            long version = pending.get();
+            if (version == GroupNotifications.DELETED) {
+                out.append("event: deleted\ndata: ").append(groupId).append("\n\n");
+                write(out);
+                close();
+                return;
+            }
+            if (version > sent) {
+                out.append("id: ").append(version).append("\nevent: version\ndata: ").append(version).append("\n\n");
+                sent = version;
+                SENT.incrementAndGet();
+            } else if (heartbeatDue && out.length() == 0) {
+                out.append(": ping\n\n");
+            }
+            heartbeatDue = false;
+
+            if (out.length() > 0) {
+                write(out);
+            }
+        }
+
+        private void write(StringBuilder out) throws IOException {
+            PrintWriter writer = resp.getWriter();
+            writer.write(out.toString());
+            writer.flush();
+            // PrintWriter swallows I/O errors: a client that went away shows up here
+            if (writer.checkError()) {
+                throw new IOException("Client disconnected");
+            }
+        }
+
+        private void close() {
+            if (closed.compareAndSet(false, true)) {
+                STREAMS.remove(this);
+                GroupNotifications.getInstance().unsubscribe(groupId, this);
+                try {
+                    async.complete();
+                } catch (IllegalStateException e) {
+                    // Already completed by the container
+                }
+            }
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            close();
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            close();
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            close();
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.goodtricount.api;
+
+import com.goodtricount.api.DaoExecutor.Reply;
+import com.goodtricount.dto.ExpenseDAO;
+import com.goodtricount.dto.ExpenseDTO;
+import com.goodtricount.dto.GroupDAO;
+import com.goodtricount.dto.LatencyHistogram;
+import com.goodtricount.dto.MembershipCache;
+import com.goodtricount.dto.Metrics;
+import com.goodtricount.dto.Page;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.List;
+
+/**
+ * GET returns one page of the expenses of a group: {@code ?groupId=...&limit=...&pageToken=...}.
+ * The response holds the expenses and, if there are more, the {@code nextPageToken} to pass next.
+ * Only the participants and admins of the group may read them.
+ *
+ * <p>POST adds several expenses to a group at once: {@code ?groupId=...} with a JSON array of
+ * expenses as body, e.g. the lines of a receipt. They are inserted in one transaction, see
+ * {@link ExpenseDAO#insertExpenses(String, List)}, and returned with their IDs, in order. Only
+ * the participants and admins of the group may add expenses, and every payer must be a participant.</p>
+ */
+@WebServlet(urlPatterns = "/api/expenses", asyncSupported = true)
+public class ExpensesServlet extends HttpServlet {
+
+    private static final int DEFAULT_LIMIT = 50;
+    private static final LatencyHistogram GET_EXPENSES = Metrics.http("GET /api/expenses");
+    private static final LatencyHistogram POST_EXPENSES = Metrics.http("POST /api/expenses");
+    private static final Type EXPENSE_LIST = new TypeToken<List<ExpenseDTO>>() { }.getType();
+
+    private final ExpenseDAO expenseDAO = new ExpenseDAO();
+    private final GroupDAO groupDAO = new GroupDAO();
+    private final Gson gson = Json.GSON;
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        String groupId = req.getParameter("groupId");
+        String limit = req.getParameter("limit");
+        String pageToken = req.getParameter("pageToken");
+        String user = Auth.getUser(req);
+        DaoExecutor.submit(req, resp, GET_EXPENSES, () -> getExpenses(groupId, limit, pageToken, user));
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        String groupId = req.getParameter("groupId");
+        String user = Auth.getUser(req);
+        String body = DaoExecutor.readBody(req);
+        if (body == null) {
+            DaoExecutor.tooLarge(resp);
+            return;
+        }
+        DaoExecutor.submit(req, resp, POST_EXPENSES, () -> addExpenses(groupId, user, body));
+    }
+
+    private Reply getExpenses(String groupId, String limit, String pageToken, String user) {
+        if (groupId == null || groupId.isEmpty()) {
+            return Reply.text(HttpServletResponse.SC_BAD_REQUEST, "Missing groupId");
+        }
+
+        int access = Auth.authorize(user, groupId, false);
+        if (access != HttpServletResponse.SC_OK) {
+            return Reply.status(access);
+        }
+
+        Page<ExpenseDTO> page;
+        try {
+            int size = limit == null ? DEFAULT_LIMIT : Integer.parseInt(limit);
+            page = expenseDAO.getExpensesForGroup(groupId, pageToken, size);
+        } catch (IllegalArgumentException e) {
+            return Reply.text(HttpServletResponse.SC_BAD_REQUEST, "Invalid limit or pageToken");
+        }
+
+        if (page == null) {
+            return Reply.status(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        }
+
+        return Reply.json(HttpServletResponse.SC_OK, gson.toJson(page));
+    }
+
+    private Reply addExpenses(String groupId, String user, String body) {
+        if (groupId == null || groupId.isEmpty()) {
+            return Reply.text(HttpServletResponse.SC_BAD_REQUEST, "Missing groupId");
+        }
+
+        int access = Auth.authorize(user, groupId, false);
+        if (access != HttpServletResponse.SC_OK) {
+            return Reply.status(access);
+        }
+
+        List<ExpenseDTO> expenses;
+        try {
+            expenses = gson.fromJson(body, EXPENSE_LIST);
+        } catch (JsonParseException e) {
+            return Reply.text(HttpServletResponse.SC_BAD_REQUEST, "Invalid expenses: " + e.getMessage());
+        }
+
+        if (expenses == null || expenses.isEmpty()) {
+            return Reply.text(HttpServletResponse.SC_BAD_REQUEST, "No expenses");
+        }
+        if (expenses.size() > ExpenseDAO.MAX_BATCH_SIZE) {
+            return Reply.text(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE,
+                    "At most " + ExpenseDAO.MAX_BATCH_SIZE + " expenses at once");
+        }
+        for (ExpenseDTO expense : expenses) {
+            if (expense == null || expense.getPayer() == null || expense.getMoney() == null
+                    || expense.getMoney().signum() <= 0) {
+                return Reply.text(HttpServletResponse.SC_BAD_REQUEST, "Every expense needs a payer and a positive amount");
+            }
+        }
+
+        MembershipCache.Membership membership = groupDAO.getMembership(groupId);
+        if (membership == null) {
+            return Reply.status(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        }
+        for (ExpenseDTO expense : expenses) {
+            if (!membership.isParticipant(expense.getPayer())) {
+                return Reply.text(HttpServletResponse.SC_BAD_REQUEST,
+                        "Payer " + expense.getPayer() + " is not a participant of the group");
+            }
+        }
+
+        int[] expenseIds = expenseDAO.insertExpenses(groupId, expenses);
+
+        if (expenseIds.length != expenses.size()) {
+            return Reply.status(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        }
+        for (int i = 0; i < expenseIds.length; i++) {
+            expenses.get(i).setId(expenseIds[i]);
+        }
+
+        return Reply.json(HttpServletResponse.SC_CREATED, gson.toJson(expenses));
+    }
+}
@@ -0,0 +1,57 @@
+package com.goodtricount.api;
+
+import com.goodtricount.dto.GroupDAO;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * GET streams the full ledger of a group as a JSON download: {@code ?groupId=...}.
+ * The document is written while it is read from the database, so it is never held in memory.
+ * Only the participants and admins of the group may download it.
+ */
+@WebServlet("/api/export")
+public class ExportServlet extends HttpServlet {
+
+    private final GroupDAO groupDAO = new GroupDAO();
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        String groupId = req.getParameter("groupId");
+
+        if (groupId == null || groupId.isEmpty()) {
+            resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            resp.getWriter().write("Missing groupId");
+            return;
+        }
+
+        int access = Auth.authorize(Auth.getUser(req), groupId, false);
+        if (access != HttpServletResponse.SC_OK) {
+            resp.sendError(access);
+            return;
+        }
+
+        resp.setStatus(HttpServletResponse.SC_OK);
+        resp.setContentType("application/json");
+        resp.setCharacterEncoding("UTF-8");
+        resp.setHeader("Content-Disposition",
+                "attachment; filename=\"group-" + groupId.replaceAll("[^A-Za-z0-9_-]", "_") + ".json\"");
+
+        // Nothing is written before the group is found, so a missing group can still get a 404
+        Writer out = new BufferedWriter(new OutputStreamWriter(resp.getOutputStream(), StandardCharsets.UTF_8));
+        if (!groupDAO.exportGroup(groupId, out)) {
+            resp.reset();
+            resp.sendError(HttpServletResponse.SC_NOT_FOUND, "Group not found");
+            return;
+        }
+        out.flush();
+    }
+}
@@ -0,0 +1,105 @@
+package com.goodtricount.api;
+
+import com.goodtricount.api.DaoExecutor.Reply;
+import com.goodtricount.dto.GroupChangeDAO;
+import com.goodtricount.dto.GroupDAO;
+import com.goodtricount.dto.GroupDTO;
+import com.goodtricount.dto.LatencyHistogram;
+import com.goodtricount.dto.Metrics;
+import com.google.gson.Gson;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * GET returns a group with its participants, admins, expenses and payments: {@code ?groupId=...}.
+ * The group is read with one query, see {@link GroupDAO#getGroupDetail(String)}.
+ *
+ * <p>The ETag is the version of the group. A request with {@code If-None-Match} is first checked
+ * against the current version, and answered with 304 and no body if the group has not changed;
+ * {@code /api/changes} returns what changed after a version. Only the participants and admins of
+ * the group may read it, and the user is checked before the version is.</p>
+ */
+@WebServlet(urlPatterns = "/api/group", asyncSupported = true)
+public class GroupServlet extends HttpServlet {
+
+    private static final LatencyHistogram GET_GROUP = Metrics.http("GET /api/group");
+
+    private final GroupDAO groupDAO = new GroupDAO();
+    private final GroupChangeDAO groupChangeDAO = new GroupChangeDAO();
+    private final Gson gson = Json.GSON;
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        String groupId = req.getParameter("groupId");
+        String ifNoneMatch = req.getHeader("If-None-Match");
+        String user = Auth.getUser(req);
+        DaoExecutor.submit(req, resp, GET_GROUP, () -> getGroup(groupId, ifNoneMatch, user));
+    }
+
+    private Reply getGroup(String groupId, String ifNoneMatch, String user) {
+        if (groupId == null || groupId.isEmpty()) {
+            return Reply.text(HttpServletResponse.SC_BAD_REQUEST, "Missing groupId");
+        }
+
+        int access = Auth.authorize(user, groupId, false);
+        if (access != HttpServletResponse.SC_OK) {
+            return Reply.status(access);
+        }
+
+        if (ifNoneMatch != null) {
+            long version = groupChangeDAO.getVersion(groupId);
+            if (version >= 0 && matches(ifNoneMatch, version)) {
+                return notModified(version);
+            }
+        }
+
+        GroupDTO group = groupDAO.getGroupDetail(groupId);
+
+        if (group == null) {
+            return Reply.text(HttpServletResponse.SC_NOT_FOUND, "Group not found");
+        }
+
+        return Reply.json(HttpServletResponse.SC_OK, gson.toJson(group))
+                .header("ETag", etag(group.getVersion()))
+                .header("Cache-Control", "no-cache");
+    }
+
+    /**
+     * A 304 reply for a version of a group.
+     */
+    static Reply notModified(long version) {
+        return Reply.status(HttpServletResponse.SC_NOT_MODIFIED)
+                .header("ETag", etag(version))
+                .header("Cache-Control", "no-cache");
+    }
+
+    /**
+     * Get the entity tag of a version of a group.
+     */
+    static String etag(long version) {
+        return "\"" + version + "\"";
+    }
+
+    /**
+     * Check whether an {@code If-None-Match} header, a list of weak or strong entity tags or
+     * {@code *}, matches a version of a group.
+     */
+    static boolean matches(String ifNoneMatch, long version) {
+        String etag = etag(version);
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,402 @@
+package com.goodtricount.api;
+
+import com.goodtricount.dto.BalanceDTO;
+import com.goodtricount.dto.ExpenseDTO;
+import com.goodtricount.dto.GroupDTO;
+import com.goodtricount.dto.Money;
+import com.goodtricount.dto.PaymentDTO;
+import com.goodtricount.dto.UserDTO;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The Gson instance shared by the servlets. Gson is thread-safe and caches its adapters, so one
+ * instance serves every request.
+ *
+ * <p>The DTOs and {@code LocalDateTime} have hand-written streaming adapters: they are written
+ * field by field without reflection, which is faster and does not depend on reflective access
+ * into {@code java.time}. The JSON is the same as Gson's reflective output (fields in declaration
+ * order, null fields omitted, unknown fields ignored on input), except that a user's password is
+ * read but never written, and the IDs of expenses and payments and the version of a group are
+ * omitted while they are 0, i.e. for objects that were not read from the database.</p>
+ */
+public final class Json {
+
+    public static final Gson GSON = new GsonBuilder()
+            .registerTypeAdapter(LocalDateTime.class, new LocalDateTimeAdapter().nullSafe())
+            .registerTypeAdapter(UserDTO.class, new UserAdapter().nullSafe())
+            .registerTypeAdapter(ExpenseDTO.class, new ExpenseAdapter().nullSafe())
+            .registerTypeAdapter(PaymentDTO.class, new PaymentAdapter().nullSafe())
+            .registerTypeAdapter(BalanceDTO.class, new BalanceAdapter().nullSafe())
+            .registerTypeAdapter(GroupDTO.class, new GroupAdapter().nullSafe())
+            .create();
+
+    private Json() {
+    }
+
+    private static void writeMoney(JsonWriter out, String name, Money amount) throws IOException {
+        out.name(name);
+        if (amount == null) {
+            out.nullValue();
+        } else {
+            out.jsonValue(amount.toString());
+        }
+    }
+
+    private static Money readMoney(JsonReader in) throws IOException {
+        String amount = in.nextString();
+        try {
+            return Money.parse(amount);
+        } catch (NumberFormatException e) {
+            throw new JsonSyntaxException("Invalid amount '" + amount + "' at " + in.getPreviousPath(), e);
+        }
+    }
+
+    private static void writeDateTime(JsonWriter out, String name, LocalDateTime value) throws IOException {
+        out.name(name).value(value == null ? null : value.toString());
+    }
+
+    private static LocalDateTime readDateTime(JsonReader in) throws IOException {
+        String value = in.nextString();
+        try {
+            return LocalDateTime.parse(value);
+        } catch (DateTimeParseException e) {
+            throw new JsonSyntaxException("Invalid date-time '" + value + "' at " + in.getPreviousPath(), e);
+        }
+    }
+
+    /**
+     * Read a string, or null for a JSON null.
+     */
+    private static String readString(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        return in.nextString();
+    }
+
+    /**
+     * Skip a JSON null; returns false if the next value is not null.
+     */
+    private static boolean skipNull(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return true;
+        }
+        return false;
+    }
+
+    private static void writeStrings(JsonWriter out, String name, List<String> values) throws IOException {
+        out.name(name);
+        if (values == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginArray();
+        for (String value : values) {
+            out.value(value);
+        }
+        out.endArray();
+    }
+
+    private static List<String> readStrings(JsonReader in) throws IOException {
+        if (skipNull(in)) {
+            return null;
+        }
+        List<String> values = new ArrayList<>();
+        in.beginArray();
+        while (in.hasNext()) {
+            values.add(readString(in));
+        }
+        in.endArray();
+        return values;
+    }
+
+    private static final class LocalDateTimeAdapter extends TypeAdapter<LocalDateTime> {
+
+        @Override
+        public void write(JsonWriter out, LocalDateTime value) throws IOException {
+            out.value(value.toString());
+        }
+
+        @Override
+        public LocalDateTime read(JsonReader in) throws IOException {
+            return readDateTime(in);
+        }
+    }
+
+    private static final class UserAdapter extends TypeAdapter<UserDTO> {
+
+        @Override
+        public void write(JsonWriter out, UserDTO user) throws IOException {
+            out.beginObject();
+            out.name("username").value(user.getUsername());
+            out.name("email").value(user.getEmail());
+            out.name("name").value(user.getName());
+            out.endObject();
+        }
+
+        @Override
+        public UserDTO read(JsonReader in) throws IOException {
+            UserDTO user = new UserDTO();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "username":
+                        user.setUsername(readString(in));
+                        break;
+                    case "password":
+                        user.setPassword(readString(in));
+                        break;
+                    case "email":
+                        user.setEmail(readString(in));
+                        break;
+                    case "name":
+                        user.setName(readString(in));
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return user;
+        }
+    }
+
+    private static final class ExpenseAdapter extends TypeAdapter<ExpenseDTO> {
+
+        @Override
+        public void write(JsonWriter out, ExpenseDTO expense) throws IOException {
+            out.beginObject();
+            if (expense.getId() != 0) {
+                out.name("id").value(expense.getId());
+            }
+            out.name("payer").value(expense.getPayer());
+            writeMoney(out, "amount", expense.getMoney());
+            out.name("description").value(expense.getDescription());
+            out.endObject();
+        }
+
+        @Override
+        public ExpenseDTO read(JsonReader in) throws IOException {
+            ExpenseDTO expense = new ExpenseDTO();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "id":
+                        expense.setId(skipNull(in) ? 0 : in.nextInt());
+                        break;
+                    case "payer":
+                        expense.setPayer(readString(in));
+                        break;
+                    case "amount":
+                        expense.setMoney(skipNull(in) ? null : readMoney(in));
+                        break;
+                    case "description":
+                        expense.setDescription(readString(in));
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return expense;
+        }
+    }
+
+    private static final class PaymentAdapter extends TypeAdapter<PaymentDTO> {
+
+        @Override
+        public void write(JsonWriter out, PaymentDTO payment) throws IOException {
+            out.beginObject();
+            if (payment.getId() != 0) {
+                out.name("id").value(payment.getId());
+            }
+            out.name("payer").value(payment.getPayer());
+            out.name("receiver").value(payment.getReceiver());
+            writeMoney(out, "amount", payment.getMoney());
+            out.name("status").value(payment.getStatus());
+            writeDateTime(out, "timestamp", payment.getTimestamp());
+            writeDateTime(out, "confirmedTimestamp", payment.getConfirmedTimestamp());
+            out.endObject();
+        }
+
+        @Override
+        public PaymentDTO read(JsonReader in) throws IOException {
+            PaymentDTO payment = new PaymentDTO();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "id":
+                        payment.setId(skipNull(in) ? 0 : in.nextInt());
+                        break;
+                    case "payer":
+                        payment.setPayer(readString(in));
+                        break;
+                    case "receiver":
+                        payment.setReceiver(readString(in));
+                        break;
+                    case "amount":
+                        payment.setMoney(skipNull(in) ? null : readMoney(in));
+                        break;
+                    case "status":
+                        payment.setStatus(readString(in));
+                        break;
+                    case "timestamp":
+                        payment.setTimestamp(skipNull(in) ? null : readDateTime(in));
+                        break;
+                    case "confirmedTimestamp":
+                        payment.setConfirmedTimestamp(skipNull(in) ? null : readDateTime(in));
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return payment;
+        }
+    }
+
+    private static final class BalanceAdapter extends TypeAdapter<BalanceDTO> {
+
+        @Override
+        public void write(JsonWriter out, BalanceDTO balance) throws IOException {
+            out.beginObject();
+            out.name("username").value(balance.getUsername());
+            out.name("participant").value(balance.isParticipant());
+            writeMoney(out, "paid", balance.getPaidMoney());
+            writeMoney(out, "sent", balance.getSentMoney());
+            writeMoney(out, "received", balance.getReceivedMoney());
+            writeMoney(out, "balance", balance.getBalanceMoney());
+            out.endObject();
+        }
+
+        @Override
+        public BalanceDTO read(JsonReader in) throws IOException {
+            BalanceDTO balance = new BalanceDTO();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "username":
+                        balance.setUsername(readString(in));
+                        break;
+                    case "participant":
+                        balance.setParticipant(!skipNull(in) && in.nextBoolean());
+                        break;
+                    case "paid":
+                        balance.setPaidMoney(skipNull(in) ? null : readMoney(in));
+                        break;
+                    case "sent":
+                        balance.setSentMoney(skipNull(in) ? null : readMoney(in));
+                        break;
+                    case "received":
+                        balance.setReceivedMoney(skipNull(in) ? null : readMoney(in));
+                        break;
+                    case "balance":
+                        balance.setBalanceMoney(skipNull(in) ? null : readMoney(in));
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return balance;
+        }
+    }
+
+    private static final class GroupAdapter extends TypeAdapter<GroupDTO> {
+
+        private final ExpenseAdapter expenses = new ExpenseAdapter();
+        private final PaymentAdapter payments = new PaymentAdapter();
+
+        @Override
+        public void write(JsonWriter out, GroupDTO group) throws IOException {
+            out.beginObject();
+            out.name("id").value(group.getId());
+            out.name("name").value(group.getName());
+            if (group.getVersion() != 0) {
+                out.name("version").value(group.getVersion());
+            }
+            writeStrings(out, "participants", group.getParticipants());
+            writeStrings(out, "admins", group.getAdmins());
+            out.name("expenses").beginArray();
+            for (ExpenseDTO expense : group.getExpenses()) {
+                if (expense == null) {
+                    out.nullValue();
+                } else {
+                    expenses.write(out, expense);
+                }
+            }
+            out.endArray();
+            out.name("payments").beginArray();
+            for (PaymentDTO payment : group.getPayments()) {
+                if (payment == null) {
+                    out.nullValue();
+                } else {
+                    payments.write(out, payment);
+                }
+            }
+            out.endArray();
+            out.endObject();
+        }
+
+        @Override
+        public GroupDTO read(JsonReader in) throws IOException {
+            GroupDTO group = new GroupDTO();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "id":
+                        group.setId(readString(in));
+                        break;
+                    case "name":
+                        group.setName(readString(in));
+                        break;
+                    case "version":
+                        group.setVersion(skipNull(in) ? 0 : in.nextLong());
+                        break;
+                    case "participants":
+                        group.setParticipants(readStrings(in));
+                        break;
+                    case "admins":
+                        group.setAdmins(readStrings(in));
+                        break;
+                    case "expenses":
+                        if (!skipNull(in)) {
+                            in.beginArray();
+                            while (in.hasNext()) {
+                                group.getExpenses().add(skipNull(in) ? null : expenses.read(in));
+                            }
+                            in.endArray();
+                        }
+                        break;
+                    case "payments":
+                        if (!skipNull(in)) {
+                            in.beginArray();
+                            while (in.hasNext()) {
+                                group.getPayments().add(skipNull(in) ? null : payments.read(in));
+                            }
+                            in.endArray();
+                        }
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return group;
+        }
+    }
+}
@@ -1,5 +1,8 @@
 package com.goodtricount.api;
 
+import com.goodtricount.api.DaoExecutor.Reply;
+import com.goodtricount.dto.LatencyHistogram;
+import com.goodtricount.dto.Metrics;
 import com.goodtricount.dto.UserDAO;
 import com.goodtricount.dto.UserDTO;
 import com.google.gson.Gson;
@@ -11,27 +14,34 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 
-@WebServlet("/api/login")
+@WebServlet(urlPatterns = "/api/login", asyncSupported = true)
 public class LoginServlet extends HttpServlet {
 
+    private static final LatencyHistogram LOGIN = Metrics.http("POST /api/login");
+
     private final UserDAO userDAO = new UserDAO();
-    private final Gson gson = new Gson();
+    private final Gson gson = Json.GSON;
 
     @Override
     protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
-        UserDTO loginUser = gson.fromJson(req.getReader(), UserDTO.class);
+        String body = DaoExecutor.readBody(req);
+        if (body == null) {
+            DaoExecutor.tooLarge(resp);
+            return;
+        }
+        DaoExecutor.submit(req, resp, LOGIN, () -> login(body));
+    }
+
+    private Reply login(String body) {
+        UserDTO loginUser = gson.fromJson(body, UserDTO.class);
 
         UserDTO user = userDAO.getUserByUsername(loginUser.getUsername());
 
         if (user != null && user.getPassword().equals(loginUser.getPassword())) {
-            resp.setStatus(HttpServletResponse.SC_OK);
-            resp.setContentType("application/json");
             // Send back a success response, but don't include the password
             user.setPassword(null);
-            resp.getWriter().write(gson.toJson(user));
-        } else {
-            resp.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
-            resp.getWriter().write("Invalid credentials");
+            return Reply.json(HttpServletResponse.SC_OK, gson.toJson(user)).login(user.getUsername());
         }
+        return Reply.text(HttpServletResponse.SC_UNAUTHORIZED, "Invalid credentials");
     }
 }
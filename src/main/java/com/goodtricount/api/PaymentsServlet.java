@@ -0,0 +1,65 @@
+package com.goodtricount.api;
+
+import com.goodtricount.api.DaoExecutor.Reply;
+import com.goodtricount.dto.LatencyHistogram;
+import com.goodtricount.dto.Metrics;
+import com.goodtricount.dto.Page;
+import com.goodtricount.dto.PaymentDAO;
+import com.goodtricount.dto.PaymentDTO;
+import com.google.gson.Gson;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * GET returns one page of the payments of a group, oldest first: {@code ?groupId=...&limit=...&pageToken=...}.
+ * The response holds the payments and, if there are more, the {@code nextPageToken} to pass next.
+ * Only the participants and admins of the group may read them.
+ */
+@WebServlet(urlPatterns = "/api/payments", asyncSupported = true)
+public class PaymentsServlet extends HttpServlet {
+
+    private static final int DEFAULT_LIMIT = 50;
+    private static final LatencyHistogram GET_PAYMENTS = Metrics.http("GET /api/payments");
+
+    private final PaymentDAO paymentDAO = new PaymentDAO();
+    private final Gson gson = Json.GSON;
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        String groupId = req.getParameter("groupId");
+        String limit = req.getParameter("limit");
+        String pageToken = req.getParameter("pageToken");
+        String user = Auth.getUser(req);
+        DaoExecutor.submit(req, resp, GET_PAYMENTS, () -> getPayments(groupId, limit, pageToken, user));
+    }
+
+    private Reply getPayments(String groupId, String limit, String pageToken, String user) {
+        if (groupId == null || groupId.isEmpty()) {
+            return Reply.text(HttpServletResponse.SC_BAD_REQUEST, "Missing groupId");
+        }
+
+        int access = Auth.authorize(user, groupId, false);
+        if (access != HttpServletResponse.SC_OK) {
+            return Reply.status(access);
+        }
+
+        Page<PaymentDTO> page;
+        try {
+            int size = limit == null ? DEFAULT_LIMIT : Integer.parseInt(limit);
+            page = paymentDAO.getPaymentsForGroup(groupId, pageToken, size);
+        } catch (IllegalArgumentException e) {
+            return Reply.text(HttpServletResponse.SC_BAD_REQUEST, "Invalid limit or pageToken");
+        }
+
+        if (page == null) {
+            return Reply.status(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        }
+
+        return Reply.json(HttpServletResponse.SC_OK, gson.toJson(page));
+    }
+}
@@ -1,5 +1,8 @@
 package com.goodtricount.api;
 
+import com.goodtricount.api.DaoExecutor.Reply;
+import com.goodtricount.dto.LatencyHistogram;
+import com.goodtricount.dto.Metrics;
 import com.goodtricount.dto.UserDAO;
 import com.goodtricount.dto.UserDTO;
 import com.google.gson.Gson;
@@ -11,36 +14,38 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 
-@WebServlet("/api/register")
+@WebServlet(urlPatterns = "/api/register", asyncSupported = true)
 public class RegisterServlet extends HttpServlet {
 
+    private static final LatencyHistogram REGISTER = Metrics.http("POST /api/register");
+
     private final UserDAO userDAO = new UserDAO();
-    private final Gson gson = new Gson();
+    private final Gson gson = Json.GSON;
 
     @Override
     protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
-        UserDTO newUser = gson.fromJson(req.getReader(), UserDTO.class);
-
-        if (userDAO.userExists(newUser.getUsername())) {
-            resp.setStatus(HttpServletResponse.SC_CONFLICT);
-            resp.getWriter().write("Username already exists");
+        String body = DaoExecutor.readBody(req);
+        if (body == null) {
+            DaoExecutor.tooLarge(resp);
             return;
         }
+        DaoExecutor.submit(req, resp, REGISTER, () -> register(body));
+    }
 
-        if (userDAO.emailExists(newUser.getEmail())) {
-            resp.setStatus(HttpServletResponse.SC_CONFLICT);
-            resp.getWriter().write("Email already exists");
-            return;
-        }
+    private Reply register(String body) {
+        UserDTO newUser = gson.fromJson(body, UserDTO.class);
 
-        boolean success = userDAO.insertUser(newUser);
+        UserDAO.Registration result = userDAO.registerUser(newUser);
 
-        if (success) {
-            resp.setStatus(HttpServletResponse.SC_CREATED);
-            resp.setContentType("application/json");
-            resp.getWriter().write(gson.toJson(newUser));
-        } else {
-            resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        switch (result) {
+            case CREATED:
+                return Reply.json(HttpServletResponse.SC_CREATED, gson.toJson(newUser));
+            case USERNAME_TAKEN:
+                return Reply.text(HttpServletResponse.SC_CONFLICT, "Username already exists");
+            case EMAIL_TAKEN:
+                return Reply.text(HttpServletResponse.SC_CONFLICT, "Email already exists");
+            default:
+                return Reply.status(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
         }
     }
 }
@@ -0,0 +1,74 @@
+package com.goodtricount.api;
+
+import com.goodtricount.api.DaoExecutor.Reply;
+import com.goodtricount.dto.LatencyHistogram;
+import com.goodtricount.dto.Metrics;
+import com.goodtricount.dto.PaymentDAO;
+import com.goodtricount.dto.PaymentDTO;
+import com.google.gson.Gson;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * GET returns the payments that would settle a group; POST creates them as pending payments.
+ * Both are for the participants and admins of the group only.
+ */
+@WebServlet(urlPatterns = "/api/settlements", asyncSupported = true)
+public class SettlementsServlet extends HttpServlet {
+
+    private static final LatencyHistogram SUGGEST = Metrics.http("GET /api/settlements");
+    private static final LatencyHistogram CREATE = Metrics.http("POST /api/settlements");
+
+    private final PaymentDAO paymentDAO = new PaymentDAO();
+    private final Gson gson = Json.GSON;
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        String groupId = req.getParameter("groupId");
+        String user = Auth.getUser(req);
+        DaoExecutor.submit(req, resp, SUGGEST, () -> suggestSettlement(groupId, user));
+    }
+
+    private Reply suggestSettlement(String groupId, String user) {
+        if (groupId == null || groupId.isEmpty()) {
+            return Reply.text(HttpServletResponse.SC_BAD_REQUEST, "Missing groupId");
+        }
+
+        int access = Auth.authorize(user, groupId, false);
+        if (access != HttpServletResponse.SC_OK) {
+            return Reply.status(access);
+        }
+
+        List<PaymentDTO> payments = paymentDAO.suggestSettlement(groupId);
+
+        return Reply.json(HttpServletResponse.SC_OK, gson.toJson(payments));
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        String groupId = req.getParameter("groupId");
+        String user = Auth.getUser(req);
+        DaoExecutor.submit(req, resp, CREATE, () -> createSettlement(groupId, user));
+    }
+
+    private Reply createSettlement(String groupId, String user) {
+        if (groupId == null || groupId.isEmpty()) {
+            return Reply.text(HttpServletResponse.SC_BAD_REQUEST, "Missing groupId");
+        }
+
+        int access = Auth.authorize(user, groupId, false);
+        if (access != HttpServletResponse.SC_OK) {
+            return Reply.status(access);
+        }
+
+        List<PaymentDTO> payments = paymentDAO.createSettlementPayments(groupId);
+
+        return Reply.json(HttpServletResponse.SC_CREATED, gson.toJson(payments));
+    }
+}
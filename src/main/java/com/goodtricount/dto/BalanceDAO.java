@@ -0,0 +1,287 @@
+package com.goodtricount.dto;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Data Access Object for group balances.
+ *
+ * <p>The GroupBalances table keeps, for every user who has paid an expense or sent or received
+ * a confirmed payment in a group, the running totals of those amounts. ExpenseDAO and PaymentDAO
+ * update it incrementally in the same transaction as the write, so reading the balances of a group
+ * is a single indexed lookup whose cost depends on the number of participants, not on the length
+ * of the group's history.</p>
+ *
+ * <p>The net balance of a user is {@code paid + sent - received - share}, where {@code share} is
+ * the total of the group's expenses split evenly between the current participants. A positive
+ * balance means the group owes the user money. Amounts are BIGINT cents (see {@link Money}), so
+ * the totals are updated and summed with integer arithmetic.</p>
+ */
+public class BalanceDAO {
+
+    private static final LatencyHistogram GET_BALANCES_FOR_GROUP = Metrics.dao("BalanceDAO.getBalancesForGroup");
+    private static final LatencyHistogram REBUILD_BALANCES = Metrics.dao("BalanceDAO.rebuildBalances");
+
+    private static final String UPSERT_SQL =
+            "INSERT INTO GroupBalances (group_id, user_id, paid, sent, received) VALUES (?, ?, ?, ?, ?) " +
+            "ON CONFLICT (group_id, user_id) DO UPDATE SET " +
+            "paid = GroupBalances.paid + EXCLUDED.paid, " +
+            "sent = GroupBalances.sent + EXCLUDED.sent, " +
+            "received = GroupBalances.received + EXCLUDED.received";
+
+    private static final String REBUILD_SQL =
+            "INSERT INTO GroupBalances (group_id, user_id, paid, sent, received) " +
+            "SELECT group_id, user_id, SUM(paid), SUM(sent), SUM(received) FROM (" +
+            "SELECT group_id, payer AS user_id, amount AS paid, 0 AS sent, 0 AS received FROM Expenses " +
+            "UNION ALL SELECT group_id, payer, 0, amount, 0 FROM Payments WHERE status = 'confirmed' " +
+            "UNION ALL SELECT group_id, receiver, 0, 0, amount FROM Payments WHERE status = 'confirmed'" +
+            ") movements GROUP BY group_id, user_id";
+
+    static final String LOAD_LEDGER_SQL =
+            "SELECT user_id, gp.user_id IS NOT NULL AS participant, " +
+            "COALESCE(gb.paid, 0) AS paid, COALESCE(gb.sent, 0) AS sent, COALESCE(gb.received, 0) AS received " +
+            "FROM (SELECT user_id FROM GroupParticipants WHERE group_id = ?) gp " +
+            "FULL JOIN (SELECT user_id, paid, sent, received FROM GroupBalances WHERE group_id = ?) gb " +
+            "USING (user_id) ORDER BY user_id COLLATE \"C\"";
+
+    /**
+     * Get the balances of a group.
+     * Current participants are always included; users who left the group are included
+     * while they still have amounts recorded in it.
+     *
+     * @param groupId the ID of the group
+     * @return the balances of the group, ordered by username
+     */
+    public List<BalanceDTO> getBalancesForGroup(String groupId) {
+        long start = System.nanoTime();
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            return getBalancesForGroup(groupId, conn);
+        } catch (SQLException e) {
+            GET_BALANCES_FOR_GROUP.error();
+            System.out.println("Error getting balances for group: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            GET_BALANCES_FOR_GROUP.record(start);
+        }
+
+        return new ArrayList<>();
+    }
+
+    /**
+     * Get the balances of a group using the given connection.
+     *
+     * @param groupId the ID of the group
+     * @param conn the database connection
+     * @return the balances of the group, ordered by username
+     * @throws SQLException if a database access error occurs
+     */
+    static List<BalanceDTO> getBalancesForGroup(String groupId, Connection conn) throws SQLException {
+        return loadLedger(groupId, conn).toBalances();
+    }
+
+    /**
+     * Load the participants and totals of a group into a ledger, with users interned in
+     * username order. The order is that of the code points ({@code COLLATE "C"} on a UTF-8
+     * database), not the collation of the database, so that it is the same wherever the database
+     * runs and the web client, which sorts the participants the same way, splits the total
+     * between them exactly like the server.
+     *
+     * @param groupId the ID of the group
+     * @param conn the database connection
+     * @return the ledger of the group
+     * @throws SQLException if a database access error occurs
+     */
+    static GroupLedger loadLedger(String groupId, Connection conn) throws SQLException {
+        GroupLedger ledger = new GroupLedger(groupId);
+
+        try (PreparedStatement pstmt = conn.prepareStatement(LOAD_LEDGER_SQL)) {
+            pstmt.setString(1, groupId);
+            pstmt.setString(2, groupId);
+
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    String username = rs.getString("user_id");
+                    if (rs.getBoolean("participant")) {
+                        ledger.addParticipant(username);
+                    }
+                    int user = ledger.intern(username);
+                    ledger.setTotals(user, rs.getLong("paid"), rs.getLong("sent"), rs.getLong("received"));
+                }
+            }
+        }
+        return ledger;
+    }
+
+    /**
+     * Compute the net balance of every user from their paid, sent and received totals.
+     * The total of the expenses is split between the current participants with
+     * {@link Money#splitCents(long, int, int)}: the shares differ by at most one cent, the first
+     * participants in list order take the remaining cents, and the balances add up to exactly zero.
+     *
+     * @param balances the totals of every user of a group; their balance is set in place
+     */
+    public static void computeBalances(List<BalanceDTO> balances) {
+        long total = 0;
+        int participants = 0;
+        for (BalanceDTO balance : balances) {
+            total += balance.getPaidMoney().getCents();
+            if (balance.isParticipant()) {
+                participants++;
+            }
+        }
+
+        int participant = 0;
+        for (BalanceDTO balance : balances) {
+            long net = balance.getPaidMoney().getCents() + balance.getSentMoney().getCents()
+                    - balance.getReceivedMoney().getCents();
+            if (balance.isParticipant()) {
+                net -= Money.splitCents(total, participants, participant++);
+            }
+            balance.setBalanceMoney(Money.ofCents(net));
+        }
+    }
+
+    /**
+     * Recompute the balances of every group from the Expenses and Payments tables.
+     *
+     * @return true if the balances were rebuilt successfully, false otherwise
+     */
+    public boolean rebuildBalances() {
+        long start = System.nanoTime();
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                rebuildBalances(conn);
+                conn.commit();
+                return true;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            REBUILD_BALANCES.error();
+            System.out.println("Error rebuilding balances: " + e.getMessage());
+            e.printStackTrace();
+            return false;
+        } finally {
+            REBUILD_BALANCES.record(start);
+        }
+    }
+
+    /**
+     * Recompute the balances of every group using the given connection.
+     *
+     * @param conn the database connection
+     * @throws SQLException if a database access error occurs
+     */
+    static void rebuildBalances(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("DELETE FROM GroupBalances");
+            stmt.executeUpdate(REBUILD_SQL);
+        }
+    }
+
+    /**
+     * Record that a user paid an expense in a group.
+     * Must run in the same transaction as the expense write.
+     *
+     * @param conn the database connection
+     * @param groupId the ID of the group
+     * @param payer the username of the payer
+     * @param cents the amount to add in cents; negative to undo an expense
+     * @throws SQLException if a database access error occurs
+     */
+    static void applyExpense(Connection conn, String groupId, String payer, long cents) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(UPSERT_SQL)) {
+            bind(pstmt, groupId, payer, cents, 0, 0);
+            pstmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Record a confirmed payment between two users of a group.
+     * Must run in the same transaction as the payment write.
+     *
+     * @param conn the database connection
+     * @param groupId the ID of the group
+     * @param payer the username of the payer
+     * @param receiver the username of the receiver
+     * @param cents the amount to add in cents; negative to undo a payment
+     * @throws SQLException if a database access error occurs
+     */
+    static void applyPayment(Connection conn, String groupId, String payer, String receiver,
+                             long cents) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(UPSERT_SQL)) {
+            if (payer.equals(receiver)) {
+                // One row: with reWriteBatchedInserts, two rows for the same key in one statement fail
+                bind(pstmt, groupId, payer, 0, cents, cents);
+                pstmt.executeUpdate();
+                return;
+            }
+            // Always lock the two rows in the same order so that opposite payments cannot deadlock
+            boolean payerFirst = payer.compareTo(receiver) <= 0;
+            if (payerFirst) {
+                bind(pstmt, groupId, payer, 0, cents, 0);
+                pstmt.addBatch();
+            }
+            bind(pstmt, groupId, receiver, 0, 0, cents);
+            pstmt.addBatch();
+            if (!payerFirst) {
+                bind(pstmt, groupId, payer, 0, cents, 0);
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+        }
+    }
+
+    /**
+     * Add the totals recorded in a ledger to the balances of its users, one row per user with
+     * a non-zero total, e.g. after a bulk import. Must run in the same transaction as the writes.
+     * Rows are updated in username order, like {@link #applyPayment}, so that concurrent writers
+     * cannot deadlock.
+     *
+     * @param conn the database connection
+     * @param ledger the amounts to add, in cents
+     * @throws SQLException if a database access error occurs
+     */
+    static void applyTotals(Connection conn, GroupLedger ledger) throws SQLException {
+        String[] usernames = new String[ledger.size()];
+        for (int i = 0; i < usernames.length; i++) {
+            usernames[i] = ledger.getUsername(i);
+        }
+        Arrays.sort(usernames);
+
+        try (PreparedStatement pstmt = conn.prepareStatement(UPSERT_SQL)) {
+            boolean batched = false;
+            for (String username : usernames) {
+                int user = ledger.indexOf(username);
+                long paid = ledger.getPaid(user);
+                long sent = ledger.getSent(user);
+                long received = ledger.getReceived(user);
+                if (paid != 0 || sent != 0 || received != 0) {
+                    bind(pstmt, ledger.getGroupId(), username, paid, sent, received);
+                    pstmt.addBatch();
+                    batched = true;
+                }
+            }
+            if (batched) {
+                pstmt.executeBatch();
+            }
+        }
+    }
+
+    private static void bind(PreparedStatement pstmt, String groupId, String username, long paid,
+                             long sent, long received) throws SQLException {
+        pstmt.setString(1, groupId);
+        pstmt.setString(2, username);
+        pstmt.setLong(3, paid);
+        pstmt.setLong(4, sent);
+        pstmt.setLong(5, received);
+    }
+}
@@ -0,0 +1,139 @@
+package com.goodtricount.dto;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+
+/**
+ * Data Transfer Object for the balance of a user in a group.
+ */
+public class BalanceDTO implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private String username;
+    private boolean participant;
+    private Money paid;
+    private Money sent;
+    private Money received;
+    private Money balance;
+
+    /**
+     * Default constructor
+     */
+    public BalanceDTO() {
+    }
+
+    /**
+     * Constructor with all fields
+     *
+     * @param username the username
+     * @param participant whether the user is currently a participant of the group
+     * @param paid the total amount of expenses paid by the user
+     * @param sent the total amount of confirmed payments made by the user
+     * @param received the total amount of confirmed payments received by the user
+     * @param balance the net balance; positive if the group owes the user money
+     */
+    public BalanceDTO(String username, boolean participant, BigDecimal paid, BigDecimal sent,
+                      BigDecimal received, BigDecimal balance) {
+        this.username = username;
+        this.participant = participant;
+        this.paid = paid == null ? null : Money.of(paid);
+        this.sent = sent == null ? null : Money.of(sent);
+        this.received = received == null ? null : Money.of(received);
+        this.balance = balance == null ? null : Money.of(balance);
+    }
+
+    // Getters and Setters
+
+    public String getUsername() {
+        return username;
+    }
+
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
+    public boolean isParticipant() {
+        return participant;
+    }
+
+    public void setParticipant(boolean participant) {
+        this.participant = participant;
+    }
+
+    public BigDecimal getPaid() {
+        return paid == null ? null : paid.toBigDecimal();
+    }
+
+    public void setPaid(BigDecimal paid) {
+        this.paid = paid == null ? null : Money.of(paid);
+    }
+
+    public Money getPaidMoney() {
+        return paid;
+    }
+
+    public void setPaidMoney(Money paid) {
+        this.paid = paid;
+    }
+
+    public BigDecimal getSent() {
+        return sent == null ? null : sent.toBigDecimal();
+    }
+
+    public void setSent(BigDecimal sent) {
+        this.sent = sent == null ? null : Money.of(sent);
+    }
+
+    public Money getSentMoney() {
+        return sent;
+    }
+
+    public void setSentMoney(Money sent) {
+        this.sent = sent;
+    }
+
+    public BigDecimal getReceived() {
+        return received == null ? null : received.toBigDecimal();
+    }
+
+    public void setReceived(BigDecimal received) {
+        this.received = received == null ? null : Money.of(received);
+    }
+
+    public Money getReceivedMoney() {
+        return received;
+    }
+
+    public void setReceivedMoney(Money received) {
+        this.received = received;
+    }
+
+    public BigDecimal getBalance() {
+        return balance == null ? null : balance.toBigDecimal();
+    }
+
+    public void setBalance(BigDecimal balance) {
+        this.balance = balance == null ? null : Money.of(balance);
+    }
+
+    public Money getBalanceMoney() {
+        return balance;
+    }
+
+    public void setBalanceMoney(Money balance) {
+        this.balance = balance;
+    }
+
+    @Override
+    public String toString() {
+        return "BalanceDTO{" +
+                "username='" + username + '\'' +
+                ", participant=" + participant +
+                ", paid=" + paid +
+                ", sent=" + sent +
+                ", received=" + received +
+                ", balance=" + balance +
+                '}';
+    }
+}
@@ -0,0 +1,346 @@
+package com.goodtricount.dto;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded pool of PostgreSQL connections.
+ *
+ * <p>Connections handed out by {@link #borrow()} are leases: calling {@code close()} on them
+ * returns the physical connection to the pool instead of closing it, so the DAOs can keep
+ * using try-with-resources. The pool keeps at least {@code minIdle} idle connections, never
+ * leases more than {@code maxSize} at a time, validates connections that have been idle for a
+ * while before handing them out and evicts connections that stay idle for too long.</p>
+ *
+ * <p>When leak detection is enabled, the stack trace of every borrow is captured and reported
+ * if the lease is still open after the configured threshold.</p>
+ */
+public class ConnectionPool {
+
+    private final DatabaseConfig config;
+    private final Semaphore permits;
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    private final Set<Lease> leases = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger totalConnections = new AtomicInteger();
+    private final ScheduledExecutorService housekeeper;
+    private volatile boolean closed;
+
+    /**
+     * Create a new pool and open the minimum number of idle connections.
+     *
+     * @param config the database configuration
+     */
+    public ConnectionPool(DatabaseConfig config) {
+        this.config = config;
+        this.permits = new Semaphore(config.getMaxSize(), true);
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "goodtricount-pool-housekeeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = config.getHousekeepingIntervalMillis();
+        housekeeper.scheduleWithFixedDelay(this::housekeep, 0, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Borrow a connection from the pool, waiting up to the configured borrow timeout.
+     *
+     * @return a leased connection; closing it returns it to the pool
+     * @throws SQLException if the pool is closed, the timeout expires or a connection cannot be opened
+     */
+    public Connection borrow() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(config.getBorrowTimeoutMillis(), TimeUnit.MILLISECONDS)) {
+                Metrics.CONNECTION_WAIT.error();
+                Metrics.CONNECTION_WAIT.record(start);
+                throw new SQLTransientConnectionException("Timed out after " + config.getBorrowTimeoutMillis()
+                        + " ms waiting for a database connection (active=" + getActiveCount()
+                        + ", idle=" + getIdleCount() + ", max=" + config.getMaxSize() + ")");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", e);
+        }
+
+        try {
+            PooledConnection pooled;
+            while ((pooled = idle.pollFirst()) != null) {
+                if (isUsable(pooled)) {
+                    break;
+                }
+                discard(pooled);
+            }
+            if (pooled == null) {
+                pooled = open();
+            }
+            Metrics.CONNECTION_WAIT.record(start);
+            return lease(pooled);
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Close the pool and every idle connection. Leased connections are closed when they are returned.
+     */
+    public void close() {
+        closed = true;
+        housekeeper.shutdownNow();
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            discard(pooled);
+        }
+    }
+
+    /**
+     * Get the number of connections currently leased.
+     *
+     * @return the number of active connections
+     */
+    public int getActiveCount() {
+        return leases.size();
+    }
+
+    /**
+     * Get the number of idle connections.
+     *
+     * @return the number of idle connections
+     */
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    /**
+     * Get the number of open physical connections.
+     *
+     * @return the number of physical connections
+     */
+    public int getTotalCount() {
+        return totalConnections.get();
+    }
+
+    /**
+     * Get an estimate of the number of threads waiting for a connection.
+     *
+     * @return the number of waiting threads
+     */
+    public int getWaitingCount() {
+        return permits.getQueueLength();
+    }
+
+    /**
+     * Get the configuration of this pool.
+     *
+     * @return the configuration
+     */
+    public DatabaseConfig getConfig() {
+        return config;
+    }
+
+    private PooledConnection open() throws SQLException {
+        Connection connection = DriverManager.getConnection(config.getUrl(), config.getDriverProperties());
+        totalConnections.incrementAndGet();
+        return new PooledConnection(connection);
+    }
+
+    private boolean isUsable(PooledConnection pooled) {
+        long now = System.currentTimeMillis();
+        if (now - pooled.createdAt > config.getMaxLifetimeMillis()) {
+            return false;
+        }
+        if (now - pooled.lastUsedAt < config.getValidationIntervalMillis()) {
+            return true;
+        }
+        try {
+            return pooled.connection.isValid(config.getValidationTimeoutSeconds());
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void discard(PooledConnection pooled) {
+        totalConnections.decrementAndGet();
+        try {
+            pooled.connection.close();
+        } catch (SQLException e) {
+            System.out.println("Error closing pooled connection: " + e.getMessage());
+        }
+    }
+
+    private Connection lease(PooledConnection pooled) {
+        Lease lease = new Lease(pooled, config.getLeakDetectionThresholdMillis() > 0
+                ? new Throwable("Connection leased by thread " + Thread.currentThread().getName())
+                : null);
+        leases.add(lease);
+        return (Connection) Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(),
+                new Class<?>[] { Connection.class }, lease);
+    }
+
+    private void release(Lease lease) {
+        leases.remove(lease);
+        PooledConnection pooled = lease.pooled;
+        try {
+            if (closed || lease.broken || pooled.connection.isClosed()
+                    || totalConnections.get() > config.getMaxSize()) {
+                discard(pooled);
+                return;
+            }
+            // Leave the connection as a new borrower expects to find it
+            if (!pooled.connection.getAutoCommit()) {
+                pooled.connection.rollback();
+                pooled.connection.setAutoCommit(true);
+            }
+            if (pooled.connection.isReadOnly()) {
+                pooled.connection.setReadOnly(false);
+            }
+            pooled.connection.clearWarnings();
+            pooled.lastUsedAt = System.currentTimeMillis();
+            idle.offerFirst(pooled);
+        } catch (SQLException e) {
+            discard(pooled);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void housekeep() {
+        try {
+            long now = System.currentTimeMillis();
+
+            // Evict idle connections, least recently used first
+            Iterator<PooledConnection> iterator = idle.descendingIterator();
+            while (iterator.hasNext()) {
+                PooledConnection pooled = iterator.next();
+                boolean expired = now - pooled.createdAt > config.getMaxLifetimeMillis();
+                boolean idleTooLong = now - pooled.lastUsedAt > config.getIdleTimeoutMillis()
+                        && idle.size() > config.getMinIdle();
+                if ((expired || idleTooLong) && idle.remove(pooled)) {
+                    discard(pooled);
+                }
+            }
+
+            // Report leases that have been held for too long
+            long threshold = config.getLeakDetectionThresholdMillis();
+            if (threshold > 0) {
+                for (Lease lease : leases) {
+                    if (now - lease.borrowedAt > threshold && !lease.reported) {
+                        lease.reported = true;
+                        System.out.println("Possible connection leak: connection held for "
+                                + (now - lease.borrowedAt) + " ms");
+                        lease.origin.printStackTrace();
+                    }
+                }
+            }
+
+            // Top up the idle connections, each under a permit like a borrow that opens one,
+            // so that the two cannot together open more than maxSize physical connections
+            while (!closed && idle.size() < config.getMinIdle() && permits.tryAcquire()) {
+                try {
+                    if (totalConnections.get() >= config.getMaxSize()) {
+                        break;
+                    }
+                    idle.offerLast(open());
+                } finally {
+                    permits.release();
+                }
+            }
+        } catch (SQLException e) {
+            System.out.println("Error filling connection pool: " + e.getMessage());
+        } catch (RuntimeException e) {
+            System.out.println("Error in connection pool housekeeping: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * A physical connection owned by the pool.
+     */
+    private static final class PooledConnection {
+        private final Connection connection;
+        private final long createdAt = System.currentTimeMillis();
+        private volatile long lastUsedAt = createdAt;
+
+        private PooledConnection(Connection connection) {
+            this.connection = connection;
+        }
+    }
+
+    /**
+     * A single lease of a pooled connection; acts as the invocation handler of the
+     * {@link Connection} proxy handed to callers.
+     */
+    private final class Lease implements InvocationHandler {
+        private final PooledConnection pooled;
+        private final Throwable origin;
+        private final long borrowedAt = System.currentTimeMillis();
+        private final AtomicBoolean returned = new AtomicBoolean();
+        private volatile boolean broken;
+        private volatile boolean reported;
+
+        private Lease(PooledConnection pooled, Throwable origin) {
+            this.pooled = pooled;
+            this.origin = origin;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (returned.compareAndSet(false, true)) {
+                        release(this);
+                    }
+                    return null;
+                case "isClosed":
+                    return returned.get() || pooled.connection.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "PooledConnection[" + pooled.connection + "]";
+                default:
+                    break;
+            }
+
+            if (returned.get()) {
+                throw new SQLException("Connection has already been returned to the pool");
+            }
+
+            try {
+                return method.invoke(pooled.connection, args);
+            } catch (InvocationTargetException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof SQLException) {
+                    String state = ((SQLException) cause).getSQLState();
+                    // Class 08 is a connection exception; 57P01-57P03 mean the server went away
+                    if (state != null && (state.startsWith("08") || state.startsWith("57P"))) {
+                        broken = true;
+                    }
+                }
+                throw cause;
+            }
+        }
+    }
+}
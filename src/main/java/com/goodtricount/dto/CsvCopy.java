@@ -0,0 +1,239 @@
+package com.goodtricount.dto;
+
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
+import org.postgresql.core.BaseConnection;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Helpers for moving CSV between HTTP bodies and tables with PostgreSQL's {@code COPY}.
+ * Used by the CSV import and export methods of {@link ExpenseDAO} and {@link PaymentDAO}.
+ */
+final class CsvCopy {
+
+    /** Largest amount accepted by an import, as when amounts were NUMERIC(10, 2). */
+    private static final BigDecimal MAX_AMOUNT = new BigDecimal("99999999.99");
+
+    private CsvCopy() {
+    }
+
+    /**
+     * Get the COPY API of a pooled connection.
+     */
+    static CopyManager copyManager(Connection conn) throws SQLException {
+        return new CopyManager(conn.unwrap(BaseConnection.class));
+    }
+
+    /**
+     * Run {@code COPY (query) TO STDOUT} as CSV with a header, streaming the rows to the writer.
+     *
+     * @param conn the database connection
+     * @param query the query, which must not contain parameters
+     * @param out the writer to write to
+     * @return the number of rows written
+     */
+    static long copyOut(Connection conn, String query, Writer out) throws SQLException, IOException {
+        long rows = copyManager(conn).copyOut("COPY (" + query + ") TO STDOUT WITH (FORMAT csv, HEADER)", out);
+        out.flush();
+        return rows;
+    }
+
+    /**
+     * Quote a value as an SQL string literal, for statements such as COPY that take no parameters.
+     * Relies on standard_conforming_strings, which is on by default since PostgreSQL 9.1.
+     */
+    static String literal(String value) {
+        return "'" + value.replace("'", "''") + "'";
+    }
+
+    /**
+     * Lift the statement timeout for the current transaction, so that large transfers finish.
+     */
+    static void disableStatementTimeout(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("SET LOCAL statement_timeout = 0");
+        }
+    }
+
+    /**
+     * Load the participants of a group, locking the group row so that it is not deleted meanwhile.
+     *
+     * @return a ledger of the participants, with zero totals, to add the imported amounts to
+     * @throws IllegalArgumentException if the group does not exist
+     */
+    static GroupLedger lockGroupParticipants(Connection conn, String groupId) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement("SELECT 1 FROM Groups WHERE id = ? FOR SHARE")) {
+            pstmt.setString(1, groupId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (!rs.next()) {
+                    throw new IllegalArgumentException("Unknown group " + groupId);
+                }
+            }
+        }
+
+        GroupLedger ledger = new GroupLedger(groupId);
+        try (PreparedStatement pstmt = conn.prepareStatement("SELECT user_id FROM GroupParticipants WHERE group_id = ?")) {
+            pstmt.setString(1, groupId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    ledger.addParticipant(rs.getString(1));
+                }
+            }
+        }
+        return ledger;
+    }
+
+    /**
+     * Check the header of an uploaded file. Column names are compared ignoring case, since
+     * {@code COPY ... HEADER} writes them in lower case.
+     *
+     * @throws IllegalArgumentException if the header is missing or does not match
+     */
+    static void checkHeader(String[] header, String... columns) {
+        boolean matches = header != null && header.length == columns.length;
+        for (int i = 0; matches && i < columns.length; i++) {
+            matches = header[i].trim().equalsIgnoreCase(columns[i]);
+        }
+        if (!matches) {
+            throw new IllegalArgumentException("row 1: expected the header " + String.join(",", columns));
+        }
+    }
+
+    /**
+     * Check the number of fields of a row.
+     */
+    static void checkFields(CsvReader csv, String[] fields, int count) {
+        if (fields.length != count) {
+            throw invalid(csv, "expected " + count + " fields but found " + fields.length);
+        }
+    }
+
+    /**
+     * Check that a username is a participant of the group.
+     *
+     * @return the index of the participant in the ledger
+     */
+    static int participant(CsvReader csv, GroupLedger ledger, String username, String column) {
+        int index = ledger.indexOf(username);
+        if (index < 0 || !ledger.isParticipant(index)) {
+            throw invalid(csv, column + " '" + username + "' is not a participant of the group");
+        }
+        return index;
+    }
+
+    /**
+     * Parse a positive amount with at most two decimals.
+     *
+     * @return the amount in cents
+     */
+    static long amount(CsvReader csv, String value) {
+        BigDecimal amount;
+        try {
+            amount = new BigDecimal(value.trim());
+        } catch (NumberFormatException e) {
+            throw invalid(csv, "invalid amount '" + value + "'");
+        }
+        if (amount.signum() <= 0 || amount.scale() > 2 || amount.compareTo(MAX_AMOUNT) > 0) {
+            throw invalid(csv, "amount must be positive, below 100000000 and have at most two decimals");
+        }
+        return Money.of(amount).getCents();
+    }
+
+    /**
+     * Check the length of a text value.
+     */
+    static String text(CsvReader csv, String value, int maxLength, String column) {
+        if (value.length() > maxLength) {
+            throw invalid(csv, column + " is longer than " + maxLength + " characters");
+        }
+        return value;
+    }
+
+    static IllegalArgumentException invalid(CsvReader csv, String message) {
+        return new IllegalArgumentException("row " + csv.getRow() + ": " + message);
+    }
+
+    /**
+     * Buffers CSV rows and sends them to a {@code COPY ... FROM STDIN} in large chunks.
+     */
+    static final class Rows {
+
+        private static final int CHUNK = 64 * 1024;
+
+        private final CopyIn copy;
+        private final StringBuilder buffer = new StringBuilder(CHUNK + 1024);
+        private boolean rowStarted;
+
+        /**
+         * Start {@code COPY table (columns) FROM STDIN} in CSV format.
+         */
+        Rows(Connection conn, String table, String columns) throws SQLException {
+            this.copy = copyManager(conn).copyIn("COPY " + table + " (" + columns + ") FROM STDIN WITH (FORMAT csv)");
+        }
+
+        /**
+         * Append a field to the current row; null is written as SQL NULL.
+         */
+        Rows field(String value) {
+            if (rowStarted) {
+                buffer.append(',');
+            }
+            rowStarted = true;
+            if (value != null) {
+                buffer.append('"').append(value.replace("\"", "\"\"")).append('"');
+            }
+            return this;
+        }
+
+        /**
+         * End the current row.
+         */
+        void endRow() throws SQLException {
+            buffer.append('\n');
+            rowStarted = false;
+            if (buffer.length() >= CHUNK) {
+                flush();
+            }
+        }
+
+        /**
+         * Send the remaining rows and finish the COPY.
+         *
+         * @return the number of rows copied
+         */
+        long finish() throws SQLException {
+            flush();
+            return copy.endCopy();
+        }
+
+        /**
+         * Abort the COPY, e.g. when a row is invalid.
+         */
+        void cancel() {
+            try {
+                if (copy.isActive()) {
+                    copy.cancelCopy();
+                }
+            } catch (SQLException e) {
+                System.out.println("Error cancelling copy: " + e.getMessage());
+            }
+        }
+
+        private void flush() throws SQLException {
+            if (buffer.length() > 0) {
+                byte[] bytes = buffer.toString().getBytes(StandardCharsets.UTF_8);
+                copy.writeToCopy(bytes, 0, bytes.length);
+                buffer.setLength(0);
+            }
+        }
+    }
+}
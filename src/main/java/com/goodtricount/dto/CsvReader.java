@@ -0,0 +1,102 @@
+package com.goodtricount.dto;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Minimal streaming reader of RFC 4180 CSV: comma separated, fields optionally quoted with
+ * {@code "}, quotes doubled inside quoted fields, records ended by LF or CRLF.
+ * Only the current record is held in memory.
+ */
+class CsvReader {
+
+    private final Reader in;
+    private final StringBuilder field = new StringBuilder();
+    private int next = -2;
+    private int row = 0;
+
+    /**
+     * @param in the reader to read from; buffer it for performance
+     */
+    CsvReader(Reader in) {
+        this.in = in;
+    }
+
+    /**
+     * Read the next record.
+     *
+     * @return the fields of the record, or null at the end of the input
+     * @throws IOException if reading fails
+     * @throws IllegalArgumentException if a quoted field is not closed
+     */
+    String[] next() throws IOException {
+        int c = read();
+        if (c == -1) {
+            return null;
+        }
+        row++;
+
+        List<String> fields = new ArrayList<>();
+        field.setLength(0);
+        boolean quoted = false;
+        while (true) {
+            if (quoted) {
+                if (c == -1) {
+                    throw new IllegalArgumentException("row " + row + ": unterminated quoted field");
+                }
+                if (c == '"') {
+                    if (peek() == '"') {
+                        read();
+                        field.append('"');
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    field.append((char) c);
+                }
+            } else if (c == '"' && field.length() == 0) {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else if (c == '\n' || c == -1) {
+                break;
+            } else if (c == '\r' && peek() == '\n') {
+                read();
+                break;
+            } else {
+                field.append((char) c);
+            }
+            c = read();
+        }
+        fields.add(field.toString());
+        return fields.toArray(new String[0]);
+    }
+
+    /**
+     * Get the number of the last record read, starting at 1.
+     *
+     * @return the record number
+     */
+    int getRow() {
+        return row;
+    }
+
+    private int read() throws IOException {
+        if (next != -2) {
+            int c = next;
+            next = -2;
+            return c;
+        }
+        return in.read();
+    }
+
+    private int peek() throws IOException {
+        if (next == -2) {
+            next = in.read();
+        }
+        return next;
+    }
+}
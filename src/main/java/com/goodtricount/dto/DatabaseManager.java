@@ -2,7 +2,6 @@ package com.goodtricount.dto;
 
 import java.sql.Connection;
 import java.sql.SQLException;
-import java.sql.Statement;
 
 /**
  * Database manager for the GoodTricount application.
@@ -10,12 +9,12 @@ import java.sql.Statement;
  */
 public class DatabaseManager {
     
-    private static DatabaseManager instance;
-    
     private UserDAO userDAO;
     private GroupDAO groupDAO;
     private ExpenseDAO expenseDAO;
     private PaymentDAO paymentDAO;
+    private BalanceDAO balanceDAO;
+    private GroupChangeDAO groupChangeDAO;
     
     /**
      * Private constructor to enforce singleton pattern.
@@ -25,6 +24,15 @@ public class DatabaseManager {
         groupDAO = new GroupDAO();
         expenseDAO = new ExpenseDAO();
         paymentDAO = new PaymentDAO();
+        balanceDAO = new BalanceDAO();
+        groupChangeDAO = new GroupChangeDAO();
+    }
+    
+    /**
+     * Holds the singleton; the JVM creates it on first use, so getInstance() needs no lock.
+     */
+    private static final class Holder {
+        static final DatabaseManager INSTANCE = new DatabaseManager();
     }
     
     /**
@@ -32,87 +40,19 @@ public class DatabaseManager {
      * 
      * @return the DatabaseManager instance
      */
-    public static synchronized DatabaseManager getInstance() {
-        if (instance == null) {
-            instance = new DatabaseManager();
-        }
-        return instance;
+    public static DatabaseManager getInstance() {
+        return Holder.INSTANCE;
     }
     
     /**
-     * Initialize the database by creating all necessary tables.
+     * Initialize the database by applying the pending schema migrations.
+     * Migrations that were already applied are skipped, so this is cheap on every start.
      * 
      * @return true if the database was initialized successfully, false otherwise
+     * @see SchemaMigrator
      */
     public boolean initializeDatabase() {
-        try (Connection conn = DatabaseConnection.getConnection();
-             Statement stmt = conn.createStatement()) {
-            
-            // Create Users table
-            stmt.execute("CREATE TABLE IF NOT EXISTS Users (" +
-                         "username VARCHAR(50) PRIMARY KEY, " +
-                         "password VARCHAR(255) NOT NULL, " +
-                         "email VARCHAR(100) NOT NULL UNIQUE, " +
-                         "name VARCHAR(100)" +
-                         ")");
-            
-            // Create Groups table
-            stmt.execute("CREATE TABLE IF NOT EXISTS Groups (" +
-                         "id VARCHAR(50) PRIMARY KEY, " +
-                         "name VARCHAR(100) NOT NULL" +
-                         ")");
-            
-            // Create GroupParticipants table
-            stmt.execute("CREATE TABLE IF NOT EXISTS GroupParticipants (" +
-                         "group_id VARCHAR(50) NOT NULL, " +
-                         "user_id VARCHAR(50) NOT NULL, " +
-                         "PRIMARY KEY (group_id, user_id), " +
-                         "FOREIGN KEY (group_id) REFERENCES Groups(id) ON DELETE CASCADE, " +
-                         "FOREIGN KEY (user_id) REFERENCES Users(username) ON DELETE CASCADE" +
-                         ")");
-            
-            // Create GroupAdmins table
-            stmt.execute("CREATE TABLE IF NOT EXISTS GroupAdmins (" +
-                         "group_id VARCHAR(50) NOT NULL, " +
-                         "admin_id VARCHAR(50) NOT NULL, " +
-                         "PRIMARY KEY (group_id, admin_id), " +
-                         "FOREIGN KEY (group_id) REFERENCES Groups(id) ON DELETE CASCADE, " +
-                         "FOREIGN KEY (admin_id) REFERENCES Users(username) ON DELETE CASCADE" +
-                         ")");
-            
-            // Create Expenses table
-            stmt.execute("CREATE TABLE IF NOT EXISTS Expenses (" +
-                         "expense_id SERIAL PRIMARY KEY, " +
-                         "group_id VARCHAR(50) NOT NULL, " +
-                         "payer VARCHAR(50) NOT NULL, " +
-                         "amount NUMERIC(10, 2) NOT NULL, " +
-                         "description VARCHAR(255), " +
-                         "FOREIGN KEY (group_id) REFERENCES Groups(id) ON DELETE CASCADE, " +
-                         "FOREIGN KEY (payer) REFERENCES Users(username)" +
-                         ")");
-            
-            // Create Payments table
-            stmt.execute("CREATE TABLE IF NOT EXISTS Payments (" +
-                         "payment_id SERIAL PRIMARY KEY, " +
-                         "group_id VARCHAR(50) NOT NULL, " +
-                         "payer VARCHAR(50) NOT NULL, " +
-                         "receiver VARCHAR(50) NOT NULL, " +
-                         "amount NUMERIC(10, 2) NOT NULL, " +
-                         "status VARCHAR(10) NOT NULL CHECK (status IN ('pending', 'confirmed')), " +
-                         "timestamp TIMESTAMP NOT NULL, " +
-                         "confirmedTimestamp TIMESTAMP, " +
-                         "FOREIGN KEY (group_id) REFERENCES Groups(id) ON DELETE CASCADE, " +
-                         "FOREIGN KEY (payer) REFERENCES Users(username), " +
-                         "FOREIGN KEY (receiver) REFERENCES Users(username)" +
-                         ")");
-            
-            return true;
-            
-        } catch (SQLException e) {
-            System.out.println("Error initializing database: " + e.getMessage());
-            e.printStackTrace();
-            return false;
-        }
+        return new SchemaMigrator().migrate();
     }
     
     /**
@@ -152,7 +92,34 @@ public class DatabaseManager {
     }
     
     /**
-     * Close the database connection.
+     * Get the BalanceDAO instance.
+     * 
+     * @return the BalanceDAO instance
+     */
+    public BalanceDAO getBalanceDAO() {
+        return balanceDAO;
+    }
+    
+    /**
+     * Get the GroupChangeDAO instance.
+     * 
+     * @return the GroupChangeDAO instance
+     */
+    public GroupChangeDAO getGroupChangeDAO() {
+        return groupChangeDAO;
+    }
+    
+    /**
+     * Get the GroupNotifications instance.
+     * 
+     * @return the GroupNotifications instance
+     */
+    public GroupNotifications getGroupNotifications() {
+        return GroupNotifications.getInstance();
+    }
+    
+    /**
+     * Close the database connection pool.
      */
     public void closeConnection() {
         try {
@@ -169,8 +136,7 @@ public class DatabaseManager {
      * @return true if the connection is successful, false otherwise
      */
     public boolean testConnection() {
-        try {
-            Connection conn = DatabaseConnection.getConnection();
+        try (Connection conn = DatabaseConnection.getConnection()) {
             return conn != null && !conn.isClosed();
         } catch (SQLException e) {
             System.out.println("Error testing database connection: " + e.getMessage());
@@ -2,6 +2,8 @@ package com.goodtricount.dto;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Test class for the database connection and operations.
@@ -69,6 +71,25 @@ public class DatabaseTest {
             System.out.println("Group details: " + retrievedGroup);
         }
         
+        // Subscribe to the group, to check that the expense below is notified
+        GroupNotifications notifications = dbManager.getGroupNotifications();
+        long versionBefore = dbManager.getGroupChangeDAO().getVersion("g1");
+        CountDownLatch listening = new CountDownLatch(1);
+        CountDownLatch notified = new CountDownLatch(1);
+        GroupNotifications.Subscriber subscriber = (groupId, version) -> {
+            if (version == GroupNotifications.UNKNOWN) {
+                listening.countDown();
+            } else if (version > versionBefore) {
+                notified.countDown();
+            }
+        };
+        notifications.subscribe("g1", subscriber);
+        try {
+            System.out.println("Listening for group changes: " + listening.await(10, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        
         // Test expense operations
         System.out.println("\nTesting expense operations...");
         ExpenseDAO expenseDAO = dbManager.getExpenseDAO();
@@ -78,6 +99,14 @@ public class DatabaseTest {
         int expenseId = expenseDAO.insertExpense("g1", testExpense);
         System.out.println("Expense inserted with ID: " + expenseId);
         
+        // Wait for the notification of the new version
+        try {
+            System.out.println("Group change notified: " + notified.await(10, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        notifications.unsubscribe("g1", subscriber);
+        
         // Get the expense
         ExpenseDTO retrievedExpense = expenseDAO.getExpenseById(expenseId);
         System.out.println("Expense retrieved: " + (retrievedExpense != null));
@@ -1,6 +1,10 @@
 package com.goodtricount.dto;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
 import java.math.BigDecimal;
+import java.sql.Array;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -8,39 +12,117 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * Data Access Object for Expense entities.
  * Handles database operations for expenses.
  */
 public class ExpenseDAO {
+
+    /** Largest page returned by {@link #getExpensesForGroup(String, String, int)}. */
+    public static final int MAX_PAGE_SIZE = 500;
+
+    private static final String PAGE_KIND = "expenses";
+
+    /** Columns of the CSV import and export, in order. */
+    private static final String CSV_COLUMNS = "payer, amount, description";
+    
+    /** Largest number of expenses accepted by {@link #insertExpenses(String, List)}. */
+    public static final int MAX_BATCH_SIZE = 1000;
+
+    private static final LatencyHistogram INSERT_EXPENSE = Metrics.dao("ExpenseDAO.insertExpense");
+    private static final LatencyHistogram INSERT_EXPENSES = Metrics.dao("ExpenseDAO.insertExpenses");
+    private static final LatencyHistogram GET_EXPENSE_BY_ID = Metrics.dao("ExpenseDAO.getExpenseById");
+    private static final LatencyHistogram GET_EXPENSES_FOR_GROUP = Metrics.dao("ExpenseDAO.getExpensesForGroup");
+    private static final LatencyHistogram GET_EXPENSES_PAGE = Metrics.dao("ExpenseDAO.getExpensesForGroup(page)");
+    private static final LatencyHistogram UPDATE_EXPENSE = Metrics.dao("ExpenseDAO.updateExpense");
+    private static final LatencyHistogram DELETE_EXPENSE = Metrics.dao("ExpenseDAO.deleteExpense");
+    private static final LatencyHistogram GET_TOTAL_EXPENSES_FOR_GROUP = Metrics.dao("ExpenseDAO.getTotalExpensesForGroup");
+    private static final LatencyHistogram GET_TOTAL_EXPENSES_PAID_BY_USER = Metrics.dao("ExpenseDAO.getTotalExpensesPaidByUser");
+    private static final LatencyHistogram EXPORT_EXPENSES_CSV = Metrics.dao("ExpenseDAO.exportExpensesCsv");
+    private static final LatencyHistogram IMPORT_EXPENSES_CSV = Metrics.dao("ExpenseDAO.importExpensesCsv");
+
+    static final String GET_EXPENSE_BY_ID_SQL = "SELECT * FROM Expenses WHERE expense_id = ?";
+
+    static final String GET_EXPENSES_FOR_GROUP_SQL = "SELECT * FROM Expenses WHERE group_id = ? ORDER BY expense_id";
+
+    static final String GET_EXPENSES_PAGE_SQL =
+            "SELECT * FROM Expenses WHERE group_id = ? AND expense_id > ? ORDER BY expense_id LIMIT ?";
+
+    static final String LOCK_EXPENSE_SQL =
+            "SELECT group_id, payer, amount FROM Expenses WHERE expense_id = ? FOR UPDATE";
+
+    static final String UPDATE_EXPENSE_SQL =
+            "UPDATE Expenses SET payer = ?, amount = ?, description = ? WHERE expense_id = ?";
+
+    static final String DELETE_EXPENSE_SQL =
+            "DELETE FROM Expenses WHERE expense_id = ? RETURNING group_id, payer, amount";
+
+    static final String GET_TOTAL_EXPENSES_FOR_GROUP_SQL = "SELECT SUM(amount) FROM Expenses WHERE group_id = ?";
+
+    static final String GET_TOTAL_EXPENSES_PAID_BY_USER_SQL =
+            "SELECT SUM(amount) FROM Expenses WHERE group_id = ? AND payer = ?";
+    
+    /** Group commit of {@link #insertExpense}, or null unless {@code db.batch.expenses.enabled}. */
+    private static final InsertBatcher<ExpenseDTO> INSERT_BATCHER =
+            InsertBatcher.fromEnvironment("expenses", ExpenseDAO::insertExpenseBatch, ExpenseDAO::insertExpenseAlone);
     
     /**
      * Insert a new expense into the database.
+     * With {@code db.batch.expenses.enabled}, concurrent inserts are committed together in
+     * batches (see {@link InsertBatcher}); the call still returns once its expense is committed.
      * 
      * @param groupId the ID of the group the expense belongs to
      * @param expense the expense to insert
      * @return the ID of the inserted expense, or -1 if the insertion failed
      */
     public int insertExpense(String groupId, ExpenseDTO expense) {
+        long start = System.nanoTime();
+        int expenseId = INSERT_BATCHER != null
+                ? INSERT_BATCHER.insert(groupId, expense)
+                : insertExpenseAlone(groupId, expense);
+        if (expenseId < 0) {
+            INSERT_EXPENSE.error();
+        }
+        INSERT_EXPENSE.record(start);
+        return expenseId;
+    }
+    
+    /**
+     * Insert an expense in a transaction of its own.
+     */
+    private static int insertExpenseAlone(String groupId, ExpenseDTO expense) {
         String sql = "INSERT INTO Expenses (group_id, payer, amount, description) VALUES (?, ?, ?, ?)";
         
-        try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
-            
-            pstmt.setString(1, groupId);
-            pstmt.setString(2, expense.getPayer());
-            pstmt.setBigDecimal(3, expense.getAmount());
-            pstmt.setString(4, expense.getDescription());
-            
-            int rowsAffected = pstmt.executeUpdate();
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            conn.setAutoCommit(false);
             
-            if (rowsAffected > 0) {
-                try (ResultSet rs = pstmt.getGeneratedKeys()) {
-                    if (rs.next()) {
-                        return rs.getInt(1);
+            try (PreparedStatement pstmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+                pstmt.setString(1, groupId);
+                pstmt.setString(2, expense.getPayer());
+                Money.bind(pstmt, 3, expense.getMoney());
+                pstmt.setString(4, expense.getDescription());
+                
+                int rowsAffected = pstmt.executeUpdate();
+                
+                if (rowsAffected > 0) {
+                    try (ResultSet rs = pstmt.getGeneratedKeys()) {
+                        if (rs.next()) {
+                            int expenseId = rs.getInt(1);
+                            GroupChangeDAO.recordChanges(conn, groupId, GroupChangeDAO.EXPENSE, expenseId);
+                            BalanceDAO.applyExpense(conn, groupId, expense.getPayer(), expense.getMoney().getCents());
+                            conn.commit();
+                            return expenseId;
+                        }
                     }
                 }
+                
+                conn.rollback();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
             }
             
         } catch (SQLException e) {
@@ -51,6 +133,124 @@ public class ExpenseDAO {
         return -1;
     }
     
+    /**
+     * Insert a batch of expenses with one statement, in the caller's transaction, and update the
+     * balances and versions of their groups. Groups are updated in ID order, and balances in
+     * username order, so that concurrent batches cannot deadlock.
+     */
+    private static int[] insertExpenseBatch(Connection conn, List<InsertBatcher.Row<ExpenseDTO>> rows)
+            throws SQLException {
+        // The rows of INSERT ... RETURNING come in no guaranteed order, so the IDs are drawn first,
+        // the k-th row inserted with the k-th of them, and the drawn IDs returned in that order
+        String sql = "WITH reserved AS (SELECT array_agg(nextval(pg_get_serial_sequence('expenses', 'expense_id')))::int[] AS ids " +
+                     "FROM generate_series(1, ?)), " +
+                     "inserted AS (INSERT INTO Expenses (expense_id, group_id, payer, amount, description) " +
+                     "SELECT r.ids[u.ord::int], u.group_id, u.payer, u.amount, u.description " +
+                     "FROM reserved r, unnest(?::varchar[], ?::varchar[], ?::bigint[], ?::varchar[]) " +
+                     "WITH ORDINALITY AS u(group_id, payer, amount, description, ord)) " +
+                     "SELECT ids FROM reserved";
+        
+        String[] groupIds = new String[rows.size()];
+        String[] payers = new String[rows.size()];
+        Long[] amounts = new Long[rows.size()];
+        String[] descriptions = new String[rows.size()];
+        for (int i = 0; i < groupIds.length; i++) {
+            ExpenseDTO expense = rows.get(i).value;
+            groupIds[i] = rows.get(i).groupId;
+            payers[i] = expense.getPayer();
+            amounts[i] = expense.getMoney() != null ? expense.getMoney().getCents() : null;
+            descriptions[i] = expense.getDescription();
+        }
+        
+        Array[] columns = {
+            conn.createArrayOf("varchar", groupIds),
+            conn.createArrayOf("varchar", payers),
+            conn.createArrayOf("bigint", amounts),
+            conn.createArrayOf("varchar", descriptions)
+        };
+        int[] expenseIds;
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setInt(1, rows.size());
+            for (int i = 0; i < columns.length; i++) {
+                pstmt.setArray(i + 2, columns[i]);
+            }
+            
+            try (ResultSet rs = pstmt.executeQuery()) {
+                expenseIds = InsertBatcher.readIds(rs, rows.size());
+            }
+        } finally {
+            for (Array column : columns) {
+                column.free();
+            }
+        }
+        
+        Map<String, GroupLedger> ledgers = new TreeMap<>();
+        Map<String, List<Integer>> idsByGroup = new TreeMap<>();
+        for (int i = 0; i < expenseIds.length; i++) {
+            GroupLedger ledger = ledgers.computeIfAbsent(groupIds[i], GroupLedger::new);
+            ledger.addExpense(ledger.intern(payers[i]), amounts[i]);
+            idsByGroup.computeIfAbsent(groupIds[i], id -> new ArrayList<>()).add(expenseIds[i]);
+        }
+        for (GroupLedger ledger : ledgers.values()) {
+            List<Integer> ids = idsByGroup.get(ledger.getGroupId());
+            int[] groupExpenseIds = new int[ids.size()];
+            for (int i = 0; i < groupExpenseIds.length; i++) {
+                groupExpenseIds[i] = ids.get(i);
+            }
+            GroupChangeDAO.recordChanges(conn, ledger.getGroupId(), GroupChangeDAO.EXPENSE, groupExpenseIds);
+            BalanceDAO.applyTotals(conn, ledger);
+        }
+        
+        return expenseIds;
+    }
+    
+    /**
+     * Insert several expenses of a group in one transaction, e.g. the lines of a receipt.
+     * The rows are inserted with one statement, like a batch of {@link #insertExpense}, and the
+     * balances and version of the group are updated once for the whole batch.
+     * 
+     * @param groupId the ID of the group the expenses belong to
+     * @param expenses the expenses to insert, at most {@link #MAX_BATCH_SIZE}
+     * @return the IDs of the inserted expenses in the same order, or an empty array if the insertion failed
+     * @throws IllegalArgumentException if there are more than {@link #MAX_BATCH_SIZE} expenses
+     */
+    public int[] insertExpenses(String groupId, List<ExpenseDTO> expenses) {
+        if (expenses.size() > MAX_BATCH_SIZE) {
+            throw new IllegalArgumentException("At most " + MAX_BATCH_SIZE + " expenses can be inserted at once");
+        }
+        if (expenses.isEmpty()) {
+            return new int[0];
+        }
+        
+        List<InsertBatcher.Row<ExpenseDTO>> rows = new ArrayList<>(expenses.size());
+        for (ExpenseDTO expense : expenses) {
+            rows.add(new InsertBatcher.Row<>(groupId, expense));
+        }
+        
+        long start = System.nanoTime();
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            conn.setAutoCommit(false);
+            
+            try {
+                int[] expenseIds = insertExpenseBatch(conn, rows);
+                conn.commit();
+                return expenseIds;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+            
+        } catch (SQLException e) {
+            INSERT_EXPENSES.error();
+            System.out.println("Error inserting expenses: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            INSERT_EXPENSES.record(start);
+        }
+        
+        return new int[0];
+    }
+    
     /**
      * Get an expense by ID.
      * 
@@ -58,26 +258,24 @@ public class ExpenseDAO {
      * @return the expense, or null if not found
      */
     public ExpenseDTO getExpenseById(int expenseId) {
-        String sql = "SELECT * FROM Expenses WHERE expense_id = ?";
-        
+        long start = System.nanoTime();
         try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+             PreparedStatement pstmt = conn.prepareStatement(GET_EXPENSE_BY_ID_SQL)) {
             
             pstmt.setInt(1, expenseId);
             
             try (ResultSet rs = pstmt.executeQuery()) {
                 if (rs.next()) {
-                    ExpenseDTO expense = new ExpenseDTO();
-                    expense.setPayer(rs.getString("payer"));
-                    expense.setAmount(rs.getBigDecimal("amount"));
-                    expense.setDescription(rs.getString("description"));
-                    return expense;
+                    return mapExpense(rs);
                 }
             }
             
         } catch (SQLException e) {
+            GET_EXPENSE_BY_ID.error();
             System.out.println("Error getting expense: " + e.getMessage());
             e.printStackTrace();
+        } finally {
+            GET_EXPENSE_BY_ID.record(start);
         }
         
         return null;
@@ -91,31 +289,86 @@ public class ExpenseDAO {
      */
     public List<ExpenseDTO> getExpensesForGroup(String groupId) {
         List<ExpenseDTO> expenses = new ArrayList<>();
-        String sql = "SELECT * FROM Expenses WHERE group_id = ?";
         
+        long start = System.nanoTime();
         try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+             PreparedStatement pstmt = conn.prepareStatement(GET_EXPENSES_FOR_GROUP_SQL)) {
             
             pstmt.setString(1, groupId);
             
             try (ResultSet rs = pstmt.executeQuery()) {
                 while (rs.next()) {
-                    ExpenseDTO expense = new ExpenseDTO();
-                    expense.setPayer(rs.getString("payer"));
-                    expense.setAmount(rs.getBigDecimal("amount"));
-                    expense.setDescription(rs.getString("description"));
-                    expenses.add(expense);
+                    expenses.add(mapExpense(rs));
                 }
             }
             
         } catch (SQLException e) {
+            GET_EXPENSES_FOR_GROUP.error();
             System.out.println("Error getting expenses for group: " + e.getMessage());
             e.printStackTrace();
+        } finally {
+            GET_EXPENSES_FOR_GROUP.record(start);
         }
         
         return expenses;
     }
     
+    /**
+     * Get one page of the expenses of a group, in the order they were added.
+     * Pages are read by key (expense_id) rather than by offset, so every page costs the same
+     * however long the history of the group is.
+     * 
+     * @param groupId the ID of the group
+     * @param pageToken the token returned with the previous page, or null for the first page
+     * @param limit the maximum number of expenses, capped at {@link #MAX_PAGE_SIZE}
+     * @return the page, or null if the expenses could not be read
+     * @throws IllegalArgumentException if the page token is invalid
+     */
+    public Page<ExpenseDTO> getExpensesForGroup(String groupId, String pageToken, int limit) {
+        int afterId = 0;
+        if (pageToken != null) {
+            try {
+                afterId = Integer.parseInt(PageToken.decode(PAGE_KIND, pageToken, 1)[0]);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid page token");
+            }
+        }
+        int size = Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+        
+        List<ExpenseDTO> expenses = new ArrayList<>();
+        
+        long start = System.nanoTime();
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(GET_EXPENSES_PAGE_SQL)) {
+            
+            pstmt.setString(1, groupId);
+            pstmt.setInt(2, afterId);
+            // One extra row tells whether there is a next page
+            pstmt.setInt(3, size + 1);
+            
+            int lastId = afterId;
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    if (expenses.size() == size) {
+                        return new Page<>(expenses, PageToken.encode(PAGE_KIND, Integer.toString(lastId)));
+                    }
+                    expenses.add(mapExpense(rs));
+                    lastId = rs.getInt("expense_id");
+                }
+            }
+            return new Page<>(expenses, null);
+            
+        } catch (SQLException e) {
+            GET_EXPENSES_PAGE.error();
+            System.out.println("Error getting expenses page for group: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            GET_EXPENSES_PAGE.record(start);
+        }
+        
+        return null;
+    }
+    
     /**
      * Update an expense in the database.
      * 
@@ -124,23 +377,54 @@ public class ExpenseDAO {
      * @return true if the expense was updated successfully, false otherwise
      */
     public boolean updateExpense(int expenseId, ExpenseDTO expense) {
-        String sql = "UPDATE Expenses SET payer = ?, amount = ?, description = ? WHERE expense_id = ?";
-        
-        try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            
-            pstmt.setString(1, expense.getPayer());
-            pstmt.setBigDecimal(2, expense.getAmount());
-            pstmt.setString(3, expense.getDescription());
-            pstmt.setInt(4, expenseId);
+        long start = System.nanoTime();
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            conn.setAutoCommit(false);
             
-            int rowsAffected = pstmt.executeUpdate();
-            return rowsAffected > 0;
+            try (PreparedStatement select = conn.prepareStatement(LOCK_EXPENSE_SQL);
+                 PreparedStatement pstmt = conn.prepareStatement(UPDATE_EXPENSE_SQL)) {
+                
+                select.setInt(1, expenseId);
+                
+                try (ResultSet rs = select.executeQuery()) {
+                    if (!rs.next()) {
+                        conn.rollback();
+                        return false;
+                    }
+                    
+                    String groupId = rs.getString("group_id");
+                    String oldPayer = rs.getString("payer");
+                    long oldCents = rs.getLong("amount");
+                    
+                    pstmt.setString(1, expense.getPayer());
+                    Money.bind(pstmt, 2, expense.getMoney());
+                    pstmt.setString(3, expense.getDescription());
+                    pstmt.setInt(4, expenseId);
+                    pstmt.executeUpdate();
+                    
+                    GroupChangeDAO.recordChanges(conn, groupId, GroupChangeDAO.EXPENSE, expenseId);
+                    // Move the amount from the old payer to the new one, in username order
+                    GroupLedger ledger = new GroupLedger(groupId, 2);
+                    ledger.addExpense(ledger.intern(oldPayer), -oldCents);
+                    ledger.addExpense(ledger.intern(expense.getPayer()), expense.getMoney().getCents());
+                    BalanceDAO.applyTotals(conn, ledger);
+                }
+                
+                conn.commit();
+                return true;
+                
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
             
         } catch (SQLException e) {
+            UPDATE_EXPENSE.error();
             System.out.println("Error updating expense: " + e.getMessage());
             e.printStackTrace();
             return false;
+        } finally {
+            UPDATE_EXPENSE.record(start);
         }
     }
     
@@ -151,20 +435,136 @@ public class ExpenseDAO {
      * @return true if the expense was deleted successfully, false otherwise
      */
     public boolean deleteExpense(int expenseId) {
-        String sql = "DELETE FROM Expenses WHERE expense_id = ?";
-        
-        try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            
-            pstmt.setInt(1, expenseId);
+        long start = System.nanoTime();
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            conn.setAutoCommit(false);
             
-            int rowsAffected = pstmt.executeUpdate();
-            return rowsAffected > 0;
+            try (PreparedStatement pstmt = conn.prepareStatement(DELETE_EXPENSE_SQL)) {
+                pstmt.setInt(1, expenseId);
+                
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (!rs.next()) {
+                        conn.rollback();
+                        return false;
+                    }
+                    
+                    GroupChangeDAO.recordChanges(conn, rs.getString("group_id"), GroupChangeDAO.EXPENSE, expenseId);
+                    BalanceDAO.applyExpense(conn, rs.getString("group_id"), rs.getString("payer"),
+                                            -rs.getLong("amount"));
+                }
+                
+                conn.commit();
+                return true;
+                
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
             
         } catch (SQLException e) {
+            DELETE_EXPENSE.error();
             System.out.println("Error deleting expense: " + e.getMessage());
             e.printStackTrace();
             return false;
+        } finally {
+            DELETE_EXPENSE.record(start);
+        }
+    }
+    
+    /**
+     * Write the expenses of a group as CSV ({@value #CSV_COLUMNS}, with a header), in the order
+     * they were added. The rows are streamed by PostgreSQL's {@code COPY ... TO STDOUT}.
+     * 
+     * @param groupId the ID of the group
+     * @param out the writer to write to; it is flushed but not closed
+     * @return the number of expenses written
+     * @throws IOException if writing fails or the expenses cannot be read
+     */
+    public long exportExpensesCsv(String groupId, Writer out) throws IOException {
+        String query = "SELECT payer, " + Money.sqlDecimal("amount") + ", description FROM Expenses WHERE group_id = " + CsvCopy.literal(groupId) +
+                       " ORDER BY expense_id";
+        
+        long start = System.nanoTime();
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            conn.setAutoCommit(false);
+            CsvCopy.disableStatementTimeout(conn);
+            long rows = CsvCopy.copyOut(conn, query, out);
+            conn.commit();
+            return rows;
+            
+        } catch (SQLException e) {
+            EXPORT_EXPENSES_CSV.error();
+            System.out.println("Error exporting expenses: " + e.getMessage());
+            e.printStackTrace();
+            throw new IOException("Error exporting expenses of group " + groupId, e);
+        } finally {
+            EXPORT_EXPENSES_CSV.record(start);
+        }
+    }
+    
+    /**
+     * Import expenses into a group from CSV ({@value #CSV_COLUMNS}, with a header, as written by
+     * {@link #exportExpensesCsv(String, Writer)}).
+     * The input is validated while it is streamed into PostgreSQL's {@code COPY ... FROM STDIN},
+     * and the balances of the group are updated once per payer. Either every row is imported or,
+     * if any row is invalid, none is.
+     * 
+     * @param groupId the ID of the group
+     * @param in the CSV to read
+     * @return the number of expenses imported, or -1 if the import failed
+     * @throws IllegalArgumentException if the group does not exist or a row is invalid; the message tells which row
+     * @throws IOException if reading the input fails
+     */
+    public long importExpensesCsv(String groupId, Reader in) throws IOException {
+        long start = System.nanoTime();
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            conn.setAutoCommit(false);
+            
+            CsvCopy.Rows rows = null;
+            try {
+                CsvCopy.disableStatementTimeout(conn);
+                // The version first: it locks the group, so the new rows are the ones after lastId
+                long version = GroupChangeDAO.recordChanges(conn, groupId, GroupChangeDAO.EXPENSE);
+                int lastId = GroupChangeDAO.lastId(conn, groupId, GroupChangeDAO.EXPENSE);
+                GroupLedger ledger = CsvCopy.lockGroupParticipants(conn, groupId);
+                
+                CsvReader csv = new CsvReader(in);
+                CsvCopy.checkHeader(csv.next(), CSV_COLUMNS.split(", "));
+                
+                rows = new CsvCopy.Rows(conn, "Expenses", "group_id, " + CSV_COLUMNS);
+                String[] fields;
+                while ((fields = csv.next()) != null) {
+                    CsvCopy.checkFields(csv, fields, 3);
+                    int payer = CsvCopy.participant(csv, ledger, fields[0], "payer");
+                    long amount = CsvCopy.amount(csv, fields[1]);
+                    String description = CsvCopy.text(csv, fields[2], 255, "description");
+                    
+                    rows.field(groupId).field(fields[0]).field(Long.toString(amount))
+                        .field(description.isEmpty() ? null : description).endRow();
+                    ledger.addExpense(payer, amount);
+                }
+                long imported = rows.finish();
+                
+                BalanceDAO.applyTotals(conn, ledger);
+                GroupChangeDAO.recordInserted(conn, groupId, version, GroupChangeDAO.EXPENSE, lastId);
+                
+                conn.commit();
+                return imported;
+            } catch (SQLException | IOException | RuntimeException e) {
+                if (rows != null) {
+                    rows.cancel();
+                }
+                conn.rollback();
+                throw e;
+            }
+            
+        } catch (SQLException e) {
+            IMPORT_EXPENSES_CSV.error();
+            System.out.println("Error importing expenses: " + e.getMessage());
+            e.printStackTrace();
+            return -1;
+        } finally {
+            IMPORT_EXPENSES_CSV.record(start);
         }
     }
     
@@ -175,22 +575,24 @@ public class ExpenseDAO {
      * @return the total amount of expenses
      */
     public BigDecimal getTotalExpensesForGroup(String groupId) {
-        String sql = "SELECT SUM(amount) FROM Expenses WHERE group_id = ?";
-        
+        long start = System.nanoTime();
         try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+             PreparedStatement pstmt = conn.prepareStatement(GET_TOTAL_EXPENSES_FOR_GROUP_SQL)) {
             
             pstmt.setString(1, groupId);
             
             try (ResultSet rs = pstmt.executeQuery()) {
                 if (rs.next()) {
-                    return rs.getBigDecimal(1);
+                    return Money.ofCents(rs.getLong(1)).toBigDecimal();
                 }
             }
             
         } catch (SQLException e) {
+            GET_TOTAL_EXPENSES_FOR_GROUP.error();
             System.out.println("Error getting total expenses: " + e.getMessage());
             e.printStackTrace();
+        } finally {
+            GET_TOTAL_EXPENSES_FOR_GROUP.record(start);
         }
         
         return BigDecimal.ZERO;
@@ -204,26 +606,43 @@ public class ExpenseDAO {
      * @return the total amount of expenses paid by the user
      */
     public BigDecimal getTotalExpensesPaidByUser(String groupId, String username) {
-        String sql = "SELECT SUM(amount) FROM Expenses WHERE group_id = ? AND payer = ?";
-        
+        long start = System.nanoTime();
         try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+             PreparedStatement pstmt = conn.prepareStatement(GET_TOTAL_EXPENSES_PAID_BY_USER_SQL)) {
             
             pstmt.setString(1, groupId);
             pstmt.setString(2, username);
             
             try (ResultSet rs = pstmt.executeQuery()) {
                 if (rs.next()) {
-                    BigDecimal result = rs.getBigDecimal(1);
-                    return result != null ? result : BigDecimal.ZERO;
+                    return Money.ofCents(rs.getLong(1)).toBigDecimal();
                 }
             }
             
         } catch (SQLException e) {
+            GET_TOTAL_EXPENSES_PAID_BY_USER.error();
             System.out.println("Error getting total expenses paid by user: " + e.getMessage());
             e.printStackTrace();
+        } finally {
+            GET_TOTAL_EXPENSES_PAID_BY_USER.record(start);
         }
         
         return BigDecimal.ZERO;
     }
+    
+    /**
+     * Map the current row of a result set to an expense.
+     * 
+     * @param rs the result set, positioned on an Expenses row
+     * @return the expense
+     * @throws SQLException if a database access error occurs
+     */
+    static ExpenseDTO mapExpense(ResultSet rs) throws SQLException {
+        ExpenseDTO expense = new ExpenseDTO();
+        expense.setId(rs.getInt("expense_id"));
+        expense.setPayer(rs.getString("payer"));
+        expense.setMoney(Money.read(rs, "amount"));
+        expense.setDescription(rs.getString("description"));
+        return expense;
+    }
 }
\ No newline at end of file
@@ -10,8 +10,9 @@ public class ExpenseDTO implements Serializable {
     
     private static final long serialVersionUID = 1L;
     
+    private int id;
     private String payer;
-    private BigDecimal amount;
+    private Money amount;
     private String description;
     
     /**
@@ -29,12 +30,23 @@ public class ExpenseDTO implements Serializable {
      */
     public ExpenseDTO(String payer, BigDecimal amount, String description) {
         this.payer = payer;
-        this.amount = amount;
+        this.amount = amount == null ? null : Money.of(amount);
         this.description = description;
     }
     
     // Getters and Setters
     
+    /**
+     * Get the ID of the expense in the database, 0 if it was not read from it.
+     */
+    public int getId() {
+        return id;
+    }
+    
+    public void setId(int id) {
+        this.id = id;
+    }
+    
     public String getPayer() {
         return payer;
     }
@@ -44,10 +56,21 @@ public class ExpenseDTO implements Serializable {
     }
     
     public BigDecimal getAmount() {
-        return amount;
+        return amount == null ? null : amount.toBigDecimal();
     }
     
+    /**
+     * Set the amount, which must have at most two decimals, see {@link Money#of}.
+     */
     public void setAmount(BigDecimal amount) {
+        this.amount = amount == null ? null : Money.of(amount);
+    }
+    
+    public Money getMoney() {
+        return amount;
+    }
+    
+    public void setMoney(Money amount) {
         this.amount = amount;
     }
     
@@ -62,7 +85,8 @@ public class ExpenseDTO implements Serializable {
     @Override
     public String toString() {
         return "ExpenseDTO{" +
-                "payer='" + payer + '\'' +
+                "id=" + id +
+                ", payer='" + payer + '\'' +
                 ", amount=" + amount +
                 ", description='" + description + '\'' +
                 '}';
@@ -0,0 +1,240 @@
+package com.goodtricount.dto;
+
+import java.io.IOException;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+
+/**
+ * Data Access Object for the versions and change log of groups.
+ *
+ * <p>Every group has a version, 1 when it is created, and every write to its name, members,
+ * expenses or payments increments it and logs in GroupChanges what it wrote: the group itself, or
+ * the IDs of the expenses or payments. The DAOs do it with {@link #recordChanges} in the same
+ * transaction as the write, as they update GroupBalances through BalanceDAO. Incrementing the
+ * version locks the group row until the transaction ends, so the writes to a group commit in
+ * version order, and a client that has seen version N has seen every change up to N. Every writer
+ * records its changes before it updates GroupBalances, so the group row is always locked before
+ * the balance rows and concurrent writers cannot deadlock on them.</p>
+ *
+ * <p>A client holding a group at some version revalidates it with {@link #getVersion(String)},
+ * one primary key lookup, and fetches what changed with {@link #getChangesSince(String, long)}.
+ * The log records which rows changed, not how: a delta carries the current state of the rows
+ * that changed, and the IDs of those that no longer exist as deleted.</p>
+ */
+public class GroupChangeDAO {
+
+    /** Entity of a change to the name or members of a group, logged with ID 0. */
+    static final String GROUP = "group";
+    static final String EXPENSE = "expense";
+    static final String PAYMENT = "payment";
+
+    private static final LatencyHistogram GET_VERSION = Metrics.dao("GroupChangeDAO.getVersion");
+    private static final LatencyHistogram GET_CHANGES_SINCE = Metrics.dao("GroupChangeDAO.getChangesSince");
+
+    static final String GET_VERSION_SQL = "SELECT version FROM Groups WHERE id = ?";
+
+    static final String GET_CHANGES_SINCE_SQL =
+            "SELECT g.version, g.name, gc.changed, " +
+            "CASE WHEN gc.changed THEN (SELECT coalesce(json_agg(user_id), '[]') " +
+            "FROM GroupParticipants WHERE group_id = g.id) END AS participants, " +
+            "CASE WHEN gc.changed THEN (SELECT coalesce(json_agg(admin_id), '[]') " +
+            "FROM GroupAdmins WHERE group_id = g.id) END AS admins, " +
+            "(SELECT coalesce(json_agg(json_build_array(c.entity_id, e.payer, e.amount, e.description) " +
+            "ORDER BY c.entity_id), '[]') " +
+            "FROM (SELECT DISTINCT entity_id FROM GroupChanges " +
+            "WHERE group_id = g.id AND version > ? AND entity = 'expense') c " +
+            "LEFT JOIN Expenses e ON e.expense_id = c.entity_id) AS expenses, " +
+            "(SELECT coalesce(json_agg(json_build_array(c.entity_id, p.payer, p.receiver, p.amount, p.status, " +
+            "p.timestamp, p.confirmedTimestamp) ORDER BY c.entity_id), '[]') " +
+            "FROM (SELECT DISTINCT entity_id FROM GroupChanges " +
+            "WHERE group_id = g.id AND version > ? AND entity = 'payment') c " +
+            "LEFT JOIN Payments p ON p.payment_id = c.entity_id) AS payments " +
+            "FROM Groups g CROSS JOIN LATERAL (SELECT EXISTS (SELECT 1 FROM GroupChanges " +
+            "WHERE group_id = g.id AND version > ? AND entity = 'group') AS changed) gc " +
+            "WHERE g.id = ?";
+
+    static final String RECORD_SQL =
+            "WITH bumped AS (UPDATE Groups SET version = version + 1 WHERE id = ? RETURNING id, version), " +
+            "logged AS (INSERT INTO GroupChanges (group_id, version, entity, entity_id) " +
+            "SELECT id, version, ?, unnest(?::int[]) FROM bumped) " +
+            "SELECT version FROM bumped";
+
+    static final String LAST_EXPENSE_ID_SQL = "SELECT coalesce(max(expense_id), 0) FROM Expenses WHERE group_id = ?";
+    static final String LAST_PAYMENT_ID_SQL = "SELECT coalesce(max(payment_id), 0) FROM Payments WHERE group_id = ?";
+
+    static final String RECORD_INSERTED_EXPENSES_SQL =
+            "INSERT INTO GroupChanges (group_id, version, entity, entity_id) " +
+            "SELECT group_id, ?, 'expense', expense_id FROM Expenses WHERE group_id = ? AND expense_id > ?";
+
+    static final String RECORD_INSERTED_PAYMENTS_SQL =
+            "INSERT INTO GroupChanges (group_id, version, entity, entity_id) " +
+            "SELECT group_id, ?, 'payment', payment_id FROM Payments WHERE group_id = ? AND payment_id > ?";
+
+    /**
+     * Common table expressions that increment the version of the groups listed by a preceding one
+     * named {@code changed}, with a {@code group_id} column, and log a change of their members.
+     * For the statements that change members in one round trip.
+     */
+    static final String BUMP_CHANGED_GROUPS =
+            "bumped AS (UPDATE Groups SET version = version + 1 WHERE id IN (SELECT group_id FROM changed) " +
+            "RETURNING id, version), " +
+            "logged AS (INSERT INTO GroupChanges (group_id, version, entity, entity_id) " +
+            "SELECT id, version, 'group', 0 FROM bumped) ";
+
+    /**
+     * Get the current version of a group.
+     *
+     * @param groupId the ID of the group
+     * @return the version, or -1 if the group does not exist or on error
+     */
+    public long getVersion(String groupId) {
+        long start = System.nanoTime();
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(GET_VERSION_SQL)) {
+
+            pstmt.setString(1, groupId);
+
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getLong("version");
+                }
+            }
+
+        } catch (SQLException e) {
+            GET_VERSION.error();
+            System.out.println("Error getting group version: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            GET_VERSION.record(start);
+        }
+
+        return -1;
+    }
+
+    /**
+     * Get what changed in a group after a version, in one query and one snapshot.
+     * The name, participants and admins are included only if they changed; expenses and payments
+     * that changed are included as they are now, ordered by ID, and those deleted by ID only.
+     * If nothing changed, the result has no changes and its version equals {@code since}.
+     *
+     * @param groupId the ID of the group
+     * @param since the version the client has; 1 or more
+     * @return the changes, or null if the group does not exist or on error
+     */
+    public GroupChangesDTO getChangesSince(String groupId, long since) {
+        long start = System.nanoTime();
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(GET_CHANGES_SINCE_SQL)) {
+
+            pstmt.setLong(1, since);
+            pstmt.setLong(2, since);
+            pstmt.setLong(3, since);
+            pstmt.setString(4, groupId);
+
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (!rs.next()) {
+                    return null;
+                }
+
+                GroupChangesDTO changes = new GroupChangesDTO(groupId, since, rs.getLong("version"));
+                if (rs.getBoolean("changed")) {
+                    changes.setName(rs.getString("name"));
+                    changes.setParticipants(new ArrayList<>());
+                    changes.setAdmins(new ArrayList<>());
+                    GroupDAO.readStrings(rs.getString("participants"), changes.getParticipants());
+                    GroupDAO.readStrings(rs.getString("admins"), changes.getAdmins());
+                }
+                GroupDAO.readExpenses(rs.getString("expenses"), changes.getExpenses(), changes.getDeletedExpenses());
+                GroupDAO.readPayments(rs.getString("payments"), changes.getPayments(), changes.getDeletedPayments());
+                return changes;
+            }
+
+        } catch (SQLException | IOException | RuntimeException e) {
+            GET_CHANGES_SINCE.error();
+            System.out.println("Error getting group changes: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            GET_CHANGES_SINCE.record(start);
+        }
+
+        return null;
+    }
+
+    /**
+     * Increment the version of a group and log the entities written.
+     * Must run in the same transaction as the write; the group stays locked until it ends.
+     *
+     * @param conn the database connection
+     * @param groupId the ID of the group
+     * @param entity {@link #GROUP}, {@link #EXPENSE} or {@link #PAYMENT}
+     * @param entityIds the IDs of the expenses or payments, 0 for the group; none to only increment the version
+     * @return the new version, or -1 if the group does not exist
+     * @throws SQLException if a database access error occurs
+     */
+    static long recordChanges(Connection conn, String groupId, String entity, int... entityIds) throws SQLException {
+        Integer[] ids = new Integer[entityIds.length];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = entityIds[i];
+        }
+
+        Array array = conn.createArrayOf("integer", ids);
+        try (PreparedStatement pstmt = conn.prepareStatement(RECORD_SQL)) {
+            pstmt.setString(1, groupId);
+            pstmt.setString(2, entity);
+            pstmt.setArray(3, array);
+
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : -1;
+            }
+        } finally {
+            array.free();
+        }
+    }
+
+    /**
+     * Get the highest ID among the expenses or payments of a group, before a bulk insert whose
+     * IDs are not returned, such as {@code COPY}. Call it after {@link #recordChanges}, which
+     * keeps other writes to the group out until the transaction ends.
+     *
+     * @param conn the database connection
+     * @param groupId the ID of the group
+     * @param entity {@link #EXPENSE} or {@link #PAYMENT}
+     * @return the highest ID, or 0 if there are none
+     * @throws SQLException if a database access error occurs
+     */
+    static int lastId(Connection conn, String groupId, String entity) throws SQLException {
+        String sql = EXPENSE.equals(entity) ? LAST_EXPENSE_ID_SQL : LAST_PAYMENT_ID_SQL;
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setString(1, groupId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                rs.next();
+                return rs.getInt(1);
+            }
+        }
+    }
+
+    /**
+     * Log the expenses or payments of a group inserted after {@link #lastId}, as changed in a version.
+     *
+     * @param conn the database connection
+     * @param groupId the ID of the group
+     * @param version the version returned by {@link #recordChanges}
+     * @param entity {@link #EXPENSE} or {@link #PAYMENT}
+     * @param lastId the ID returned by {@link #lastId}
+     * @throws SQLException if a database access error occurs
+     */
+    static void recordInserted(Connection conn, String groupId, long version, String entity, int lastId)
+            throws SQLException {
+        String sql = EXPENSE.equals(entity) ? RECORD_INSERTED_EXPENSES_SQL : RECORD_INSERTED_PAYMENTS_SQL;
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setLong(1, version);
+            pstmt.setString(2, groupId);
+            pstmt.setInt(3, lastId);
+            pstmt.executeUpdate();
+        }
+    }
+}
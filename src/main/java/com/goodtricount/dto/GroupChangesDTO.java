@@ -0,0 +1,171 @@
+package com.goodtricount.dto;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Data Transfer Object for the changes of a group after a version, as returned by
+ * {@link GroupChangeDAO#getChangesSince(String, long)}.
+ */
+public class GroupChangesDTO implements Serializable {
+    
+    private static final long serialVersionUID = 1L;
+    
+    private String groupId;
+    private long since;
+    private long version;
+    private String name;
+    private List<String> participants;
+    private List<String> admins;
+    private List<ExpenseDTO> expenses;
+    private List<PaymentDTO> payments;
+    private List<Integer> deletedExpenses;
+    private List<Integer> deletedPayments;
+    
+    /**
+     * Default constructor
+     */
+    public GroupChangesDTO() {
+        this.expenses = new ArrayList<>();
+        this.payments = new ArrayList<>();
+        this.deletedExpenses = new ArrayList<>();
+        this.deletedPayments = new ArrayList<>();
+    }
+    
+    /**
+     * Constructor with essential fields
+     * 
+     * @param groupId the group ID
+     * @param since the version the changes start after
+     * @param version the version the changes lead to
+     */
+    public GroupChangesDTO(String groupId, long since, long version) {
+        this();
+        this.groupId = groupId;
+        this.since = since;
+        this.version = version;
+    }
+    
+    /**
+     * Check whether anything changed, i.e. whether the group is still at the version the changes start after.
+     * 
+     * @return true if the group changed
+     */
+    public boolean hasChanges() {
+        return version != since;
+    }
+    
+    // Getters and Setters
+    
+    public String getGroupId() {
+        return groupId;
+    }
+    
+    public void setGroupId(String groupId) {
+        this.groupId = groupId;
+    }
+    
+    public long getSince() {
+        return since;
+    }
+    
+    public void setSince(long since) {
+        this.since = since;
+    }
+    
+    public long getVersion() {
+        return version;
+    }
+    
+    public void setVersion(long version) {
+        this.version = version;
+    }
+    
+    /**
+     * Get the name of the group; null unless the name or members changed.
+     */
+    public String getName() {
+        return name;
+    }
+    
+    public void setName(String name) {
+        this.name = name;
+    }
+    
+    /**
+     * Get all the participants of the group; null unless the name or members changed.
+     */
+    public List<String> getParticipants() {
+        return participants;
+    }
+    
+    public void setParticipants(List<String> participants) {
+        this.participants = participants;
+    }
+    
+    /**
+     * Get all the admins of the group; null unless the name or members changed.
+     */
+    public List<String> getAdmins() {
+        return admins;
+    }
+    
+    public void setAdmins(List<String> admins) {
+        this.admins = admins;
+    }
+    
+    /**
+     * Get the expenses added or updated, as they are now.
+     */
+    public List<ExpenseDTO> getExpenses() {
+        return expenses;
+    }
+    
+    public void setExpenses(List<ExpenseDTO> expenses) {
+        this.expenses = expenses != null ? expenses : new ArrayList<>();
+    }
+    
+    /**
+     * Get the payments added or updated, as they are now.
+     */
+    public List<PaymentDTO> getPayments() {
+        return payments;
+    }
+    
+    public void setPayments(List<PaymentDTO> payments) {
+        this.payments = payments != null ? payments : new ArrayList<>();
+    }
+    
+    public List<Integer> getDeletedExpenses() {
+        return deletedExpenses;
+    }
+    
+    public void setDeletedExpenses(List<Integer> deletedExpenses) {
+        this.deletedExpenses = deletedExpenses != null ? deletedExpenses : new ArrayList<>();
+    }
+    
+    public List<Integer> getDeletedPayments() {
+        return deletedPayments;
+    }
+    
+    public void setDeletedPayments(List<Integer> deletedPayments) {
+        this.deletedPayments = deletedPayments != null ? deletedPayments : new ArrayList<>();
+    }
+    
+    @Override
+    public String toString() {
+        return "GroupChangesDTO{" +
+                "groupId='" + groupId + '\'' +
+                ", since=" + since +
+                ", version=" + version +
+                ", name='" + name + '\'' +
+                ", participants=" + participants +
+                ", admins=" + admins +
+                ", expenses=" + expenses +
+                ", payments=" + payments +
+                ", deletedExpenses=" + deletedExpenses +
+                ", deletedPayments=" + deletedPayments +
+                '}';
+    }
+}
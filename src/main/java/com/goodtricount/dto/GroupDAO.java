@@ -1,20 +1,113 @@
 package com.goodtricount.dto;
 
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.Writer;
+import java.sql.Array;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Data Access Object for Group entities.
  * Handles database operations for groups.
  */
 public class GroupDAO {
+
+    private static final LatencyHistogram INSERT_GROUP = Metrics.dao("GroupDAO.insertGroup");
+    private static final LatencyHistogram GET_GROUP_BY_ID = Metrics.dao("GroupDAO.getGroupById");
+    private static final LatencyHistogram GET_GROUP_DETAIL = Metrics.dao("GroupDAO.getGroupDetail");
+    private static final LatencyHistogram GET_ALL_GROUPS = Metrics.dao("GroupDAO.getAllGroups");
+    private static final LatencyHistogram GET_GROUPS_FOR_USER = Metrics.dao("GroupDAO.getGroupsForUser");
+    private static final LatencyHistogram UPDATE_GROUP = Metrics.dao("GroupDAO.updateGroup");
+    private static final LatencyHistogram DELETE_GROUP = Metrics.dao("GroupDAO.deleteGroup");
+    private static final LatencyHistogram ADD_PARTICIPANT = Metrics.dao("GroupDAO.addParticipant");
+    private static final LatencyHistogram ADD_ADMIN = Metrics.dao("GroupDAO.addAdmin");
+    private static final LatencyHistogram LOAD_MEMBERSHIP = Metrics.dao("GroupDAO.loadMembership");
+    private static final LatencyHistogram EXPORT_GROUP = Metrics.dao("GroupDAO.exportGroup");
+
+    private static final int EXPORT_FETCH_SIZE = 1000;
+
+    /** Participants and admins by group, for {@link #isParticipant} and {@link #isAdmin}. */
+    static final MembershipCache MEMBERSHIPS = MembershipCache.fromEnvironment();
+
+    static final String GET_GROUP_BY_ID_SQL = "SELECT * FROM Groups WHERE id = ?";
+
+    static final String GET_GROUP_DETAIL_SQL =
+            "SELECT g.name, g.version, " +
+            "(SELECT coalesce(json_agg(user_id), '[]') FROM GroupParticipants WHERE group_id = g.id) AS participants, " +
+            "(SELECT coalesce(json_agg(admin_id), '[]') FROM GroupAdmins WHERE group_id = g.id) AS admins, " +
+            "(SELECT coalesce(json_agg(json_build_array(expense_id, payer, amount, description) ORDER BY expense_id), '[]') " +
+            "FROM Expenses WHERE group_id = g.id) AS expenses, " +
+            "(SELECT coalesce(json_agg(json_build_array(payment_id, payer, receiver, amount, status, timestamp, " +
+            "confirmedTimestamp) ORDER BY payment_id), '[]') FROM Payments WHERE group_id = g.id) AS payments " +
+            "FROM Groups g WHERE g.id = ?";
+
+    static final String GET_PARTICIPANTS_SQL = "SELECT user_id FROM GroupParticipants WHERE group_id = ?";
+
+    static final String GET_ADMINS_SQL = "SELECT admin_id FROM GroupAdmins WHERE group_id = ?";
+
+    static final String GET_GROUPS_FOR_USER_SQL =
+            "SELECT g.* FROM Groups g " +
+            "JOIN GroupParticipants gp ON g.id = gp.group_id " +
+            "WHERE gp.user_id = ?";
+
+    static final String LOAD_PARTICIPANTS_SQL =
+            "SELECT group_id, user_id FROM GroupParticipants WHERE group_id = ANY(?)";
+
+    static final String LOAD_ADMINS_SQL = "SELECT group_id, admin_id FROM GroupAdmins WHERE group_id = ANY(?)";
+
+    static final String LOAD_EXPENSES_SQL = "SELECT * FROM Expenses WHERE group_id = ANY(?) ORDER BY expense_id";
+
+    static final String LOAD_PAYMENTS_SQL = "SELECT * FROM Payments WHERE group_id = ANY(?) ORDER BY payment_id";
+
+    static final String LOCK_GROUP_SQL = "SELECT name FROM Groups WHERE id = ? FOR UPDATE";
+
+    static final String UPDATE_GROUP_SQL = "UPDATE Groups SET name = ? WHERE id = ?";
+
+    static final String DELETE_PARTICIPANTS_SQL =
+            "DELETE FROM GroupParticipants WHERE group_id = ? AND user_id = ANY(?)";
+
+    static final String DELETE_ADMINS_SQL = "DELETE FROM GroupAdmins WHERE group_id = ? AND admin_id = ANY(?)";
+
+    static final String DELETE_GROUP_SQL = "DELETE FROM Groups WHERE id = ?";
+
+    static final String ADD_PARTICIPANT_SQL =
+            "WITH changed AS (" +
+            "INSERT INTO GroupParticipants (group_id, user_id) VALUES (?, ?) RETURNING group_id), " +
+            GroupChangeDAO.BUMP_CHANGED_GROUPS +
+            "SELECT count(*) FROM changed";
+
+    static final String ADD_ADMIN_SQL =
+            "WITH participant AS (" +
+            "INSERT INTO GroupParticipants (group_id, user_id) VALUES (?, ?) ON CONFLICT DO NOTHING), " +
+            "changed AS (" +
+            "INSERT INTO GroupAdmins (group_id, admin_id) VALUES (?, ?) ON CONFLICT DO NOTHING RETURNING group_id), " +
+            GroupChangeDAO.BUMP_CHANGED_GROUPS +
+            "SELECT count(*) FROM changed";
+
+    static final String LOAD_MEMBERSHIP_SQL =
+            "SELECT user_id, false AS admin FROM GroupParticipants WHERE group_id = ? " +
+            "UNION ALL SELECT admin_id, true FROM GroupAdmins WHERE group_id = ?";
     
     /**
      * Insert a new group into the database.
+     * The group, its participants and its admins are inserted in a single transaction.
      * 
      * @param group the group to insert
      * @return true if the group was inserted successfully, false otherwise
@@ -22,69 +115,86 @@ public class GroupDAO {
     public boolean insertGroup(GroupDTO group) {
         String sql = "INSERT INTO Groups (id, name) VALUES (?, ?)";
         
-        try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            
-            pstmt.setString(1, group.getId());
-            pstmt.setString(2, group.getName());
-            
-            int rowsAffected = pstmt.executeUpdate();
-            
-            // If the group was inserted successfully, insert participants and admins
-            if (rowsAffected > 0) {
-                insertParticipants(group.getId(), group.getParticipants(), conn);
-                insertAdmins(group.getId(), group.getAdmins(), conn);
+        long start = System.nanoTime();
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            conn.setAutoCommit(false);
+            
+            try {
+                try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                    pstmt.setString(1, group.getId());
+                    pstmt.setString(2, group.getName());
+                    pstmt.executeUpdate();
+                }
+                
+                insertParticipants(group.getId(), new LinkedHashSet<>(group.getParticipants()), conn);
+                insertAdmins(group.getId(), new LinkedHashSet<>(group.getAdmins()), conn);
+                
+                conn.commit();
                 return true;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
             }
             
-            return false;
-            
         } catch (SQLException e) {
+            INSERT_GROUP.error();
             System.out.println("Error inserting group: " + e.getMessage());
             e.printStackTrace();
             return false;
+        } finally {
+            MEMBERSHIPS.invalidate(group.getId());
+            INSERT_GROUP.record(start);
         }
     }
     
     /**
-     * Insert participants for a group.
+     * Insert participants for a group, in one statement.
      * 
      * @param groupId the ID of the group
-     * @param participants the list of participant usernames
+     * @param participants the participant usernames
      * @param conn the database connection
      * @throws SQLException if a database access error occurs
      */
-    private void insertParticipants(String groupId, List<String> participants, Connection conn) throws SQLException {
-        String sql = "INSERT INTO GroupParticipants (group_id, user_id) VALUES (?, ?)";
-        
-        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            for (String participant : participants) {
-                pstmt.setString(1, groupId);
-                pstmt.setString(2, participant);
-                pstmt.addBatch();
-            }
-            pstmt.executeBatch();
-        }
+    private void insertParticipants(String groupId, Collection<String> participants, Connection conn) throws SQLException {
+        String sql = "INSERT INTO GroupParticipants (group_id, user_id) SELECT ?, unnest(?::varchar[])";
+        executeForMembers(sql, groupId, participants, conn);
+    }
+    
+    /**
+     * Insert admins for a group, in one statement.
+     * 
+     * @param groupId the ID of the group
+     * @param admins the admin usernames
+     * @param conn the database connection
+     * @throws SQLException if a database access error occurs
+     */
+    private void insertAdmins(String groupId, Collection<String> admins, Connection conn) throws SQLException {
+        String sql = "INSERT INTO GroupAdmins (group_id, admin_id) SELECT ?, unnest(?::varchar[])";
+        executeForMembers(sql, groupId, admins, conn);
     }
     
     /**
-     * Insert admins for a group.
+     * Run a statement taking a group ID and an array of usernames, unless there are no usernames.
      * 
+     * @param sql the statement
      * @param groupId the ID of the group
-     * @param admins the list of admin usernames
+     * @param usernames the usernames
      * @param conn the database connection
      * @throws SQLException if a database access error occurs
      */
-    private void insertAdmins(String groupId, List<String> admins, Connection conn) throws SQLException {
-        String sql = "INSERT INTO GroupAdmins (group_id, admin_id) VALUES (?, ?)";
+    private void executeForMembers(String sql, String groupId, Collection<String> usernames, Connection conn)
+            throws SQLException {
+        if (usernames.isEmpty()) {
+            return;
+        }
         
+        Array array = conn.createArrayOf("varchar", usernames.toArray());
         try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            for (String admin : admins) {
-                pstmt.setString(1, groupId);
-                pstmt.setString(2, admin);
-                pstmt.addBatch();
-            }
-            pstmt.executeBatch();
+            pstmt.setString(1, groupId);
+            pstmt.setArray(2, array);
+            pstmt.executeUpdate();
+        } finally {
+            array.free();
         }
     }
     
@@ -95,10 +205,9 @@ public class GroupDAO {
      * @return the group, or null if not found
      */
     public GroupDTO getGroupById(String groupId) {
-        String sql = "SELECT * FROM Groups WHERE id = ?";
-        
+        long start = System.nanoTime();
         try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+             PreparedStatement pstmt = conn.prepareStatement(GET_GROUP_BY_ID_SQL)) {
             
             pstmt.setString(1, groupId);
             
@@ -114,21 +223,155 @@ public class GroupDAO {
                     // Get admins
                     group.setAdmins(getAdmins(groupId, conn));
                     
-                    // Get expenses (would be implemented in ExpenseDAO)
-                    // Get payments (would be implemented in PaymentDAO)
+                    // Expenses and payments are loaded through ExpenseDAO and PaymentDAO,
+                    // or together with the members by getGroupsForUser(username, true)
                     
                     return group;
                 }
             }
             
         } catch (SQLException e) {
+            GET_GROUP_BY_ID.error();
             System.out.println("Error getting group: " + e.getMessage());
             e.printStackTrace();
+        } finally {
+            GET_GROUP_BY_ID.record(start);
         }
         
         return null;
     }
     
+    /**
+     * Get a group with its version, participants, admins, expenses and payments in one round trip.
+     * A single statement aggregates the members and the ledger into JSON arrays on the server,
+     * so the whole group comes back as one row, read from one snapshot; loading the same with
+     * {@link #getGroupById(String)} and the expense and payment DAOs takes five queries.
+     * Expenses and payments are in insertion order.
+     * 
+     * @param groupId the ID of the group to get
+     * @return the group, or null if not found
+     */
+    public GroupDTO getGroupDetail(String groupId) {
+        long start = System.nanoTime();
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(GET_GROUP_DETAIL_SQL)) {
+            
+            pstmt.setString(1, groupId);
+            
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    GroupDTO group = new GroupDTO(groupId, rs.getString("name"));
+                    group.setVersion(rs.getLong("version"));
+                    readStrings(rs.getString("participants"), group.getParticipants());
+                    readStrings(rs.getString("admins"), group.getAdmins());
+                    readExpenses(rs.getString("expenses"), group.getExpenses(), null);
+                    readPayments(rs.getString("payments"), group.getPayments(), null);
+                    return group;
+                }
+            }
+            
+        } catch (SQLException | IOException | RuntimeException e) {
+            GET_GROUP_DETAIL.error();
+            System.out.println("Error getting group detail: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            GET_GROUP_DETAIL.record(start);
+        }
+        
+        return null;
+    }
+    
+    /**
+     * Read a JSON array of strings.
+     */
+    static void readStrings(String json, List<String> into) throws IOException {
+        try (JsonReader in = new JsonReader(new StringReader(json))) {
+            in.beginArray();
+            while (in.hasNext()) {
+                into.add(in.nextString());
+            }
+            in.endArray();
+        }
+    }
+    
+    /**
+     * Read a JSON array of [id, payer, amount, description] arrays. A null payer stands for an
+     * expense that no longer exists, whose ID goes to {@code deleted}.
+     */
+    static void readExpenses(String json, List<ExpenseDTO> into, List<Integer> deleted) throws IOException {
+        try (JsonReader in = new JsonReader(new StringReader(json))) {
+            in.beginArray();
+            while (in.hasNext()) {
+                in.beginArray();
+                int id = in.nextInt();
+                String payer = nextNullableString(in);
+                if (payer == null) {
+                    skipRest(in);
+                    deleted.add(id);
+                    continue;
+                }
+                ExpenseDTO expense = new ExpenseDTO();
+                expense.setId(id);
+                expense.setPayer(payer);
+                expense.setMoney(Money.ofCents(in.nextLong()));
+                expense.setDescription(nextNullableString(in));
+                in.endArray();
+                into.add(expense);
+            }
+            in.endArray();
+        }
+    }
+    
+    /**
+     * Read a JSON array of [id, payer, receiver, amount, status, timestamp, confirmedTimestamp] arrays.
+     * PostgreSQL writes timestamps in ISO 8601, as LocalDateTime parses them. A null payer stands
+     * for a payment that no longer exists, whose ID goes to {@code deleted}.
+     */
+    static void readPayments(String json, List<PaymentDTO> into, List<Integer> deleted) throws IOException {
+        try (JsonReader in = new JsonReader(new StringReader(json))) {
+            in.beginArray();
+            while (in.hasNext()) {
+                in.beginArray();
+                int id = in.nextInt();
+                String payer = nextNullableString(in);
+                if (payer == null) {
+                    skipRest(in);
+                    deleted.add(id);
+                    continue;
+                }
+                PaymentDTO payment = new PaymentDTO();
+                payment.setId(id);
+                payment.setPayer(payer);
+                payment.setReceiver(in.nextString());
+                payment.setMoney(Money.ofCents(in.nextLong()));
+                payment.setStatus(in.nextString());
+                payment.setTimestamp(LocalDateTime.parse(in.nextString()));
+                String confirmed = nextNullableString(in);
+                if (confirmed != null) {
+                    payment.setConfirmedTimestamp(LocalDateTime.parse(confirmed));
+                }
+                in.endArray();
+                into.add(payment);
+            }
+            in.endArray();
+        }
+    }
+    
+    private static void skipRest(JsonReader in) throws IOException {
+        while (in.hasNext()) {
+            in.skipValue();
+        }
+        in.endArray();
+    }
+    
+    private static String nextNullableString(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        return in.nextString();
+    }
+    
     /**
      * Get participants for a group.
      * 
@@ -139,9 +382,8 @@ public class GroupDAO {
      */
     private List<String> getParticipants(String groupId, Connection conn) throws SQLException {
         List<String> participants = new ArrayList<>();
-        String sql = "SELECT user_id FROM GroupParticipants WHERE group_id = ?";
         
-        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+        try (PreparedStatement pstmt = conn.prepareStatement(GET_PARTICIPANTS_SQL)) {
             pstmt.setString(1, groupId);
             
             try (ResultSet rs = pstmt.executeQuery()) {
@@ -164,9 +406,8 @@ public class GroupDAO {
      */
     private List<String> getAdmins(String groupId, Connection conn) throws SQLException {
         List<String> admins = new ArrayList<>();
-        String sql = "SELECT admin_id FROM GroupAdmins WHERE group_id = ?";
         
-        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+        try (PreparedStatement pstmt = conn.prepareStatement(GET_ADMINS_SQL)) {
             pstmt.setString(1, groupId);
             
             try (ResultSet rs = pstmt.executeQuery()) {
@@ -185,38 +426,33 @@ public class GroupDAO {
      * @return a list of all groups
      */
     public List<GroupDTO> getAllGroups() {
-        List<GroupDTO> groups = new ArrayList<>();
+        return getAllGroups(false);
+    }
+    
+    /**
+     * Get all groups from the database.
+     * 
+     * @param includeLedger true to also load the expenses and payments of each group
+     * @return a list of all groups
+     */
+    public List<GroupDTO> getAllGroups(boolean includeLedger) {
         String sql = "SELECT * FROM Groups";
         
+        long start = System.nanoTime();
         try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql);
-             ResultSet rs = pstmt.executeQuery()) {
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
             
-            while (rs.next()) {
-                String groupId = rs.getString("id");
-                
-                GroupDTO group = new GroupDTO();
-                group.setId(groupId);
-                group.setName(rs.getString("name"));
-                
-                // Get participants
-                group.setParticipants(getParticipants(groupId, conn));
-                
-                // Get admins
-                group.setAdmins(getAdmins(groupId, conn));
-                
-                // Get expenses (would be implemented in ExpenseDAO)
-                // Get payments (would be implemented in PaymentDAO)
-                
-                groups.add(group);
-            }
+            return loadGroups(pstmt, includeLedger, conn);
             
         } catch (SQLException e) {
+            GET_ALL_GROUPS.error();
             System.out.println("Error getting all groups: " + e.getMessage());
             e.printStackTrace();
+        } finally {
+            GET_ALL_GROUPS.record(start);
         }
         
-        return groups;
+        return new ArrayList<>();
     }
     
     /**
@@ -226,114 +462,326 @@ public class GroupDAO {
      * @return a list of groups the user is a participant in
      */
     public List<GroupDTO> getGroupsForUser(String username) {
-        List<GroupDTO> groups = new ArrayList<>();
-        String sql = "SELECT g.* FROM Groups g " +
-                     "JOIN GroupParticipants gp ON g.id = gp.group_id " +
-                     "WHERE gp.user_id = ?";
-        
+        return getGroupsForUser(username, false);
+    }
+    
+    /**
+     * Get groups for a user.
+     * 
+     * @param username the username of the user
+     * @param includeLedger true to also load the expenses and payments of each group
+     * @return a list of groups the user is a participant in
+     */
+    public List<GroupDTO> getGroupsForUser(String username, boolean includeLedger) {
+        long start = System.nanoTime();
         try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+             PreparedStatement pstmt = conn.prepareStatement(GET_GROUPS_FOR_USER_SQL)) {
             
             pstmt.setString(1, username);
             
-            try (ResultSet rs = pstmt.executeQuery()) {
+            return loadGroups(pstmt, includeLedger, conn);
+            
+        } catch (SQLException e) {
+            GET_GROUPS_FOR_USER.error();
+            System.out.println("Error getting groups for user: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            GET_GROUPS_FOR_USER.record(start);
+        }
+        
+        return new ArrayList<>();
+    }
+    
+    /**
+     * Run a query returning Groups rows and load the members (and optionally the ledger)
+     * of all the returned groups with one query per child table.
+     * 
+     * @param pstmt the prepared query over the Groups table
+     * @param includeLedger true to also load expenses and payments
+     * @param conn the database connection
+     * @return the fully assembled groups, in the order returned by the query
+     * @throws SQLException if a database access error occurs
+     */
+    private List<GroupDTO> loadGroups(PreparedStatement pstmt, boolean includeLedger, Connection conn) throws SQLException {
+        Map<String, GroupDTO> groups = new LinkedHashMap<>();
+        
+        try (ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                GroupDTO group = new GroupDTO();
+                group.setId(rs.getString("id"));
+                group.setName(rs.getString("name"));
+                groups.put(group.getId(), group);
+            }
+        }
+        
+        if (groups.isEmpty()) {
+            return new ArrayList<>();
+        }
+        
+        Array groupIds = conn.createArrayOf("varchar", groups.keySet().toArray());
+        try {
+            try (PreparedStatement stmt = conn.prepareStatement(LOAD_PARTICIPANTS_SQL)) {
+                stmt.setArray(1, groupIds);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        groups.get(rs.getString("group_id")).getParticipants().add(rs.getString("user_id"));
+                    }
+                }
+            }
+            
+            try (PreparedStatement stmt = conn.prepareStatement(LOAD_ADMINS_SQL)) {
+                stmt.setArray(1, groupIds);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        groups.get(rs.getString("group_id")).getAdmins().add(rs.getString("admin_id"));
+                    }
+                }
+            }
+            
+            if (includeLedger) {
+                try (PreparedStatement stmt = conn.prepareStatement(LOAD_EXPENSES_SQL)) {
+                    stmt.setArray(1, groupIds);
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        while (rs.next()) {
+                            groups.get(rs.getString("group_id")).getExpenses().add(ExpenseDAO.mapExpense(rs));
+                        }
+                    }
+                }
+                
+                try (PreparedStatement stmt = conn.prepareStatement(LOAD_PAYMENTS_SQL)) {
+                    stmt.setArray(1, groupIds);
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        while (rs.next()) {
+                            groups.get(rs.getString("group_id")).getPayments().add(PaymentDAO.mapPayment(rs));
+                        }
+                    }
+                }
+            }
+        } finally {
+            groupIds.free();
+        }
+        
+        return new ArrayList<>(groups.values());
+    }
+    
+    /**
+     * Write a group with its participants, admins, expenses and payments as JSON.
+     * Rows are streamed from forward-only cursors straight to the writer, {@value #EXPORT_FETCH_SIZE}
+     * at a time, so memory use does not depend on the size of the group. All the rows are read
+     * from the same snapshot, and the statement timeout is lifted for the export.
+     * 
+     * @param groupId the ID of the group to export
+     * @param out the writer to write to; it is flushed but not closed
+     * @return true if the group was exported, false if it does not exist
+     * @throws IOException if writing fails or the group cannot be read; the output is then incomplete
+     */
+    public boolean exportGroup(String groupId, Writer out) throws IOException {
+        long start = System.nanoTime();
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            // Cursors are only used inside a transaction
+            conn.setAutoCommit(false);
+            
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("SET TRANSACTION ISOLATION LEVEL REPEATABLE READ READ ONLY");
+                stmt.execute("SET LOCAL statement_timeout = 0");
+            }
+            
+            String name;
+            try (PreparedStatement pstmt = conn.prepareStatement("SELECT name FROM Groups WHERE id = ?")) {
+                pstmt.setString(1, groupId);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (!rs.next()) {
+                        return false;
+                    }
+                    name = rs.getString("name");
+                }
+            }
+            
+            JsonWriter json = new JsonWriter(out);
+            json.beginObject();
+            json.name("id").value(groupId);
+            json.name("name").value(name);
+            
+            json.name("participants").beginArray();
+            for (String participant : getParticipants(groupId, conn)) {
+                json.value(participant);
+            }
+            json.endArray();
+            
+            json.name("admins").beginArray();
+            for (String admin : getAdmins(groupId, conn)) {
+                json.value(admin);
+            }
+            json.endArray();
+            
+            json.name("expenses").beginArray();
+            try (PreparedStatement pstmt = prepareCursor(conn,
+                    "SELECT payer, amount, description FROM Expenses WHERE group_id = ? ORDER BY expense_id", groupId);
+                 ResultSet rs = pstmt.executeQuery()) {
                 while (rs.next()) {
-                    String groupId = rs.getString("id");
-                    
-                    GroupDTO group = new GroupDTO();
-                    group.setId(groupId);
-                    group.setName(rs.getString("name"));
-                    
-                    // Get participants
-                    group.setParticipants(getParticipants(groupId, conn));
-                    
-                    // Get admins
-                    group.setAdmins(getAdmins(groupId, conn));
-                    
-                    // Get expenses (would be implemented in ExpenseDAO)
-                    // Get payments (would be implemented in PaymentDAO)
-                    
-                    groups.add(group);
+                    json.beginObject();
+                    json.name("payer").value(rs.getString("payer"));
+                    json.name("amount").jsonValue(Money.format(rs.getLong("amount")));
+                    json.name("description").value(rs.getString("description"));
+                    json.endObject();
                 }
             }
+            json.endArray();
+            
+            json.name("payments").beginArray();
+            try (PreparedStatement pstmt = prepareCursor(conn,
+                    "SELECT payer, receiver, amount, status, timestamp, confirmedTimestamp FROM Payments " +
+                    "WHERE group_id = ? ORDER BY timestamp, payment_id", groupId);
+                 ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    LocalDateTime confirmed = rs.getObject("confirmedTimestamp", LocalDateTime.class);
+                    json.beginObject();
+                    json.name("payer").value(rs.getString("payer"));
+                    json.name("receiver").value(rs.getString("receiver"));
+                    json.name("amount").jsonValue(Money.format(rs.getLong("amount")));
+                    json.name("status").value(rs.getString("status"));
+                    json.name("timestamp").value(rs.getObject("timestamp", LocalDateTime.class).toString());
+                    json.name("confirmedTimestamp").value(confirmed == null ? null : confirmed.toString());
+                    json.endObject();
+                }
+            }
+            json.endArray();
+            
+            json.endObject();
+            json.flush();
+            
+            conn.commit();
+            return true;
             
         } catch (SQLException e) {
-            System.out.println("Error getting groups for user: " + e.getMessage());
+            EXPORT_GROUP.error();
+            System.out.println("Error exporting group: " + e.getMessage());
             e.printStackTrace();
+            throw new IOException("Error exporting group " + groupId, e);
+        } catch (IOException e) {
+            EXPORT_GROUP.error();
+            throw e;
+        } finally {
+            EXPORT_GROUP.record(start);
         }
-        
-        return groups;
+    }
+    
+    /**
+     * Prepare a forward-only query taking a group ID that fetches its rows in batches.
+     * 
+     * @param conn the database connection, not in auto-commit mode
+     * @param sql the query
+     * @param groupId the ID of the group
+     * @return the statement
+     * @throws SQLException if a database access error occurs
+     */
+    private PreparedStatement prepareCursor(Connection conn, String sql, String groupId) throws SQLException {
+        PreparedStatement pstmt = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        pstmt.setFetchSize(EXPORT_FETCH_SIZE);
+        pstmt.setString(1, groupId);
+        return pstmt;
     }
     
     /**
      * Update a group in the database.
+     * Runs in a single transaction that locks the group row. Participants and admins are
+     * compared with the stored ones and only the removed and added rows are written, with
+     * one statement per table and kind of change; an unchanged name is not rewritten.
+     * If anything changed, the version of the group is incremented.
      * 
      * @param group the group to update
      * @return true if the group was updated successfully, false otherwise
      */
     public boolean updateGroup(GroupDTO group) {
-        String sql = "UPDATE Groups SET name = ? WHERE id = ?";
-        
-        try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            
-            pstmt.setString(1, group.getName());
-            pstmt.setString(2, group.getId());
-            
-            int rowsAffected = pstmt.executeUpdate();
-            
-            // If the group was updated successfully, update participants and admins
-            if (rowsAffected > 0) {
-                // Delete existing participants and admins
-                deleteParticipants(group.getId(), conn);
-                deleteAdmins(group.getId(), conn);
+        long start = System.nanoTime();
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            conn.setAutoCommit(false);
+            
+            try {
+                String currentName;
+                try (PreparedStatement pstmt = conn.prepareStatement(LOCK_GROUP_SQL)) {
+                    pstmt.setString(1, group.getId());
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        if (!rs.next()) {
+                            conn.rollback();
+                            return false;
+                        }
+                        currentName = rs.getString("name");
+                    }
+                }
                 
-                // Insert new participants and admins
-                insertParticipants(group.getId(), group.getParticipants(), conn);
-                insertAdmins(group.getId(), group.getAdmins(), conn);
+                boolean renamed = !currentName.equals(group.getName());
+                if (renamed) {
+                    try (PreparedStatement pstmt = conn.prepareStatement(UPDATE_GROUP_SQL)) {
+                        pstmt.setString(1, group.getName());
+                        pstmt.setString(2, group.getId());
+                        pstmt.executeUpdate();
+                    }
+                }
+                
+                Set<String> participants = new LinkedHashSet<>(group.getParticipants());
+                Set<String> admins = new LinkedHashSet<>(group.getAdmins());
+                Set<String> currentParticipants = new HashSet<>(getParticipants(group.getId(), conn));
+                Set<String> currentAdmins = new HashSet<>(getAdmins(group.getId(), conn));
+                
+                deleteAdmins(group.getId(), difference(currentAdmins, admins), conn);
+                deleteParticipants(group.getId(), difference(currentParticipants, participants), conn);
+                insertParticipants(group.getId(), difference(participants, currentParticipants), conn);
+                insertAdmins(group.getId(), difference(admins, currentAdmins), conn);
+                
+                if (renamed || !participants.equals(currentParticipants) || !admins.equals(currentAdmins)) {
+                    GroupChangeDAO.recordChanges(conn, group.getId(), GroupChangeDAO.GROUP, 0);
+                }
                 
+                conn.commit();
                 return true;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
             }
             
-            return false;
-            
         } catch (SQLException e) {
+            UPDATE_GROUP.error();
             System.out.println("Error updating group: " + e.getMessage());
             e.printStackTrace();
             return false;
+        } finally {
+            MEMBERSHIPS.invalidate(group.getId());
+            UPDATE_GROUP.record(start);
         }
     }
     
     /**
-     * Delete participants for a group.
+     * Get the elements of a set that are not in another one, keeping their order.
+     */
+    private static Set<String> difference(Set<String> from, Set<String> remove) {
+        Set<String> result = new LinkedHashSet<>(from);
+        result.removeAll(remove);
+        return result;
+    }
+    
+    /**
+     * Delete some participants of a group, in one statement.
      * 
      * @param groupId the ID of the group
+     * @param participants the participant usernames to remove
      * @param conn the database connection
      * @throws SQLException if a database access error occurs
      */
-    private void deleteParticipants(String groupId, Connection conn) throws SQLException {
-        String sql = "DELETE FROM GroupParticipants WHERE group_id = ?";
-        
-        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setString(1, groupId);
-            pstmt.executeUpdate();
-        }
+    private void deleteParticipants(String groupId, Collection<String> participants, Connection conn) throws SQLException {
+        executeForMembers(DELETE_PARTICIPANTS_SQL, groupId, participants, conn);
     }
     
     /**
-     * Delete admins for a group.
+     * Delete some admins of a group, in one statement.
      * 
      * @param groupId the ID of the group
+     * @param admins the admin usernames to remove
      * @param conn the database connection
      * @throws SQLException if a database access error occurs
      */
-    private void deleteAdmins(String groupId, Connection conn) throws SQLException {
-        String sql = "DELETE FROM GroupAdmins WHERE group_id = ?";
-        
-        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setString(1, groupId);
-            pstmt.executeUpdate();
-        }
+    private void deleteAdmins(String groupId, Collection<String> admins, Connection conn) throws SQLException {
+        executeForMembers(DELETE_ADMINS_SQL, groupId, admins, conn);
     }
     
     /**
@@ -343,10 +791,9 @@ public class GroupDAO {
      * @return true if the group was deleted successfully, false otherwise
      */
     public boolean deleteGroup(String groupId) {
-        String sql = "DELETE FROM Groups WHERE id = ?";
-        
+        long start = System.nanoTime();
         try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+             PreparedStatement pstmt = conn.prepareStatement(DELETE_GROUP_SQL)) {
             
             pstmt.setString(1, groupId);
             
@@ -354,126 +801,146 @@ public class GroupDAO {
             return rowsAffected > 0;
             
         } catch (SQLException e) {
+            DELETE_GROUP.error();
             System.out.println("Error deleting group: " + e.getMessage());
             e.printStackTrace();
             return false;
+        } finally {
+            MEMBERSHIPS.invalidate(groupId);
+            DELETE_GROUP.record(start);
         }
     }
     
     /**
      * Add a participant to a group.
+     * The participant is added and the version of the group incremented by a single statement.
      * 
      * @param groupId the ID of the group
      * @param username the username of the participant to add
      * @return true if the participant was added successfully, false otherwise
      */
     public boolean addParticipant(String groupId, String username) {
-        String sql = "INSERT INTO GroupParticipants (group_id, user_id) VALUES (?, ?)";
-        
+        long start = System.nanoTime();
         try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+             PreparedStatement pstmt = conn.prepareStatement(ADD_PARTICIPANT_SQL)) {
             
             pstmt.setString(1, groupId);
             pstmt.setString(2, username);
             
-            int rowsAffected = pstmt.executeUpdate();
-            return rowsAffected > 0;
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() && rs.getInt(1) > 0;
+            }
             
         } catch (SQLException e) {
+            ADD_PARTICIPANT.error();
             System.out.println("Error adding participant: " + e.getMessage());
             e.printStackTrace();
             return false;
+        } finally {
+            MEMBERSHIPS.invalidate(groupId);
+            ADD_PARTICIPANT.record(start);
         }
     }
     
     /**
-     * Add an admin to a group.
+     * Add an admin to a group, who is made a participant too if needed.
+     * Both rows are written, and the version of the group incremented, by a single statement,
+     * so they are added atomically in one round trip.
      * 
      * @param groupId the ID of the group
      * @param username the username of the admin to add
-     * @return true if the admin was added successfully, false otherwise
+     * @return true if the admin was added successfully, false if already an admin or on error
      */
     public boolean addAdmin(String groupId, String username) {
-        // First, ensure the user is a participant
-        if (!isParticipant(groupId, username)) {
-            addParticipant(groupId, username);
-        }
-        
-        String sql = "INSERT INTO GroupAdmins (group_id, admin_id) VALUES (?, ?)";
-        
+        long start = System.nanoTime();
         try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+             PreparedStatement pstmt = conn.prepareStatement(ADD_ADMIN_SQL)) {
             
             pstmt.setString(1, groupId);
             pstmt.setString(2, username);
+            pstmt.setString(3, groupId);
+            pstmt.setString(4, username);
             
-            int rowsAffected = pstmt.executeUpdate();
-            return rowsAffected > 0;
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() && rs.getInt(1) > 0;
+            }
             
         } catch (SQLException e) {
+            ADD_ADMIN.error();
             System.out.println("Error adding admin: " + e.getMessage());
             e.printStackTrace();
             return false;
+        } finally {
+            MEMBERSHIPS.invalidate(groupId);
+            ADD_ADMIN.record(start);
         }
     }
     
     /**
      * Check if a user is a participant in a group.
+     * Memberships are served from a shared {@link MembershipCache} and only loaded from the database on a miss.
      * 
      * @param groupId the ID of the group
      * @param username the username of the user
      * @return true if the user is a participant, false otherwise
      */
     public boolean isParticipant(String groupId, String username) {
-        String sql = "SELECT COUNT(*) FROM GroupParticipants WHERE group_id = ? AND user_id = ?";
-        
-        try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            
-            pstmt.setString(1, groupId);
-            pstmt.setString(2, username);
-            
-            try (ResultSet rs = pstmt.executeQuery()) {
-                if (rs.next()) {
-                    return rs.getInt(1) > 0;
-                }
-            }
-            
-        } catch (SQLException e) {
-            System.out.println("Error checking if user is participant: " + e.getMessage());
-            e.printStackTrace();
-        }
-        
-        return false;
+        MembershipCache.Membership membership = getMembership(groupId);
+        return membership != null && membership.isParticipant(username);
     }
     
     /**
      * Check if a user is an admin in a group.
+     * Memberships are served from a shared {@link MembershipCache} and only loaded from the database on a miss.
      * 
      * @param groupId the ID of the group
      * @param username the username of the user
      * @return true if the user is an admin, false otherwise
      */
     public boolean isAdmin(String groupId, String username) {
-        String sql = "SELECT COUNT(*) FROM GroupAdmins WHERE group_id = ? AND admin_id = ?";
+        MembershipCache.Membership membership = getMembership(groupId);
+        return membership != null && membership.isAdmin(username);
+    }
+    
+    /**
+     * Get the participants and admins of a group.
+     * 
+     * @param groupId the ID of the group
+     * @return the membership, empty if the group does not exist, or null on error
+     */
+    public MembershipCache.Membership getMembership(String groupId) {
+        try {
+            return MEMBERSHIPS.get(groupId, this::loadMembership);
+        } catch (SQLException e) {
+            System.out.println("Error getting group membership: " + e.getMessage());
+            e.printStackTrace();
+        }
         
+        return null;
+    }
+    
+    private MembershipCache.Membership loadMembership(String groupId) throws SQLException {
+        long start = System.nanoTime();
         try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+             PreparedStatement pstmt = conn.prepareStatement(LOAD_MEMBERSHIP_SQL)) {
             
             pstmt.setString(1, groupId);
-            pstmt.setString(2, username);
+            pstmt.setString(2, groupId);
             
+            List<String> participants = new ArrayList<>();
+            List<String> admins = new ArrayList<>();
             try (ResultSet rs = pstmt.executeQuery()) {
-                if (rs.next()) {
-                    return rs.getInt(1) > 0;
+                while (rs.next()) {
+                    (rs.getBoolean("admin") ? admins : participants).add(rs.getString("user_id"));
                 }
             }
+            return new MembershipCache.Membership(participants, admins);
             
         } catch (SQLException e) {
-            System.out.println("Error checking if user is admin: " + e.getMessage());
-            e.printStackTrace();
+            LOAD_MEMBERSHIP.error();
+            throw e;
+        } finally {
+            LOAD_MEMBERSHIP.record(start);
         }
-        
-        return false;
     }
 }
\ No newline at end of file
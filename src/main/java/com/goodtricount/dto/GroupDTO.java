@@ -13,6 +13,7 @@ public class GroupDTO implements Serializable {
     
     private String id;
     private String name;
+    private long version;
     private List<String> participants;
     private List<String> admins;
     private List<ExpenseDTO> expenses;
@@ -78,6 +79,18 @@ public class GroupDTO implements Serializable {
         this.name = name;
     }
     
+    /**
+     * Get the version of the group, which every change to it increments; 0 if it was not read
+     * from the database.
+     */
+    public long getVersion() {
+        return version;
+    }
+    
+    public void setVersion(long version) {
+        this.version = version;
+    }
+    
     public List<String> getParticipants() {
         return participants;
     }
@@ -171,6 +184,7 @@ public class GroupDTO implements Serializable {
         return "GroupDTO{" +
                 "id='" + id + '\'' +
                 ", name='" + name + '\'' +
+                ", version=" + version +
                 ", participants=" + participants +
                 ", admins=" + admins +
                 ", expenses=" + expenses +
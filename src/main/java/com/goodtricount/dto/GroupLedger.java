@@ -0,0 +1,368 @@
+package com.goodtricount.dto;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Compact in-memory model of the members and totals of one group, for server-side balance and
+ * settlement computation on large groups.
+ *
+ * <p>Usernames are interned to dense indices (0, 1, 2, ...) in the order they are first seen,
+ * through an open-addressing hash table of ints, so looking a user up or adding one is O(1) and
+ * allocates nothing but the username itself. Memberships are bitsets over those indices, and
+ * the paid, sent and received totals are {@code long[]} arrays of cents. Computing the balances
+ * of a group is therefore a pass over primitive arrays, without maps or boxed numbers.</p>
+ *
+ * <p>{@link GroupDTO} stays the format groups are exchanged in; {@link #of(GroupDTO)} builds a
+ * ledger from one. Not thread-safe.</p>
+ */
+public class GroupLedger {
+
+    private final String groupId;
+
+    private String[] usernames;
+    /** Open-addressing table of index + 1, 0 for an empty slot; its length is a power of two. */
+    private int[] table;
+    private int size;
+
+    private final BitSet participants = new BitSet();
+    private final BitSet admins = new BitSet();
+    private long[] paid;
+    private long[] sent;
+    private long[] received;
+
+    /**
+     * Create an empty ledger.
+     *
+     * @param groupId the ID of the group
+     */
+    public GroupLedger(String groupId) {
+        this(groupId, 16);
+    }
+
+    /**
+     * Create an empty ledger sized for a number of users.
+     *
+     * @param groupId the ID of the group
+     * @param expectedUsers the number of users expected
+     */
+    public GroupLedger(String groupId, int expectedUsers) {
+        int capacity = Math.max(expectedUsers, 4);
+        this.groupId = groupId;
+        this.usernames = new String[capacity];
+        this.table = new int[tableSizeFor(capacity)];
+        this.paid = new long[capacity];
+        this.sent = new long[capacity];
+        this.received = new long[capacity];
+    }
+
+    /**
+     * Build a ledger from a group: its participants and admins, its expenses and its
+     * confirmed payments.
+     *
+     * @param group the group
+     * @return the ledger
+     */
+    public static GroupLedger of(GroupDTO group) {
+        GroupLedger ledger = new GroupLedger(group.getId(), group.getParticipants().size());
+        for (String participant : group.getParticipants()) {
+            ledger.addParticipant(participant);
+        }
+        for (String admin : group.getAdmins()) {
+            ledger.addAdmin(admin);
+        }
+        for (ExpenseDTO expense : group.getExpenses()) {
+            ledger.addExpense(ledger.intern(expense.getPayer()), expense.getMoney().getCents());
+        }
+        for (PaymentDTO payment : group.getPayments()) {
+            if ("confirmed".equals(payment.getStatus())) {
+                ledger.addPayment(ledger.intern(payment.getPayer()), ledger.intern(payment.getReceiver()),
+                        payment.getMoney().getCents());
+            }
+        }
+        return ledger;
+    }
+
+    public String getGroupId() {
+        return groupId;
+    }
+
+    /**
+     * Get the number of users known to the ledger, participants or not.
+     *
+     * @return the number of users
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get the index of a user, adding the user if it is not known yet.
+     *
+     * @param username the username
+     * @return the index of the user
+     */
+    public int intern(String username) {
+        int mask = table.length - 1;
+        for (int slot = hash(username) & mask; ; slot = (slot + 1) & mask) {
+            int entry = table[slot];
+            if (entry == 0) {
+                break;
+            }
+            if (usernames[entry - 1].equals(username)) {
+                return entry - 1;
+            }
+        }
+
+        if (size == usernames.length) {
+            grow();
+        }
+        int index = size++;
+        usernames[index] = username;
+        insert(index);
+        return index;
+    }
+
+    /**
+     * Get the index of a user.
+     *
+     * @param username the username
+     * @return the index of the user, or -1 if the user is not known
+     */
+    public int indexOf(String username) {
+        int mask = table.length - 1;
+        for (int slot = hash(username) & mask; ; slot = (slot + 1) & mask) {
+            int entry = table[slot];
+            if (entry == 0) {
+                return -1;
+            }
+            if (usernames[entry - 1].equals(username)) {
+                return entry - 1;
+            }
+        }
+    }
+
+    /**
+     * Get the username of a user.
+     *
+     * @param index the index of the user
+     * @return the username
+     */
+    public String getUsername(int index) {
+        checkIndex(index);
+        return usernames[index];
+    }
+
+    /**
+     * Add a participant to the group.
+     *
+     * @param username the username to add
+     * @return true if the participant was added, false if already present
+     */
+    public boolean addParticipant(String username) {
+        int index = intern(username);
+        if (participants.get(index)) {
+            return false;
+        }
+        participants.set(index);
+        return true;
+    }
+
+    /**
+     * Add an admin to the group, who is also made a participant.
+     *
+     * @param username the username to add as admin
+     * @return true if the admin was added, false if already present
+     */
+    public boolean addAdmin(String username) {
+        int index = intern(username);
+        participants.set(index);
+        if (admins.get(index)) {
+            return false;
+        }
+        admins.set(index);
+        return true;
+    }
+
+    /**
+     * Remove a participant, and admin, from the group. The user's totals are kept.
+     *
+     * @param username the username to remove
+     * @return true if the participant was removed, false if not present
+     */
+    public boolean removeParticipant(String username) {
+        int index = indexOf(username);
+        if (index < 0 || !participants.get(index)) {
+            return false;
+        }
+        participants.clear(index);
+        admins.clear(index);
+        return true;
+    }
+
+    public boolean isParticipant(int index) {
+        return participants.get(index);
+    }
+
+    public boolean isAdmin(int index) {
+        return admins.get(index);
+    }
+
+    /**
+     * Get the number of current participants.
+     *
+     * @return the number of participants
+     */
+    public int getParticipantCount() {
+        return participants.cardinality();
+    }
+
+    /**
+     * Record an expense.
+     *
+     * @param payer the index of the payer
+     * @param cents the amount in cents; negative to undo an expense
+     */
+    public void addExpense(int payer, long cents) {
+        checkIndex(payer);
+        paid[payer] = Math.addExact(paid[payer], cents);
+    }
+
+    /**
+     * Record a payment between two users.
+     *
+     * @param payer the index of the payer
+     * @param receiver the index of the receiver
+     * @param cents the amount in cents; negative to undo a payment
+     */
+    public void addPayment(int payer, int receiver, long cents) {
+        checkIndex(payer);
+        checkIndex(receiver);
+        sent[payer] = Math.addExact(sent[payer], cents);
+        received[receiver] = Math.addExact(received[receiver], cents);
+    }
+
+    /**
+     * Set the totals of a user, e.g. as read from GroupBalances.
+     *
+     * @param index the index of the user
+     * @param paidCents the total of the expenses paid by the user
+     * @param sentCents the total of the confirmed payments made by the user
+     * @param receivedCents the total of the confirmed payments received by the user
+     */
+    public void setTotals(int index, long paidCents, long sentCents, long receivedCents) {
+        checkIndex(index);
+        paid[index] = paidCents;
+        sent[index] = sentCents;
+        received[index] = receivedCents;
+    }
+
+    public long getPaid(int index) {
+        checkIndex(index);
+        return paid[index];
+    }
+
+    public long getSent(int index) {
+        checkIndex(index);
+        return sent[index];
+    }
+
+    public long getReceived(int index) {
+        checkIndex(index);
+        return received[index];
+    }
+
+    /**
+     * Compute the net balance of every user, {@code paid + sent - received - share}, where the
+     * total of the expenses is split between the current participants in index order with
+     * {@link Money#splitCents(long, int, int)}. Same rules as {@link BalanceDAO#computeBalances(List)}.
+     *
+     * @return the balances in cents, indexed by user
+     */
+    public long[] computeBalances() {
+        long total = 0;
+        for (int i = 0; i < size; i++) {
+            total = Math.addExact(total, paid[i]);
+        }
+        int count = participants.cardinality();
+        // Money.splitCents, computed once for every participant
+        long share = count > 0 ? Math.floorDiv(total, count) : 0;
+        long remainder = count > 0 ? Math.floorMod(total, count) : 0;
+
+        long[] balances = new long[size];
+        for (int i = 0; i < size; i++) {
+            balances[i] = paid[i] + sent[i] - received[i];
+        }
+        int participant = 0;
+        for (int i = participants.nextSetBit(0); i >= 0; i = participants.nextSetBit(i + 1)) {
+            balances[i] -= participant++ < remainder ? share + 1 : share;
+        }
+        return balances;
+    }
+
+    /**
+     * Get the balances as DTOs, in index order. Includes every participant, and former
+     * participants with amounts recorded.
+     *
+     * @return the balances
+     */
+    public List<BalanceDTO> toBalances() {
+        long[] balances = computeBalances();
+        List<BalanceDTO> result = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            boolean participant = participants.get(i);
+            if (!participant && paid[i] == 0 && sent[i] == 0 && received[i] == 0) {
+                continue;
+            }
+            BalanceDTO balance = new BalanceDTO();
+            balance.setUsername(usernames[i]);
+            balance.setParticipant(participant);
+            balance.setPaidMoney(Money.ofCents(paid[i]));
+            balance.setSentMoney(Money.ofCents(sent[i]));
+            balance.setReceivedMoney(Money.ofCents(received[i]));
+            balance.setBalanceMoney(Money.ofCents(balances[i]));
+            result.add(balance);
+        }
+        return result;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("No user " + index + " in a ledger of " + size);
+        }
+    }
+
+    private void grow() {
+        int capacity = usernames.length * 2;
+        usernames = Arrays.copyOf(usernames, capacity);
+        paid = Arrays.copyOf(paid, capacity);
+        sent = Arrays.copyOf(sent, capacity);
+        received = Arrays.copyOf(received, capacity);
+
+        table = new int[tableSizeFor(capacity)];
+        for (int i = 0; i < size; i++) {
+            insert(i);
+        }
+    }
+
+    private void insert(int index) {
+        int mask = table.length - 1;
+        int slot = hash(usernames[index]) & mask;
+        while (table[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = index + 1;
+    }
+
+    /** A table at most half full, so that probe sequences stay short. */
+    private static int tableSizeFor(int capacity) {
+        return Integer.highestOneBit(capacity - 1) << 2;
+    }
+
+    private static int hash(String username) {
+        int h = username.hashCode() * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,246 @@
+package com.goodtricount.dto;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fans out the new versions of groups, published by the database with {@code NOTIFY}, to the
+ * subscribers of each group in this instance.
+ *
+ * <p>Every change to a group increments its version (see {@link GroupChangeDAO}), and a trigger
+ * on Groups notifies the {@value #CHANNEL} channel of the new version when the transaction
+ * commits, whichever instance or DAO made the change. One thread holds one connection of its own,
+ * outside the {@link ConnectionPool}, that listens on the channel and calls the subscribers of the
+ * group; subscribers must return quickly, e.g. by handing the version to another thread.</p>
+ *
+ * <p>Subscribers to every group, such as the {@link MembershipCache}, are called for every
+ * notification, before the subscribers of the group.</p>
+ *
+ * <p>Notifications sent while the connection is down are lost. Once it is listening, after
+ * starting and after every reconnection, every subscriber is called with {@link #UNKNOWN}, so that
+ * it reads the current version itself; subscribers to every group are called once, with a null
+ * group.</p>
+ *
+ * <p>Configuration: {@code goodtricount.events.pollMs} (default 10000), how long the listener
+ * waits for a notification before checking the connection, and
+ * {@code goodtricount.events.reconnectMs} (default 5000), the delay before reconnecting.</p>
+ */
+public final class GroupNotifications {
+
+    /** The channel the database notifies, with {@code '<version> <group id>'} as payload. */
+    public static final String CHANNEL = "group_changes";
+
+    /** The version passed to the subscribers of a group that was deleted. */
+    public static final long DELETED = 0;
+
+    /** The version passed to every subscriber when notifications may have been missed. */
+    public static final long UNKNOWN = -1;
+
+    /**
+     * Receives the new versions of a group.
+     */
+    public interface Subscriber {
+
+        /**
+         * Called on the listener thread for every new version of the group; must not block.
+         *
+         * @param groupId the ID of the group, or null with {@link #UNKNOWN} for a subscriber to every group
+         * @param version the new version, {@link #DELETED} or {@link #UNKNOWN}
+         */
+        void groupChanged(String groupId, long version);
+    }
+
+    private static final class Holder {
+        static final GroupNotifications INSTANCE = fromEnvironment();
+    }
+
+    private final long pollMillis;
+    private final long reconnectMillis;
+    private final ConcurrentHashMap<String, Set<Subscriber>> subscribers = new ConcurrentHashMap<>();
+    private final CopyOnWriteArrayList<Subscriber> allGroupsSubscribers = new CopyOnWriteArrayList<>();
+    private final AtomicBoolean started = new AtomicBoolean();
+
+    private final AtomicLong subscriberCount = new AtomicLong();
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong reconnects = new AtomicLong();
+
+    private GroupNotifications(long pollMillis, long reconnectMillis) {
+        this.pollMillis = pollMillis;
+        this.reconnectMillis = reconnectMillis;
+    }
+
+    private static GroupNotifications fromEnvironment() {
+        GroupNotifications notifications = new GroupNotifications(
+                Settings.getLong("events.pollMs", 10000),
+                Settings.getLong("events.reconnectMs", 5000));
+
+        Metrics.gauge("group_subscribers", "Subscribers to the changes of groups.",
+                notifications.subscriberCount::get);
+        Metrics.counter("group_notifications_total", "Group change notifications received from the database.",
+                notifications.received::get);
+        Metrics.counter("group_notifications_reconnects_total", "Reconnections of the notification listener.",
+                notifications.reconnects::get);
+        return notifications;
+    }
+
+    /**
+     * Get the instance shared by the application.
+     *
+     * @return the shared instance
+     */
+    public static GroupNotifications getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * Subscribe to the new versions of a group, starting the listener on first use.
+     *
+     * @param groupId the ID of the group
+     * @param subscriber the subscriber
+     */
+    public void subscribe(String groupId, Subscriber subscriber) {
+        // In compute, so that the set cannot be removed by unsubscribe() between lookup and add
+        subscribers.compute(groupId, (id, set) -> {
+            Set<Subscriber> current = set != null ? set : ConcurrentHashMap.<Subscriber>newKeySet();
+            if (current.add(subscriber)) {
+                subscriberCount.incrementAndGet();
+            }
+            return current;
+        });
+        start();
+    }
+
+    /**
+     * Subscribe to the new versions of every group, starting the listener on first use.
+     *
+     * @param subscriber the subscriber
+     */
+    public void subscribeToAll(Subscriber subscriber) {
+        allGroupsSubscribers.add(subscriber);
+        start();
+    }
+
+    /**
+     * Remove a subscriber.
+     *
+     * @param groupId the ID of the group
+     * @param subscriber the subscriber
+     */
+    public void unsubscribe(String groupId, Subscriber subscriber) {
+        subscribers.computeIfPresent(groupId, (id, set) -> {
+            if (set.remove(subscriber)) {
+                subscriberCount.decrementAndGet();
+            }
+            return set.isEmpty() ? null : set;
+        });
+    }
+
+    /**
+     * Get the number of subscribers to all groups.
+     *
+     * @return the number of subscribers
+     */
+    public long getSubscriberCount() {
+        return subscriberCount.get();
+    }
+
+    private void start() {
+        if (started.compareAndSet(false, true)) {
+            Thread thread = new Thread(this::listen, "goodtricount-group-notifications");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    private void listen() {
+        boolean reconnecting = false;
+        while (true) {
+            try {
+                Class.forName("org.postgresql.Driver");
+                DatabaseConfig config = DatabaseConfig.fromEnvironment();
+
+                try (Connection conn = DriverManager.getConnection(config.getUrl(), config.getDriverProperties());
+                     Statement stmt = conn.createStatement()) {
+
+                    stmt.execute("LISTEN " + CHANNEL);
+                    if (reconnecting) {
+                        reconnects.incrementAndGet();
+                    }
+                    reconnecting = true;
+                    // Changes committed before LISTEN, since the subscribers last read their version, were missed
+                    dispatchAll(UNKNOWN);
+
+                    PGConnection pgConn = conn.unwrap(PGConnection.class);
+                    while (true) {
+                        PGNotification[] notifications = pgConn.getNotifications((int) pollMillis);
+                        if (notifications == null || notifications.length == 0) {
+                            // Nothing arrives on a connection that was silently dropped: check it
+                            stmt.execute("SELECT 1");
+                            continue;
+                        }
+                        for (PGNotification notification : notifications) {
+                            received.incrementAndGet();
+                            dispatch(notification.getParameter());
+                        }
+                    }
+                }
+            } catch (SQLException | ClassNotFoundException | RuntimeException e) {
+                System.out.println("Error listening for group changes: " + e.getMessage());
+                e.printStackTrace();
+            }
+
+            try {
+                Thread.sleep(reconnectMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void dispatch(String payload) {
+        int separator = payload.indexOf(' ');
+        if (separator < 0) {
+            return;
+        }
+        String groupId = payload.substring(separator + 1);
+        long version;
+        try {
+            version = Long.parseLong(payload.substring(0, separator));
+        } catch (NumberFormatException e) {
+            return;
+        }
+        for (Subscriber subscriber : allGroupsSubscribers) {
+            subscriber.groupChanged(groupId, version);
+        }
+        Set<Subscriber> set = subscribers.get(groupId);
+        if (set == null) {
+            return;
+        }
+        for (Subscriber subscriber : set) {
+            subscriber.groupChanged(groupId, version);
+        }
+    }
+
+    private void dispatchAll(long version) {
+        for (Subscriber subscriber : allGroupsSubscribers) {
+            subscriber.groupChanged(null, version);
+        }
+        for (Map.Entry<String, Set<Subscriber>> entry : subscribers.entrySet()) {
+            for (Subscriber subscriber : entry.getValue()) {
+                subscriber.groupChanged(entry.getKey(), version);
+            }
+        }
+    }
+}
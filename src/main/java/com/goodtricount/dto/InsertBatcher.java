@@ -0,0 +1,260 @@
+package com.goodtricount.dto;
+
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Group commit for single-row inserts: concurrent calls to {@link #insert} are queued, and a few
+ * writer threads take them in batches and insert each batch in one statement and one transaction,
+ * so that many callers share one commit, and one flush of the write-ahead log, instead of each
+ * paying for its own.
+ *
+ * <p>A writer takes the first waiting row, then waits up to the window for more, and stops early
+ * once the batch is full. Rows that queued up while the previous batch was being committed are
+ * taken at once, so under load batches fill without waiting. Each caller blocks until its batch
+ * is committed and gets the ID of its own row. If the batch fails, e.g. because one row breaks a
+ * constraint, its rows are inserted again one by one with the single-row insert, so each caller
+ * gets its own ID or error.</p>
+ *
+ * <p>Configuration, where {@code <name>} is {@code expenses} or {@code payments}:
+ * {@code goodtricount.db.batch.<name>.enabled} (default false),
+ * {@code goodtricount.db.batch.<name>.maxSize} (default 64 rows),
+ * {@code goodtricount.db.batch.<name>.windowMicros} (default 1000) and
+ * {@code goodtricount.db.batch.<name>.threads} (default 2).</p>
+ *
+ * @param <T> the type of the rows
+ */
+final class InsertBatcher<T> {
+
+    /**
+     * A row to insert into a group.
+     */
+    static final class Row<T> {
+        final String groupId;
+        final T value;
+        final CompletableFuture<Integer> id = new CompletableFuture<>();
+
+        Row(String groupId, T value) {
+            this.groupId = groupId;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Inserts a batch of rows in the caller's transaction.
+     */
+    interface BatchInsert<T> {
+
+        /**
+         * @param conn the database connection, in a transaction
+         * @param rows the rows to insert
+         * @return the IDs of the rows, in the same order
+         * @throws SQLException if any row cannot be inserted; the transaction is rolled back
+         */
+        int[] insert(Connection conn, List<Row<T>> rows) throws SQLException;
+    }
+
+    /**
+     * Inserts one row in a transaction of its own.
+     */
+    interface SingleInsert<T> {
+
+        /**
+         * @param groupId the ID of the group
+         * @param value the row
+         * @return the ID of the row, or -1 if it cannot be inserted
+         */
+        int insert(String groupId, T value);
+    }
+
+    private final String name;
+    private final int maxSize;
+    private final long windowNanos;
+    private final BatchInsert<T> batchInsert;
+    private final SingleInsert<T> singleInsert;
+    private final LinkedBlockingQueue<Row<T>> queue = new LinkedBlockingQueue<>();
+
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong rows = new AtomicLong();
+    private final AtomicLong fallbacks = new AtomicLong();
+
+    private InsertBatcher(String name, int maxSize, long windowMicros, int threads,
+                          BatchInsert<T> batchInsert, SingleInsert<T> singleInsert) {
+        if (maxSize < 1 || threads < 1) {
+            throw new IllegalArgumentException("maxSize and threads must be positive");
+        }
+        this.name = name;
+        this.maxSize = maxSize;
+        this.windowNanos = TimeUnit.MICROSECONDS.toNanos(windowMicros);
+        this.batchInsert = batchInsert;
+        this.singleInsert = singleInsert;
+
+        for (int i = 1; i <= threads; i++) {
+            Thread thread = new Thread(this::run, "goodtricount-batch-" + name + "-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Create the batcher of a table if it is enabled in the environment, and export its counters
+     * in {@link Metrics}.
+     *
+     * @param name the name of the batcher in the settings and metrics, e.g. {@code expenses}
+     * @param batchInsert inserts a batch in a transaction
+     * @param singleInsert inserts a row of a failed batch on its own
+     * @return the batcher, or null if batching is disabled
+     */
+    static <T> InsertBatcher<T> fromEnvironment(String name, BatchInsert<T> batchInsert,
+                                                SingleInsert<T> singleInsert) {
+        String prefix = "db.batch." + name + ".";
+        if (!Settings.getBoolean(prefix + "enabled", false)) {
+            return null;
+        }
+        InsertBatcher<T> batcher = new InsertBatcher<>(name,
+                Settings.getInt(prefix + "maxSize", 64),
+                Settings.getLong(prefix + "windowMicros", 1000),
+                Settings.getInt(prefix + "threads", 2),
+                batchInsert, singleInsert);
+
+        Metrics.counter("batch_" + name + "_batches_total", "Batches of " + name + " committed.",
+                batcher.batches::get);
+        Metrics.counter("batch_" + name + "_rows_total", "Rows of " + name + " inserted in batches.",
+                batcher.rows::get);
+        Metrics.counter("batch_" + name + "_fallbacks_total",
+                "Batches of " + name + " that failed and were inserted row by row.", batcher.fallbacks::get);
+        Metrics.gauge("batch_" + name + "_queue_size", "Rows of " + name + " waiting for a batch.",
+                batcher.queue::size);
+        return batcher;
+    }
+
+    /**
+     * Read the IDs drawn for the rows of a batch, returned as one {@code int[]} column, in the
+     * order of the rows.
+     *
+     * @param rs the result of the batch insert
+     * @param count the number of rows
+     * @return the IDs
+     * @throws SQLException if there is not one ID per row
+     */
+    static int[] readIds(ResultSet rs, int count) throws SQLException {
+        Array array = rs.next() ? rs.getArray(1) : null;
+        if (array == null) {
+            throw new SQLException("Expected " + count + " generated keys, got none");
+        }
+        try {
+            Integer[] values = (Integer[]) array.getArray();
+            if (values.length != count) {
+                throw new SQLException("Expected " + count + " generated keys, got " + values.length);
+            }
+            int[] ids = new int[count];
+            for (int i = 0; i < count; i++) {
+                ids[i] = values[i];
+            }
+            return ids;
+        } finally {
+            array.free();
+        }
+    }
+
+    /**
+     * Insert a row with the next batch and wait until it is committed.
+     * The wait is not interruptible: once queued, the row may be committed at any time.
+     *
+     * @param groupId the ID of the group
+     * @param value the row
+     * @return the ID of the row, or -1 if it cannot be inserted
+     */
+    int insert(String groupId, T value) {
+        Row<T> row = new Row<>(groupId, value);
+        queue.add(row);
+        return row.id.join();
+    }
+
+    private void run() {
+        List<Row<T>> batch = new ArrayList<>(maxSize);
+        while (true) {
+            try {
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + windowNanos;
+                while (batch.size() < maxSize) {
+                    queue.drainTo(batch, maxSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= maxSize || remaining <= 0) {
+                        break;
+                    }
+                    Row<T> next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                flush(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                System.out.println("Error in the " + name + " batch writer: " + e.getMessage());
+                e.printStackTrace();
+                for (Row<T> row : batch) {
+                    row.id.complete(-1);
+                }
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(List<Row<T>> batch) {
+        int[] ids = null;
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                ids = batchInsert.insert(conn, batch);
+                conn.commit();
+            } catch (SQLException | RuntimeException e) {
+                conn.rollback();
+                throw e;
+            }
+        } catch (SQLException | RuntimeException e) {
+            if (batch.size() == 1) {
+                System.out.println("Error inserting " + name + ": " + e.getMessage());
+                e.printStackTrace();
+            }
+            ids = null;
+        }
+
+        if (ids != null) {
+            batches.incrementAndGet();
+            rows.addAndGet(batch.size());
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).id.complete(ids[i]);
+            }
+            return;
+        }
+
+        if (batch.size() == 1) {
+            batch.get(0).id.complete(-1);
+            return;
+        }
+        // One bad row fails the whole batch: find it, and give the others their IDs
+        fallbacks.incrementAndGet();
+        for (Row<T> row : batch) {
+            try {
+                row.id.complete(singleInsert.insert(row.groupId, row.value));
+            } catch (RuntimeException e) {
+                System.out.println("Error inserting " + name + ": " + e.getMessage());
+                e.printStackTrace();
+                row.id.complete(-1);
+            }
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.goodtricount.dto;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram for one operation, in nanoseconds.
+ *
+ * <p>Buckets are log-linear like HdrHistogram: values below 32 ns get one bucket each and every
+ * further power of two is split into 16 buckets, so any quantile is reported with a relative
+ * error below 1/16 (about 6%). Values above 2^40 ns (about 18 minutes) fall in the last bucket.</p>
+ *
+ * <p>Recording is a few atomic increments on preallocated counters: it takes no lock and
+ * allocates nothing, so it can stay enabled in production. Counts are cumulative since startup.</p>
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + SUB_BUCKETS;
+    private static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+
+    private final String name;
+    private final String operation;
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+
+    /**
+     * Create a histogram. Use {@link Metrics} to create registered ones.
+     *
+     * @param name the metric family, e.g. "dao" or "http"
+     * @param operation the operation label, e.g. "ExpenseDAO.insertExpense"
+     */
+    LatencyHistogram(String name, String operation) {
+        this.name = name;
+        this.operation = operation;
+    }
+
+    /**
+     * Record the time elapsed since {@code startNanos}.
+     *
+     * @param startNanos a value returned by {@link System#nanoTime()}
+     */
+    public void record(long startNanos) {
+        recordValue(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Record one latency.
+     *
+     * @param nanos the latency in nanoseconds
+     */
+    public void recordValue(long nanos) {
+        long value = Math.min(Math.max(nanos, 0), MAX_VALUE);
+        buckets.incrementAndGet(bucketIndex(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long current;
+        while (value > (current = max.get())) {
+            if (max.compareAndSet(current, value)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Count one failed call. The call's latency is still recorded by {@link #record(long)}.
+     */
+    public void error() {
+        errors.incrementAndGet();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getErrorCount() {
+        return errors.get();
+    }
+
+    public long getSumNanos() {
+        return sum.get();
+    }
+
+    public long getMaxNanos() {
+        return max.get();
+    }
+
+    /**
+     * Get the value at a quantile. Concurrent recordings may or may not be included.
+     *
+     * @param quantile the quantile, between 0 and 1
+     * @return the upper bound of the bucket holding the quantile, in nanoseconds, or 0 if empty
+     */
+    public long getValueAtQuantile(double quantile) {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = buckets.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(upperBound(i), getMaxNanos());
+            }
+        }
+        return getMaxNanos();
+    }
+
+    static int bucketIndex(long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    static long upperBound(int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long subBucket = index % SUB_BUCKETS + SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,210 @@
+package com.goodtricount.dto;
+
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Read-through cache of the participants and admins of groups, for authorization checks.
+ *
+ * <p>Each group is cached as an immutable {@link Membership} snapshot in a {@link ConcurrentHashMap},
+ * so a check is a lock-free map lookup followed by a hash set lookup. {@link GroupDAO} invalidates
+ * a group after every write to its participants or admins, once the transaction is over;
+ * {@link UserDAO} clears the cache when a user is deleted, as that removes the user from every
+ * group. A load that overlaps an invalidation is not kept, so the cache never holds a membership
+ * older than the last write made through this application.</p>
+ *
+ * <p>Changes made by other instances are picked up from {@link GroupNotifications}: every write to
+ * the members of a group increments its version, which notifies every instance, and the cache
+ * created by {@link #fromEnvironment()} drops the group then, and everything when the listener
+ * reconnects. Other changes to the group drop its entry too, which costs one reload. Only while
+ * the listener is disconnected can a removed member keep access on another instance, until the
+ * entry expires.</p>
+ *
+ * <p>Configuration: {@code goodtricount.group.cache.maxSize} (default 10000 groups, 0 disables the
+ * cache) and {@code goodtricount.group.cache.ttlMs} (default 60000). When the cache is full,
+ * arbitrary entries are dropped to make room.</p>
+ */
+public class MembershipCache {
+
+    /**
+     * Loads the membership of a group from the database.
+     */
+    public interface Loader {
+
+        /**
+         * @param groupId the ID of the group
+         * @return the membership; empty if the group does not exist
+         * @throws SQLException if the membership cannot be loaded; nothing is cached then
+         */
+        Membership load(String groupId) throws SQLException;
+    }
+
+    /**
+     * The participants and admins of a group at one point in time. Immutable.
+     */
+    public static final class Membership {
+
+        private final Set<String> participants;
+        private final Set<String> admins;
+
+        public Membership(Collection<String> participants, Collection<String> admins) {
+            this.participants = Collections.unmodifiableSet(new HashSet<>(participants));
+            this.admins = Collections.unmodifiableSet(new HashSet<>(admins));
+        }
+
+        public boolean isParticipant(String username) {
+            return participants.contains(username);
+        }
+
+        public boolean isAdmin(String username) {
+            return admins.contains(username);
+        }
+
+        public Set<String> getParticipants() {
+            return participants;
+        }
+
+        public Set<String> getAdmins() {
+            return admins;
+        }
+    }
+
+    private static final class Entry {
+        final Membership membership;
+        final long expiresAt;
+
+        Entry(Membership membership, long expiresAt) {
+            this.membership = membership;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final int maxSize;
+    private final long ttlNanos;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    /** Incremented by every invalidation, before the entry is removed. */
+    private final AtomicLong generation = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * Create a cache.
+     *
+     * @param maxSize the maximum number of groups, 0 to disable caching
+     * @param ttlMillis how long a membership is cached
+     */
+    public MembershipCache(int maxSize, long ttlMillis) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("maxSize must not be negative");
+        }
+        this.maxSize = maxSize;
+        this.ttlNanos = ttlMillis * 1_000_000L;
+    }
+
+    /**
+     * Create a cache configured from the environment, kept up to date with the changes made by
+     * other instances, and export its counters in {@link Metrics}.
+     *
+     * @return the cache
+     */
+    public static MembershipCache fromEnvironment() {
+        MembershipCache cache = new MembershipCache(
+                Settings.getInt("group.cache.maxSize", 10000),
+                Settings.getLong("group.cache.ttlMs", 60000));
+
+        Metrics.counter("membership_cache_hits_total", "Membership cache hits.", cache.hits::get);
+        Metrics.counter("membership_cache_misses_total", "Membership cache misses.", cache.misses::get);
+        Metrics.counter("membership_cache_invalidations_total", "Membership cache invalidations.",
+                cache.invalidations::get);
+        Metrics.gauge("membership_cache_size", "Groups currently cached.", cache::size);
+
+        if (cache.maxSize > 0 && cache.ttlNanos > 0) {
+            GroupNotifications.getInstance().subscribeToAll((groupId, version) -> {
+                if (groupId == null) {
+                    cache.clear();
+                } else {
+                    cache.invalidate(groupId);
+                }
+            });
+        }
+        return cache;
+    }
+
+    /**
+     * Get the membership of a group, loading it on a miss.
+     *
+     * @param groupId the ID of the group
+     * @param loader loads the membership on a miss
+     * @return the membership
+     * @throws SQLException if the loader fails
+     */
+    public Membership get(String groupId, Loader loader) throws SQLException {
+        if (maxSize == 0 || groupId == null) {
+            return loader.load(groupId);
+        }
+
+        Entry entry = entries.get(groupId);
+        if (entry != null && entry.expiresAt - System.nanoTime() > 0) {
+            hits.incrementAndGet();
+            return entry.membership;
+        }
+        misses.incrementAndGet();
+
+        long stamp = generation.get();
+        Membership membership = loader.load(groupId);
+        if (ttlNanos > 0) {
+            Entry loaded = new Entry(membership, System.nanoTime() + ttlNanos);
+            entries.put(groupId, loaded);
+            // An invalidation since the load started may have been missed by the load
+            if (generation.get() != stamp) {
+                entries.remove(groupId, loaded);
+            }
+            trim();
+        }
+        return membership;
+    }
+
+    /**
+     * Drop a group from the cache, after its participants or admins were changed.
+     *
+     * @param groupId the ID of the group
+     */
+    public void invalidate(String groupId) {
+        generation.incrementAndGet();
+        entries.remove(groupId);
+        invalidations.incrementAndGet();
+    }
+
+    /**
+     * Drop every entry.
+     */
+    public void clear() {
+        generation.incrementAndGet();
+        entries.clear();
+    }
+
+    /**
+     * Get the number of cached groups.
+     *
+     * @return the number of entries
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    private void trim() {
+        Iterator<String> keys = entries.keySet().iterator();
+        while (entries.size() > maxSize && keys.hasNext()) {
+            keys.next();
+            keys.remove();
+        }
+    }
+}
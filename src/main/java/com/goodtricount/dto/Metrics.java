@@ -0,0 +1,179 @@
+package com.goodtricount.dto;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.LongSupplier;
+
+/**
+ * Registry of the application's latency histograms, exported in the Prometheus text format.
+ *
+ * <p>Histograms are created once, usually in static fields, so recording never has to look
+ * anything up:</p>
+ *
+ * <pre>
+ * private static final LatencyHistogram INSERT_USER = Metrics.dao("UserDAO.insertUser");
+ *
+ * long start = System.nanoTime();
+ * try (...) {
+ *     ...
+ * } catch (SQLException e) {
+ *     INSERT_USER.error();
+ *     ...
+ * } finally {
+ *     INSERT_USER.record(start);
+ * }
+ * </pre>
+ */
+public final class Metrics {
+
+    private static final String PREFIX = "goodtricount_";
+    private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+    private static final List<LatencyHistogram> DAO = new CopyOnWriteArrayList<>();
+    private static final List<LatencyHistogram> HTTP = new CopyOnWriteArrayList<>();
+    private static final List<Value> VALUES = new CopyOnWriteArrayList<>();
+
+    /**
+     * Time spent waiting for a connection in {@link ConnectionPool#borrow()}; errors are borrow timeouts.
+     */
+    public static final LatencyHistogram CONNECTION_WAIT = new LatencyHistogram("connection_wait", "borrow");
+
+    private Metrics() {
+    }
+
+    /**
+     * Create and register the histogram of a DAO method.
+     *
+     * @param operation the operation label, as "DAO.method"
+     * @return the histogram
+     */
+    public static LatencyHistogram dao(String operation) {
+        LatencyHistogram histogram = new LatencyHistogram("dao", operation);
+        DAO.add(histogram);
+        return histogram;
+    }
+
+    /**
+     * Create and register the histogram of an HTTP endpoint.
+     *
+     * @param operation the operation label, e.g. "POST /api/login"
+     * @return the histogram
+     */
+    public static LatencyHistogram http(String operation) {
+        LatencyHistogram histogram = new LatencyHistogram("http", operation);
+        HTTP.add(histogram);
+        return histogram;
+    }
+
+    /**
+     * Register a counter whose value is read when the metrics are exported.
+     *
+     * @param name the metric name, without the application prefix; should end in "_total"
+     * @param help the description of the metric
+     * @param value supplies the current value
+     */
+    public static void counter(String name, String help, LongSupplier value) {
+        VALUES.add(new Value(name, help, "counter", value));
+    }
+
+    /**
+     * Register a gauge whose value is read when the metrics are exported.
+     *
+     * @param name the metric name, without the application prefix
+     * @param help the description of the metric
+     * @param value supplies the current value
+     */
+    public static void gauge(String name, String help, LongSupplier value) {
+        VALUES.add(new Value(name, help, "gauge", value));
+    }
+
+    /**
+     * Write every metric in the Prometheus text exposition format (version 0.0.4).
+     *
+     * @param out the writer to write to
+     * @throws IOException if writing fails
+     */
+    public static void writePrometheus(Writer out) throws IOException {
+        writeFamily(out, "dao_duration_seconds", "Latency of DAO methods.", "dao_errors_total",
+                "DAO calls that failed with an SQLException.", DAO);
+        writeFamily(out, "http_request_duration_seconds", "Latency of HTTP requests.", "http_errors_total",
+                "HTTP requests that failed with an exception or a 5xx status.", HTTP);
+        writeFamily(out, "connection_wait_seconds", "Time spent waiting for a pooled connection.",
+                "connection_wait_timeouts_total", "Connection requests that timed out.",
+                Collections.singletonList(CONNECTION_WAIT));
+
+        ConnectionPool pool = DatabaseConnection.getPoolIfStarted();
+        if (pool != null) {
+            writeGauge(out, "pool_connections_active", "Connections currently leased.", pool.getActiveCount());
+            writeGauge(out, "pool_connections_idle", "Idle connections.", pool.getIdleCount());
+            writeGauge(out, "pool_connections_total", "Open physical connections.", pool.getTotalCount());
+            writeGauge(out, "pool_connections_max", "Maximum number of connections.", pool.getConfig().getMaxSize());
+            writeGauge(out, "pool_threads_waiting", "Threads waiting for a connection.", pool.getWaitingCount());
+        }
+
+        for (Value value : VALUES) {
+            writeValue(out, value.name, value.help, value.type, value.supplier.getAsLong());
+        }
+    }
+
+    private static void writeFamily(Writer out, String summary, String summaryHelp, String errorCounter,
+                                    String errorHelp, List<LatencyHistogram> histograms) throws IOException {
+        if (histograms.isEmpty()) {
+            return;
+        }
+
+        out.write("# HELP " + PREFIX + summary + " " + summaryHelp + "\n");
+        out.write("# TYPE " + PREFIX + summary + " summary\n");
+        for (LatencyHistogram histogram : histograms) {
+            String label = "operation=\"" + escape(histogram.getOperation()) + "\"";
+            for (double quantile : QUANTILES) {
+                out.write(PREFIX + summary + "{" + label + ",quantile=\"" + quantile + "\"} "
+                        + seconds(histogram.getValueAtQuantile(quantile)) + "\n");
+            }
+            out.write(PREFIX + summary + "_sum{" + label + "} " + seconds(histogram.getSumNanos()) + "\n");
+            out.write(PREFIX + summary + "_count{" + label + "} " + histogram.getCount() + "\n");
+        }
+
+        out.write("# HELP " + PREFIX + errorCounter + " " + errorHelp + "\n");
+        out.write("# TYPE " + PREFIX + errorCounter + " counter\n");
+        for (LatencyHistogram histogram : histograms) {
+            out.write(PREFIX + errorCounter + "{operation=\"" + escape(histogram.getOperation()) + "\"} "
+                    + histogram.getErrorCount() + "\n");
+        }
+    }
+
+    private static void writeGauge(Writer out, String name, String help, long value) throws IOException {
+        writeValue(out, name, help, "gauge", value);
+    }
+
+    private static void writeValue(Writer out, String name, String help, String type, long value) throws IOException {
+        out.write("# HELP " + PREFIX + name + " " + help + "\n");
+        out.write("# TYPE " + PREFIX + name + " " + type + "\n");
+        out.write(PREFIX + name + " " + value + "\n");
+    }
+
+    private static String seconds(long nanos) {
+        return Double.toString(nanos / 1e9);
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static final class Value {
+        final String name;
+        final String help;
+        final String type;
+        final LongSupplier supplier;
+
+        Value(String name, String help, String type, LongSupplier supplier) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+            this.supplier = supplier;
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package com.goodtricount.dto;
+
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.annotations.JsonAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+
+/**
+ * An amount of money, held as a whole number of cents.
+ *
+ * <p>Amounts are stored in the database as BIGINT cents, so sums and balance updates are plain
+ * integer arithmetic, both in PostgreSQL and in Java. Arithmetic is exact and throws
+ * {@link ArithmeticException} on overflow. In JSON an amount is written as a decimal number with
+ * two decimals ({@code 12.30}), as it was when amounts were BigDecimals.</p>
+ */
+@JsonAdapter(Money.GsonAdapter.class)
+public final class Money implements Comparable<Money>, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final Money ZERO = new Money(0);
+
+    /** The most digits before the decimal point; any such amount fits in a long of cents. */
+    private static final int MAX_INTEGER_DIGITS = 16;
+
+    private final long cents;
+
+    private Money(long cents) {
+        this.cents = cents;
+    }
+
+    /**
+     * Get an amount from a number of cents.
+     *
+     * @param cents the number of cents
+     * @return the amount
+     */
+    public static Money ofCents(long cents) {
+        return cents == 0 ? ZERO : new Money(cents);
+    }
+
+    /**
+     * Get an amount from a decimal value with at most two decimals.
+     *
+     * <p>The size of the value is checked before it is scaled: amounts come from JSON and CSV,
+     * and a value such as {@code 1e999999999} or {@code 1e-999999999} would otherwise cost a huge
+     * number or a huge division to scale to cents.</p>
+     *
+     * @param amount the amount in units
+     * @return the amount
+     * @throws NumberFormatException if the amount has more than two decimals or more than
+     * {@value #MAX_INTEGER_DIGITS} digits before the decimal point
+     */
+    public static Money of(BigDecimal amount) {
+        if (amount.scale() > 2) {
+            throw new NumberFormatException("Amount has more than two decimals: " + amount);
+        }
+        if (amount.precision() - amount.scale() > MAX_INTEGER_DIGITS) {
+            throw new NumberFormatException("Amount is too large: " + amount);
+        }
+        return ofCents(amount.setScale(2, RoundingMode.UNNECESSARY).unscaledValue().longValueExact());
+    }
+
+    /**
+     * Parse a decimal amount such as {@code "12.3"} or {@code "-5"}.
+     *
+     * @param amount the amount in units
+     * @return the amount
+     * @throws NumberFormatException if the text is not a number, or not an amount, see {@link #of}
+     */
+    public static Money parse(String amount) {
+        return of(new BigDecimal(amount.trim()));
+    }
+
+    /**
+     * Split a number of cents into parts that differ by at most one cent and add up to the total.
+     * The first {@code cents mod parts} parts get the extra cent, so the split is deterministic
+     * for a given order of the parts. Allocation-free counterpart of {@link #split(int)}.
+     *
+     * @param cents the total in cents
+     * @param parts the number of parts
+     * @param index the index of the part, from 0 to {@code parts - 1}
+     * @return the part in cents
+     */
+    public static long splitCents(long cents, int parts, int index) {
+        if (parts <= 0) {
+            throw new IllegalArgumentException("parts must be positive: " + parts);
+        }
+        long share = Math.floorDiv(cents, parts);
+        return index < Math.floorMod(cents, parts) ? share + 1 : share;
+    }
+
+    /**
+     * Split the amount into parts that differ by at most one cent and add up to the amount.
+     *
+     * @param parts the number of parts
+     * @return the parts; the first ones get the remaining cents
+     */
+    public Money[] split(int parts) {
+        Money[] result = new Money[parts];
+        for (int i = 0; i < parts; i++) {
+            result[i] = ofCents(splitCents(cents, parts, i));
+        }
+        return result;
+    }
+
+    public Money plus(Money other) {
+        return ofCents(Math.addExact(cents, other.cents));
+    }
+
+    public Money minus(Money other) {
+        return ofCents(Math.subtractExact(cents, other.cents));
+    }
+
+    public Money negate() {
+        return ofCents(Math.negateExact(cents));
+    }
+
+    public Money times(long factor) {
+        return ofCents(Math.multiplyExact(cents, factor));
+    }
+
+    public long getCents() {
+        return cents;
+    }
+
+    public int signum() {
+        return Long.signum(cents);
+    }
+
+    public BigDecimal toBigDecimal() {
+        return BigDecimal.valueOf(cents, 2);
+    }
+
+    @Override
+    public int compareTo(Money other) {
+        return Long.compare(cents, other.cents);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Money && ((Money) o).cents == cents;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(cents);
+    }
+
+    /**
+     * Format the amount with two decimals, e.g. {@code 12.30} or {@code -0.05}.
+     */
+    @Override
+    public String toString() {
+        return format(cents);
+    }
+
+    /**
+     * Format a number of cents with two decimals, e.g. {@code 12.30} or {@code -0.05}.
+     *
+     * @param cents the number of cents
+     * @return the formatted amount
+     */
+    public static String format(long cents) {
+        StringBuilder builder = new StringBuilder(24);
+        if (cents < 0) {
+            builder.append('-');
+        }
+        long units = Math.abs(cents / 100);
+        int fraction = (int) Math.abs(cents % 100);
+        builder.append(units).append('.');
+        if (fraction < 10) {
+            builder.append('0');
+        }
+        return builder.append(fraction).toString();
+    }
+
+    /**
+     * Bind an amount as BIGINT cents; null is bound as SQL NULL.
+     */
+    static void bind(PreparedStatement pstmt, int index, Money amount) throws SQLException {
+        if (amount == null) {
+            pstmt.setNull(index, Types.BIGINT);
+        } else {
+            pstmt.setLong(index, amount.cents);
+        }
+    }
+
+    /**
+     * Read a BIGINT cents column; SQL NULL is read as null.
+     */
+    static Money read(ResultSet rs, String column) throws SQLException {
+        long cents = rs.getLong(column);
+        return rs.wasNull() ? null : ofCents(cents);
+    }
+
+    /**
+     * SQL expression that turns a BIGINT cents column back into a decimal amount named after the column,
+     * for output that is read by people or other tools, such as CSV exports.
+     */
+    static String sqlDecimal(String column) {
+        return "round(" + column + " / 100.0, 2) AS " + column;
+    }
+
+    /**
+     * Writes amounts as JSON numbers with two decimals and reads them from numbers or strings.
+     */
+    public static final class GsonAdapter extends TypeAdapter<Money> {
+
+        @Override
+        public void write(JsonWriter out, Money value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+            } else {
+                out.jsonValue(format(value.cents));
+            }
+        }
+
+        @Override
+        public Money read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            String amount = in.nextString();
+            try {
+                return parse(amount);
+            } catch (NumberFormatException e) {
+                throw new JsonSyntaxException("Invalid amount '" + amount + "' at " + in.getPreviousPath(), e);
+            }
+        }
+    }
+}
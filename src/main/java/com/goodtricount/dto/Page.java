@@ -0,0 +1,49 @@
+package com.goodtricount.dto;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * One page of a keyset-paginated list.
+ *
+ * @param <T> the type of the items
+ */
+public class Page<T> implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final List<T> items;
+    private final String nextPageToken;
+
+    /**
+     * Constructor with all fields
+     *
+     * @param items the items of the page
+     * @param nextPageToken the token of the next page, or null if this is the last page
+     */
+    public Page(List<T> items, String nextPageToken) {
+        this.items = items;
+        this.nextPageToken = nextPageToken;
+    }
+
+    public List<T> getItems() {
+        return items;
+    }
+
+    /**
+     * Get the opaque token to pass to get the next page.
+     *
+     * @return the token, or null if this is the last page
+     */
+    public String getNextPageToken() {
+        return nextPageToken;
+    }
+
+    @Override
+    public String toString() {
+        return "Page{" +
+                "items=" + items.size() +
+                ", nextPageToken='" + nextPageToken + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,56 @@
+package com.goodtricount.dto;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Encodes the position of the last row of a page as an opaque continuation token.
+ *
+ * <p>A token is the URL-safe Base64 of {@code kind|value|...}. Clients must treat it as opaque;
+ * the kind stops a token of one list from being used with another.</p>
+ */
+final class PageToken {
+
+    private PageToken() {
+    }
+
+    /**
+     * Create a token.
+     *
+     * @param kind the list the token belongs to
+     * @param values the key of the last row of the page
+     * @return the token
+     */
+    static String encode(String kind, String... values) {
+        StringBuilder token = new StringBuilder(kind);
+        for (String value : values) {
+            token.append('|').append(value);
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(token.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Read a token.
+     *
+     * @param kind the list the token must belong to
+     * @param token the token
+     * @param size the number of key values the token must hold
+     * @return the key values
+     * @throws IllegalArgumentException if the token is malformed or belongs to another list
+     */
+    static String[] decode(String kind, String token, int size) {
+        String[] parts;
+        try {
+            parts = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8).split("\\|", -1);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid page token");
+        }
+        if (parts.length != size + 1 || !parts[0].equals(kind)) {
+            throw new IllegalArgumentException("Invalid page token");
+        }
+
+        String[] values = new String[size];
+        System.arraycopy(parts, 1, values, 0, size);
+        return values;
+    }
+}
@@ -1,6 +1,10 @@
 package com.goodtricount.dto;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
 import java.math.BigDecimal;
+import java.sql.Array;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -8,58 +12,393 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Timestamp;
 import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * Data Access Object for Payment entities.
  * Handles database operations for payments.
  */
 public class PaymentDAO {
+
+    private static final LatencyHistogram INSERT_PAYMENT = Metrics.dao("PaymentDAO.insertPayment");
+    private static final LatencyHistogram INSERT_PAYMENTS = Metrics.dao("PaymentDAO.insertPayments");
+    private static final LatencyHistogram SUGGEST_SETTLEMENT = Metrics.dao("PaymentDAO.suggestSettlement");
+    private static final LatencyHistogram CREATE_SETTLEMENT_PAYMENTS = Metrics.dao("PaymentDAO.createSettlementPayments");
+    private static final LatencyHistogram GET_PAYMENT_BY_ID = Metrics.dao("PaymentDAO.getPaymentById");
+    private static final LatencyHistogram GET_PAYMENTS_FOR_GROUP = Metrics.dao("PaymentDAO.getPaymentsForGroup");
+    private static final LatencyHistogram GET_PAYMENTS_PAGE = Metrics.dao("PaymentDAO.getPaymentsForGroup(page)");
+    private static final LatencyHistogram GET_PAYMENTS_MADE_BY_USER = Metrics.dao("PaymentDAO.getPaymentsMadeByUser");
+    private static final LatencyHistogram GET_PAYMENTS_RECEIVED_BY_USER = Metrics.dao("PaymentDAO.getPaymentsReceivedByUser");
+    private static final LatencyHistogram UPDATE_PAYMENT = Metrics.dao("PaymentDAO.updatePayment");
+    private static final LatencyHistogram CONFIRM_PAYMENT = Metrics.dao("PaymentDAO.confirmPayment");
+    private static final LatencyHistogram DELETE_PAYMENT = Metrics.dao("PaymentDAO.deletePayment");
+    private static final LatencyHistogram GET_TOTAL_PAYMENTS_MADE_BY_USER = Metrics.dao("PaymentDAO.getTotalPaymentsMadeByUser");
+    private static final LatencyHistogram GET_TOTAL_PAYMENTS_RECEIVED_BY_USER = Metrics.dao("PaymentDAO.getTotalPaymentsReceivedByUser");
+    private static final LatencyHistogram EXPORT_PAYMENTS_CSV = Metrics.dao("PaymentDAO.exportPaymentsCsv");
+    private static final LatencyHistogram IMPORT_PAYMENTS_CSV = Metrics.dao("PaymentDAO.importPaymentsCsv");
+    
+    private static final String CONFIRMED = "confirmed";
+    
+    /** Largest page returned by {@link #getPaymentsForGroup(String, String, int)}. */
+    public static final int MAX_PAGE_SIZE = 500;
+    
+    private static final String PAGE_KIND = "payments";
+    
+    /** Columns of the CSV import and export, in order. */
+    private static final String CSV_COLUMNS = "payer, receiver, amount, status, timestamp, confirmedTimestamp";
+
+    static final String GET_PENDING_PAYMENTS_SQL =
+            "SELECT payer, receiver, amount FROM Payments WHERE group_id = ? AND status = 'pending'";
+
+    static final String GET_PAYMENT_BY_ID_SQL = "SELECT * FROM Payments WHERE payment_id = ?";
+
+    static final String GET_PAYMENTS_FOR_GROUP_SQL =
+            "SELECT * FROM Payments WHERE group_id = ? ORDER BY timestamp, payment_id";
+
+    static final String GET_PAYMENTS_FIRST_PAGE_SQL =
+            "SELECT * FROM Payments WHERE group_id = ? ORDER BY timestamp, payment_id LIMIT ?";
+
+    static final String GET_PAYMENTS_PAGE_SQL =
+            "SELECT * FROM Payments WHERE group_id = ? AND (timestamp, payment_id) > (?, ?) " +
+            "ORDER BY timestamp, payment_id LIMIT ?";
+
+    static final String GET_PAYMENTS_MADE_BY_USER_SQL = "SELECT * FROM Payments WHERE group_id = ? AND payer = ?";
+
+    static final String GET_PAYMENTS_RECEIVED_BY_USER_SQL =
+            "SELECT * FROM Payments WHERE group_id = ? AND receiver = ?";
+
+    static final String LOCK_PAYMENT_SQL =
+            "SELECT group_id, payer, receiver, amount, status FROM Payments WHERE payment_id = ? FOR UPDATE";
+
+    static final String UPDATE_PAYMENT_SQL =
+            "UPDATE Payments SET payer = ?, receiver = ?, amount = ?, status = ?, timestamp = ?, confirmedTimestamp = ? " +
+            "WHERE payment_id = ?";
+
+    // Locks the row and captures its previous status in the same statement
+    static final String CONFIRM_PAYMENT_SQL =
+            "UPDATE Payments p SET status = 'confirmed', confirmedTimestamp = ? " +
+            "FROM (SELECT payment_id, status FROM Payments WHERE payment_id = ? FOR UPDATE) previous " +
+            "WHERE p.payment_id = previous.payment_id " +
+            "RETURNING p.group_id, p.payer, p.receiver, p.amount, previous.status AS previous_status";
+
+    static final String DELETE_PAYMENT_SQL =
+            "DELETE FROM Payments WHERE payment_id = ? RETURNING group_id, payer, receiver, amount, status";
+
+    static final String GET_TOTAL_PAYMENTS_MADE_BY_USER_SQL =
+            "SELECT SUM(amount) FROM Payments WHERE group_id = ? AND payer = ? AND status = 'confirmed'";
+
+    static final String GET_TOTAL_PAYMENTS_RECEIVED_BY_USER_SQL =
+            "SELECT SUM(amount) FROM Payments WHERE group_id = ? AND receiver = ? AND status = 'confirmed'";
+    
+    /** Group commit of {@link #insertPayment}, or null unless {@code db.batch.payments.enabled}. */
+    private static final InsertBatcher<PaymentDTO> INSERT_BATCHER =
+            InsertBatcher.fromEnvironment("payments", PaymentDAO::insertPaymentBatch, PaymentDAO::insertPaymentAlone);
+    
+    private final SettlementSolver solver = new SettlementSolver();
     
     /**
      * Insert a new payment into the database.
+     * With {@code db.batch.payments.enabled}, concurrent inserts are committed together in
+     * batches (see {@link InsertBatcher}); the call still returns once its payment is committed.
      * 
      * @param groupId the ID of the group the payment belongs to
      * @param payment the payment to insert
      * @return the ID of the inserted payment, or -1 if the insertion failed
      */
     public int insertPayment(String groupId, PaymentDTO payment) {
+        long start = System.nanoTime();
+        int paymentId = INSERT_BATCHER != null
+                ? INSERT_BATCHER.insert(groupId, payment)
+                : insertPaymentAlone(groupId, payment);
+        if (paymentId < 0) {
+            INSERT_PAYMENT.error();
+        }
+        INSERT_PAYMENT.record(start);
+        return paymentId;
+    }
+    
+    /**
+     * Insert a payment in a transaction of its own.
+     */
+    private static int insertPaymentAlone(String groupId, PaymentDTO payment) {
         String sql = "INSERT INTO Payments (group_id, payer, receiver, amount, status, timestamp, confirmedTimestamp) " +
                      "VALUES (?, ?, ?, ?, ?, ?, ?)";
         
-        try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            conn.setAutoCommit(false);
+            
+            try (PreparedStatement pstmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+                pstmt.setString(1, groupId);
+                pstmt.setString(2, payment.getPayer());
+                pstmt.setString(3, payment.getReceiver());
+                Money.bind(pstmt, 4, payment.getMoney());
+                pstmt.setString(5, payment.getStatus());
+                pstmt.setTimestamp(6, Timestamp.valueOf(payment.getTimestamp()));
+                
+                if (payment.getConfirmedTimestamp() != null) {
+                    pstmt.setTimestamp(7, Timestamp.valueOf(payment.getConfirmedTimestamp()));
+                } else {
+                    pstmt.setNull(7, java.sql.Types.TIMESTAMP);
+                }
+                
+                int rowsAffected = pstmt.executeUpdate();
+                
+                if (rowsAffected > 0) {
+                    try (ResultSet rs = pstmt.getGeneratedKeys()) {
+                        if (rs.next()) {
+                            int paymentId = rs.getInt(1);
+                            GroupChangeDAO.recordChanges(conn, groupId, GroupChangeDAO.PAYMENT, paymentId);
+                            if (CONFIRMED.equals(payment.getStatus())) {
+                                BalanceDAO.applyPayment(conn, groupId, payment.getPayer(), payment.getReceiver(),
+                                                        payment.getMoney().getCents());
+                            }
+                            conn.commit();
+                            return paymentId;
+                        }
+                    }
+                }
+                
+                conn.rollback();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
             
-            pstmt.setString(1, groupId);
-            pstmt.setString(2, payment.getPayer());
-            pstmt.setString(3, payment.getReceiver());
-            pstmt.setBigDecimal(4, payment.getAmount());
-            pstmt.setString(5, payment.getStatus());
-            pstmt.setTimestamp(6, Timestamp.valueOf(payment.getTimestamp()));
-            
-            if (payment.getConfirmedTimestamp() != null) {
-                pstmt.setTimestamp(7, Timestamp.valueOf(payment.getConfirmedTimestamp()));
-            } else {
-                pstmt.setNull(7, java.sql.Types.TIMESTAMP);
+        } catch (SQLException e) {
+            System.out.println("Error inserting payment: " + e.getMessage());
+            e.printStackTrace();
+        }
+        
+        return -1;
+    }
+    
+    /**
+     * Insert a batch of payments with one statement, in the caller's transaction, and update the
+     * balances and versions of their groups. Groups are updated in ID order, and balances in
+     * username order, so that concurrent batches cannot deadlock.
+     */
+    private static int[] insertPaymentBatch(Connection conn, List<InsertBatcher.Row<PaymentDTO>> rows)
+            throws SQLException {
+        // The rows of INSERT ... RETURNING come in no guaranteed order, so the IDs are drawn first,
+        // the k-th row inserted with the k-th of them, and the drawn IDs returned in that order
+        String sql = "WITH reserved AS (SELECT array_agg(nextval(pg_get_serial_sequence('payments', 'payment_id')))::int[] AS ids " +
+                     "FROM generate_series(1, ?)), " +
+                     "inserted AS (INSERT INTO Payments (payment_id, group_id, payer, receiver, amount, status, timestamp, confirmedTimestamp) " +
+                     "SELECT r.ids[u.ord::int], u.group_id, u.payer, u.receiver, u.amount, u.status, u.timestamp, u.confirmedTimestamp " +
+                     "FROM reserved r, unnest(?::varchar[], ?::varchar[], ?::varchar[], ?::bigint[], ?::varchar[], " +
+                     "?::timestamp[], ?::timestamp[]) " +
+                     "WITH ORDINALITY AS u(group_id, payer, receiver, amount, status, timestamp, confirmedTimestamp, ord)) " +
+                     "SELECT ids FROM reserved";
+        
+        String[] groupIds = new String[rows.size()];
+        String[] payers = new String[rows.size()];
+        String[] receivers = new String[rows.size()];
+        Long[] amounts = new Long[rows.size()];
+        String[] statuses = new String[rows.size()];
+        Timestamp[] timestamps = new Timestamp[rows.size()];
+        Timestamp[] confirmedTimestamps = new Timestamp[rows.size()];
+        for (int i = 0; i < groupIds.length; i++) {
+            PaymentDTO payment = rows.get(i).value;
+            groupIds[i] = rows.get(i).groupId;
+            payers[i] = payment.getPayer();
+            receivers[i] = payment.getReceiver();
+            amounts[i] = payment.getMoney() != null ? payment.getMoney().getCents() : null;
+            statuses[i] = payment.getStatus();
+            timestamps[i] = payment.getTimestamp() != null ? Timestamp.valueOf(payment.getTimestamp()) : null;
+            confirmedTimestamps[i] = payment.getConfirmedTimestamp() != null
+                    ? Timestamp.valueOf(payment.getConfirmedTimestamp()) : null;
+        }
+        
+        Array[] columns = {
+            conn.createArrayOf("varchar", groupIds),
+            conn.createArrayOf("varchar", payers),
+            conn.createArrayOf("varchar", receivers),
+            conn.createArrayOf("bigint", amounts),
+            conn.createArrayOf("varchar", statuses),
+            conn.createArrayOf("timestamp", timestamps),
+            conn.createArrayOf("timestamp", confirmedTimestamps)
+        };
+        int[] paymentIds;
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setInt(1, rows.size());
+            for (int i = 0; i < columns.length; i++) {
+                pstmt.setArray(i + 2, columns[i]);
             }
             
-            int rowsAffected = pstmt.executeUpdate();
+            try (ResultSet rs = pstmt.executeQuery()) {
+                paymentIds = InsertBatcher.readIds(rs, rows.size());
+            }
+        } finally {
+            for (Array column : columns) {
+                column.free();
+            }
+        }
+        
+        Map<String, GroupLedger> ledgers = new TreeMap<>();
+        Map<String, List<Integer>> idsByGroup = new TreeMap<>();
+        for (int i = 0; i < paymentIds.length; i++) {
+            GroupLedger ledger = ledgers.computeIfAbsent(groupIds[i], GroupLedger::new);
+            if (CONFIRMED.equals(statuses[i])) {
+                ledger.addPayment(ledger.intern(payers[i]), ledger.intern(receivers[i]), amounts[i]);
+            }
+            idsByGroup.computeIfAbsent(groupIds[i], id -> new ArrayList<>()).add(paymentIds[i]);
+        }
+        for (GroupLedger ledger : ledgers.values()) {
+            List<Integer> ids = idsByGroup.get(ledger.getGroupId());
+            int[] groupPaymentIds = new int[ids.size()];
+            for (int i = 0; i < groupPaymentIds.length; i++) {
+                groupPaymentIds[i] = ids.get(i);
+            }
+            GroupChangeDAO.recordChanges(conn, ledger.getGroupId(), GroupChangeDAO.PAYMENT, groupPaymentIds);
+            BalanceDAO.applyTotals(conn, ledger);
+        }
+        
+        return paymentIds;
+    }
+    
+    /**
+     * Insert several payments into the database in one transaction and one statement.
+     * 
+     * @param groupId the ID of the group the payments belong to
+     * @param payments the payments to insert
+     * @return the IDs of the inserted payments in the same order, or an empty array if the insertion failed
+     */
+    public int[] insertPayments(String groupId, List<PaymentDTO> payments) {
+        long start = System.nanoTime();
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            conn.setAutoCommit(false);
+            
+            try {
+                int[] paymentIds = insertPayments(groupId, payments, conn);
+                conn.commit();
+                return paymentIds;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
             
-            if (rowsAffected > 0) {
-                try (ResultSet rs = pstmt.getGeneratedKeys()) {
-                    if (rs.next()) {
-                        return rs.getInt(1);
+        } catch (SQLException e) {
+            INSERT_PAYMENTS.error();
+            System.out.println("Error inserting payments: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            INSERT_PAYMENTS.record(start);
+        }
+        
+        return new int[0];
+    }
+    
+    /**
+     * Insert several payments using the given connection, like a batch of {@link #insertPayment},
+     * updating the balances of confirmed ones.
+     * 
+     * @param groupId the ID of the group the payments belong to
+     * @param payments the payments to insert
+     * @param conn the database connection, inside a transaction
+     * @return the IDs of the inserted payments in the same order
+     * @throws SQLException if a database access error occurs
+     */
+    private int[] insertPayments(String groupId, List<PaymentDTO> payments, Connection conn) throws SQLException {
+        if (payments.isEmpty()) {
+            return new int[0];
+        }
+        
+        List<InsertBatcher.Row<PaymentDTO>> rows = new ArrayList<>(payments.size());
+        for (PaymentDTO payment : payments) {
+            rows.add(new InsertBatcher.Row<>(groupId, payment));
+        }
+        return insertPaymentBatch(conn, rows);
+    }
+    
+    /**
+     * Compute the payments that would settle a group, without storing them.
+     * Pending payments are counted as if they were already confirmed, so only the
+     * debts not covered by them are suggested.
+     * 
+     * @param groupId the ID of the group
+     * @return the suggested payments
+     */
+    public List<PaymentDTO> suggestSettlement(String groupId) {
+        long start = System.nanoTime();
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            return suggestSettlement(groupId, conn);
+        } catch (SQLException e) {
+            SUGGEST_SETTLEMENT.error();
+            System.out.println("Error suggesting settlement: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            SUGGEST_SETTLEMENT.record(start);
+        }
+        
+        return new ArrayList<>();
+    }
+    
+    /**
+     * Create the pending payments that settle a group, in one transaction and one batch.
+     * Concurrent calls for the same group are serialized, so the payments are never created twice.
+     * 
+     * @param groupId the ID of the group
+     * @return the created payments with their IDs, or an empty list if nothing was owed or the operation failed
+     */
+    public List<PaymentDTO> createSettlementPayments(String groupId) {
+        long start = System.nanoTime();
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            conn.setAutoCommit(false);
+            
+            try {
+                try (PreparedStatement lock = conn.prepareStatement("SELECT pg_advisory_xact_lock(hashtext(?))")) {
+                    lock.setString(1, "settlement:" + groupId);
+                    lock.execute();
+                }
+                
+                List<PaymentDTO> payments = suggestSettlement(groupId, conn);
+                if (!payments.isEmpty()) {
+                    int[] paymentIds = insertPayments(groupId, payments, conn);
+                    for (int i = 0; i < paymentIds.length; i++) {
+                        payments.get(i).setId(paymentIds[i]);
                     }
                 }
+                conn.commit();
+                return payments;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
             }
             
         } catch (SQLException e) {
-            System.out.println("Error inserting payment: " + e.getMessage());
+            CREATE_SETTLEMENT_PAYMENTS.error();
+            System.out.println("Error creating settlement payments: " + e.getMessage());
             e.printStackTrace();
+        } finally {
+            CREATE_SETTLEMENT_PAYMENTS.record(start);
         }
         
-        return -1;
+        return new ArrayList<>();
+    }
+    
+    private List<PaymentDTO> suggestSettlement(String groupId, Connection conn) throws SQLException {
+        GroupLedger ledger = BalanceDAO.loadLedger(groupId, conn);
+        
+        // Pending payments are counted as if confirmed, so that they are not suggested again
+        try (PreparedStatement pstmt = conn.prepareStatement(GET_PENDING_PAYMENTS_SQL)) {
+            pstmt.setString(1, groupId);
+            
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    int payer = ledger.indexOf(rs.getString("payer"));
+                    int receiver = ledger.indexOf(rs.getString("receiver"));
+                    if (payer >= 0 && receiver >= 0) {
+                        ledger.addPayment(payer, receiver, rs.getLong("amount"));
+                    }
+                }
+            }
+        }
+        
+        return solver.settle(ledger);
     }
     
     /**
@@ -69,34 +408,24 @@ public class PaymentDAO {
      * @return the payment, or null if not found
      */
     public PaymentDTO getPaymentById(int paymentId) {
-        String sql = "SELECT * FROM Payments WHERE payment_id = ?";
-        
+        long start = System.nanoTime();
         try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+             PreparedStatement pstmt = conn.prepareStatement(GET_PAYMENT_BY_ID_SQL)) {
             
             pstmt.setInt(1, paymentId);
             
             try (ResultSet rs = pstmt.executeQuery()) {
                 if (rs.next()) {
-                    PaymentDTO payment = new PaymentDTO();
-                    payment.setPayer(rs.getString("payer"));
-                    payment.setReceiver(rs.getString("receiver"));
-                    payment.setAmount(rs.getBigDecimal("amount"));
-                    payment.setStatus(rs.getString("status"));
-                    payment.setTimestamp(rs.getTimestamp("timestamp").toLocalDateTime());
-                    
-                    Timestamp confirmedTimestamp = rs.getTimestamp("confirmedTimestamp");
-                    if (confirmedTimestamp != null) {
-                        payment.setConfirmedTimestamp(confirmedTimestamp.toLocalDateTime());
-                    }
-                    
-                    return payment;
+                    return mapPayment(rs);
                 }
             }
             
         } catch (SQLException e) {
+            GET_PAYMENT_BY_ID.error();
             System.out.println("Error getting payment: " + e.getMessage());
             e.printStackTrace();
+        } finally {
+            GET_PAYMENT_BY_ID.record(start);
         }
         
         return null;
@@ -110,39 +439,97 @@ public class PaymentDAO {
      */
     public List<PaymentDTO> getPaymentsForGroup(String groupId) {
         List<PaymentDTO> payments = new ArrayList<>();
-        String sql = "SELECT * FROM Payments WHERE group_id = ?";
         
+        long start = System.nanoTime();
         try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+             PreparedStatement pstmt = conn.prepareStatement(GET_PAYMENTS_FOR_GROUP_SQL)) {
             
             pstmt.setString(1, groupId);
             
             try (ResultSet rs = pstmt.executeQuery()) {
                 while (rs.next()) {
-                    PaymentDTO payment = new PaymentDTO();
-                    payment.setPayer(rs.getString("payer"));
-                    payment.setReceiver(rs.getString("receiver"));
-                    payment.setAmount(rs.getBigDecimal("amount"));
-                    payment.setStatus(rs.getString("status"));
-                    payment.setTimestamp(rs.getTimestamp("timestamp").toLocalDateTime());
-                    
-                    Timestamp confirmedTimestamp = rs.getTimestamp("confirmedTimestamp");
-                    if (confirmedTimestamp != null) {
-                        payment.setConfirmedTimestamp(confirmedTimestamp.toLocalDateTime());
-                    }
-                    
-                    payments.add(payment);
+                    payments.add(mapPayment(rs));
                 }
             }
             
         } catch (SQLException e) {
+            GET_PAYMENTS_FOR_GROUP.error();
             System.out.println("Error getting payments for group: " + e.getMessage());
             e.printStackTrace();
+        } finally {
+            GET_PAYMENTS_FOR_GROUP.record(start);
         }
         
         return payments;
     }
     
+    /**
+     * Get one page of the payments of a group, oldest first.
+     * Pages are read by key (timestamp, payment_id) rather than by offset, so every page costs
+     * the same however long the history of the group is.
+     * 
+     * @param groupId the ID of the group
+     * @param pageToken the token returned with the previous page, or null for the first page
+     * @param limit the maximum number of payments, capped at {@link #MAX_PAGE_SIZE}
+     * @return the page, or null if the payments could not be read
+     * @throws IllegalArgumentException if the page token is invalid
+     */
+    public Page<PaymentDTO> getPaymentsForGroup(String groupId, String pageToken, int limit) {
+        LocalDateTime afterTimestamp = null;
+        int afterId = 0;
+        if (pageToken != null) {
+            String[] key = PageToken.decode(PAGE_KIND, pageToken, 2);
+            try {
+                afterTimestamp = LocalDateTime.parse(key[0]);
+                afterId = Integer.parseInt(key[1]);
+            } catch (DateTimeParseException | NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid page token");
+            }
+        }
+        int size = Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+        
+        List<PaymentDTO> payments = new ArrayList<>();
+        String sql = afterTimestamp == null ? GET_PAYMENTS_FIRST_PAGE_SQL : GET_PAYMENTS_PAGE_SQL;
+        
+        long start = System.nanoTime();
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            
+            int index = 1;
+            pstmt.setString(index++, groupId);
+            if (afterTimestamp != null) {
+                pstmt.setObject(index++, afterTimestamp);
+                pstmt.setInt(index++, afterId);
+            }
+            // One extra row tells whether there is a next page
+            pstmt.setInt(index, size + 1);
+            
+            LocalDateTime lastTimestamp = null;
+            int lastId = 0;
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    if (payments.size() == size) {
+                        String token = PageToken.encode(PAGE_KIND, lastTimestamp.toString(), Integer.toString(lastId));
+                        return new Page<>(payments, token);
+                    }
+                    payments.add(mapPayment(rs));
+                    lastTimestamp = rs.getObject("timestamp", LocalDateTime.class);
+                    lastId = rs.getInt("payment_id");
+                }
+            }
+            return new Page<>(payments, null);
+            
+        } catch (SQLException e) {
+            GET_PAYMENTS_PAGE.error();
+            System.out.println("Error getting payments page for group: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            GET_PAYMENTS_PAGE.record(start);
+        }
+        
+        return null;
+    }
+    
     /**
      * Get payments made by a user in a group.
      * 
@@ -152,35 +539,26 @@ public class PaymentDAO {
      */
     public List<PaymentDTO> getPaymentsMadeByUser(String groupId, String username) {
         List<PaymentDTO> payments = new ArrayList<>();
-        String sql = "SELECT * FROM Payments WHERE group_id = ? AND payer = ?";
         
+        long start = System.nanoTime();
         try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+             PreparedStatement pstmt = conn.prepareStatement(GET_PAYMENTS_MADE_BY_USER_SQL)) {
             
             pstmt.setString(1, groupId);
             pstmt.setString(2, username);
             
             try (ResultSet rs = pstmt.executeQuery()) {
                 while (rs.next()) {
-                    PaymentDTO payment = new PaymentDTO();
-                    payment.setPayer(rs.getString("payer"));
-                    payment.setReceiver(rs.getString("receiver"));
-                    payment.setAmount(rs.getBigDecimal("amount"));
-                    payment.setStatus(rs.getString("status"));
-                    payment.setTimestamp(rs.getTimestamp("timestamp").toLocalDateTime());
-                    
-                    Timestamp confirmedTimestamp = rs.getTimestamp("confirmedTimestamp");
-                    if (confirmedTimestamp != null) {
-                        payment.setConfirmedTimestamp(confirmedTimestamp.toLocalDateTime());
-                    }
-                    
-                    payments.add(payment);
+                    payments.add(mapPayment(rs));
                 }
             }
             
         } catch (SQLException e) {
+            GET_PAYMENTS_MADE_BY_USER.error();
             System.out.println("Error getting payments made by user: " + e.getMessage());
             e.printStackTrace();
+        } finally {
+            GET_PAYMENTS_MADE_BY_USER.record(start);
         }
         
         return payments;
@@ -195,35 +573,26 @@ public class PaymentDAO {
      */
     public List<PaymentDTO> getPaymentsReceivedByUser(String groupId, String username) {
         List<PaymentDTO> payments = new ArrayList<>();
-        String sql = "SELECT * FROM Payments WHERE group_id = ? AND receiver = ?";
         
+        long start = System.nanoTime();
         try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+             PreparedStatement pstmt = conn.prepareStatement(GET_PAYMENTS_RECEIVED_BY_USER_SQL)) {
             
             pstmt.setString(1, groupId);
             pstmt.setString(2, username);
             
             try (ResultSet rs = pstmt.executeQuery()) {
                 while (rs.next()) {
-                    PaymentDTO payment = new PaymentDTO();
-                    payment.setPayer(rs.getString("payer"));
-                    payment.setReceiver(rs.getString("receiver"));
-                    payment.setAmount(rs.getBigDecimal("amount"));
-                    payment.setStatus(rs.getString("status"));
-                    payment.setTimestamp(rs.getTimestamp("timestamp").toLocalDateTime());
-                    
-                    Timestamp confirmedTimestamp = rs.getTimestamp("confirmedTimestamp");
-                    if (confirmedTimestamp != null) {
-                        payment.setConfirmedTimestamp(confirmedTimestamp.toLocalDateTime());
-                    }
-                    
-                    payments.add(payment);
+                    payments.add(mapPayment(rs));
                 }
             }
             
         } catch (SQLException e) {
+            GET_PAYMENTS_RECEIVED_BY_USER.error();
             System.out.println("Error getting payments received by user: " + e.getMessage());
             e.printStackTrace();
+        } finally {
+            GET_PAYMENTS_RECEIVED_BY_USER.record(start);
         }
         
         return payments;
@@ -237,33 +606,64 @@ public class PaymentDAO {
      * @return true if the payment was updated successfully, false otherwise
      */
     public boolean updatePayment(int paymentId, PaymentDTO payment) {
-        String sql = "UPDATE Payments SET payer = ?, receiver = ?, amount = ?, status = ?, timestamp = ?, confirmedTimestamp = ? " +
-                     "WHERE payment_id = ?";
-        
-        try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            
-            pstmt.setString(1, payment.getPayer());
-            pstmt.setString(2, payment.getReceiver());
-            pstmt.setBigDecimal(3, payment.getAmount());
-            pstmt.setString(4, payment.getStatus());
-            pstmt.setTimestamp(5, Timestamp.valueOf(payment.getTimestamp()));
-            
-            if (payment.getConfirmedTimestamp() != null) {
-                pstmt.setTimestamp(6, Timestamp.valueOf(payment.getConfirmedTimestamp()));
-            } else {
-                pstmt.setNull(6, java.sql.Types.TIMESTAMP);
+        long start = System.nanoTime();
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            conn.setAutoCommit(false);
+            
+            try (PreparedStatement select = conn.prepareStatement(LOCK_PAYMENT_SQL);
+                 PreparedStatement pstmt = conn.prepareStatement(UPDATE_PAYMENT_SQL)) {
+                
+                select.setInt(1, paymentId);
+                
+                try (ResultSet rs = select.executeQuery()) {
+                    if (!rs.next()) {
+                        conn.rollback();
+                        return false;
+                    }
+                    
+                    pstmt.setString(1, payment.getPayer());
+                    pstmt.setString(2, payment.getReceiver());
+                    Money.bind(pstmt, 3, payment.getMoney());
+                    pstmt.setString(4, payment.getStatus());
+                    pstmt.setTimestamp(5, Timestamp.valueOf(payment.getTimestamp()));
+                    
+                    if (payment.getConfirmedTimestamp() != null) {
+                        pstmt.setTimestamp(6, Timestamp.valueOf(payment.getConfirmedTimestamp()));
+                    } else {
+                        pstmt.setNull(6, java.sql.Types.TIMESTAMP);
+                    }
+                    
+                    pstmt.setInt(7, paymentId);
+                    pstmt.executeUpdate();
+                    
+                    // Only confirmed payments count towards the balances
+                    String groupId = rs.getString("group_id");
+                    GroupChangeDAO.recordChanges(conn, groupId, GroupChangeDAO.PAYMENT, paymentId);
+                    if (CONFIRMED.equals(rs.getString("status"))) {
+                        BalanceDAO.applyPayment(conn, groupId, rs.getString("payer"), rs.getString("receiver"),
+                                                -rs.getLong("amount"));
+                    }
+                    if (CONFIRMED.equals(payment.getStatus())) {
+                        BalanceDAO.applyPayment(conn, groupId, payment.getPayer(), payment.getReceiver(),
+                                                payment.getMoney().getCents());
+                    }
+                }
+                
+                conn.commit();
+                return true;
+                
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
             }
             
-            pstmt.setInt(7, paymentId);
-            
-            int rowsAffected = pstmt.executeUpdate();
-            return rowsAffected > 0;
-            
         } catch (SQLException e) {
+            UPDATE_PAYMENT.error();
             System.out.println("Error updating payment: " + e.getMessage());
             e.printStackTrace();
             return false;
+        } finally {
+            UPDATE_PAYMENT.record(start);
         }
     }
     
@@ -274,21 +674,42 @@ public class PaymentDAO {
      * @return true if the payment was confirmed successfully, false otherwise
      */
     public boolean confirmPayment(int paymentId) {
-        String sql = "UPDATE Payments SET status = 'confirmed', confirmedTimestamp = ? WHERE payment_id = ?";
-        
-        try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            
-            pstmt.setTimestamp(1, Timestamp.valueOf(LocalDateTime.now()));
-            pstmt.setInt(2, paymentId);
-            
-            int rowsAffected = pstmt.executeUpdate();
-            return rowsAffected > 0;
+        long start = System.nanoTime();
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            conn.setAutoCommit(false);
+            
+            try (PreparedStatement pstmt = conn.prepareStatement(CONFIRM_PAYMENT_SQL)) {
+                pstmt.setTimestamp(1, Timestamp.valueOf(LocalDateTime.now()));
+                pstmt.setInt(2, paymentId);
+                
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (!rs.next()) {
+                        conn.rollback();
+                        return false;
+                    }
+                    
+                    GroupChangeDAO.recordChanges(conn, rs.getString("group_id"), GroupChangeDAO.PAYMENT, paymentId);
+                    if (!CONFIRMED.equals(rs.getString("previous_status"))) {
+                        BalanceDAO.applyPayment(conn, rs.getString("group_id"), rs.getString("payer"),
+                                                rs.getString("receiver"), rs.getLong("amount"));
+                    }
+                }
+                
+                conn.commit();
+                return true;
+                
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
             
         } catch (SQLException e) {
+            CONFIRM_PAYMENT.error();
             System.out.println("Error confirming payment: " + e.getMessage());
             e.printStackTrace();
             return false;
+        } finally {
+            CONFIRM_PAYMENT.record(start);
         }
     }
     
@@ -299,20 +720,159 @@ public class PaymentDAO {
      * @return true if the payment was deleted successfully, false otherwise
      */
     public boolean deletePayment(int paymentId) {
-        String sql = "DELETE FROM Payments WHERE payment_id = ?";
-        
-        try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            
-            pstmt.setInt(1, paymentId);
-            
-            int rowsAffected = pstmt.executeUpdate();
-            return rowsAffected > 0;
+        long start = System.nanoTime();
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            conn.setAutoCommit(false);
+            
+            try (PreparedStatement pstmt = conn.prepareStatement(DELETE_PAYMENT_SQL)) {
+                pstmt.setInt(1, paymentId);
+                
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (!rs.next()) {
+                        conn.rollback();
+                        return false;
+                    }
+                    
+                    GroupChangeDAO.recordChanges(conn, rs.getString("group_id"), GroupChangeDAO.PAYMENT, paymentId);
+                    if (CONFIRMED.equals(rs.getString("status"))) {
+                        BalanceDAO.applyPayment(conn, rs.getString("group_id"), rs.getString("payer"),
+                                                rs.getString("receiver"), -rs.getLong("amount"));
+                    }
+                }
+                
+                conn.commit();
+                return true;
+                
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
             
         } catch (SQLException e) {
+            DELETE_PAYMENT.error();
             System.out.println("Error deleting payment: " + e.getMessage());
             e.printStackTrace();
             return false;
+        } finally {
+            DELETE_PAYMENT.record(start);
+        }
+    }
+    
+    /**
+     * Write the payments of a group as CSV ({@value #CSV_COLUMNS}, with a header), oldest first.
+     * The rows are streamed by PostgreSQL's {@code COPY ... TO STDOUT}.
+     * 
+     * @param groupId the ID of the group
+     * @param out the writer to write to; it is flushed but not closed
+     * @return the number of payments written
+     * @throws IOException if writing fails or the payments cannot be read
+     */
+    public long exportPaymentsCsv(String groupId, Writer out) throws IOException {
+        String query = "SELECT payer, receiver, " + Money.sqlDecimal("amount") +
+                       ", status, timestamp, confirmedTimestamp FROM Payments WHERE group_id = " + CsvCopy.literal(groupId) +
+                       " ORDER BY timestamp, payment_id";
+        
+        long start = System.nanoTime();
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            conn.setAutoCommit(false);
+            CsvCopy.disableStatementTimeout(conn);
+            long rows = CsvCopy.copyOut(conn, query, out);
+            conn.commit();
+            return rows;
+            
+        } catch (SQLException e) {
+            EXPORT_PAYMENTS_CSV.error();
+            System.out.println("Error exporting payments: " + e.getMessage());
+            e.printStackTrace();
+            throw new IOException("Error exporting payments of group " + groupId, e);
+        } finally {
+            EXPORT_PAYMENTS_CSV.record(start);
+        }
+    }
+    
+    /**
+     * Import payments into a group from CSV ({@value #CSV_COLUMNS}, with a header, as written by
+     * {@link #exportPaymentsCsv(String, Writer)}). Timestamps are ISO-8601 local date-times; a space
+     * may replace the {@code T}. confirmedTimestamp may be empty.
+     * The input is validated while it is streamed into PostgreSQL's {@code COPY ... FROM STDIN},
+     * and the balances of the group are updated once per payer and receiver for the confirmed
+     * payments. Either every row is imported or, if any row is invalid, none is.
+     * 
+     * @param groupId the ID of the group
+     * @param in the CSV to read
+     * @return the number of payments imported, or -1 if the import failed
+     * @throws IllegalArgumentException if the group does not exist or a row is invalid; the message tells which row
+     * @throws IOException if reading the input fails
+     */
+    public long importPaymentsCsv(String groupId, Reader in) throws IOException {
+        long start = System.nanoTime();
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            conn.setAutoCommit(false);
+            
+            CsvCopy.Rows rows = null;
+            try {
+                CsvCopy.disableStatementTimeout(conn);
+                // The version first: it locks the group, so the new rows are the ones after lastId
+                long version = GroupChangeDAO.recordChanges(conn, groupId, GroupChangeDAO.PAYMENT);
+                int lastId = GroupChangeDAO.lastId(conn, groupId, GroupChangeDAO.PAYMENT);
+                GroupLedger ledger = CsvCopy.lockGroupParticipants(conn, groupId);
+                
+                CsvReader csv = new CsvReader(in);
+                CsvCopy.checkHeader(csv.next(), CSV_COLUMNS.split(", "));
+                
+                rows = new CsvCopy.Rows(conn, "Payments", "group_id, " + CSV_COLUMNS);
+                String[] fields;
+                while ((fields = csv.next()) != null) {
+                    CsvCopy.checkFields(csv, fields, 6);
+                    int payer = CsvCopy.participant(csv, ledger, fields[0], "payer");
+                    int receiver = CsvCopy.participant(csv, ledger, fields[1], "receiver");
+                    long amount = CsvCopy.amount(csv, fields[2]);
+                    String status = fields[3];
+                    if (!CONFIRMED.equals(status) && !"pending".equals(status)) {
+                        throw CsvCopy.invalid(csv, "status must be pending or confirmed");
+                    }
+                    LocalDateTime timestamp = csvTimestamp(csv, fields[4], "timestamp");
+                    LocalDateTime confirmedTimestamp = fields[5].isEmpty() ? null
+                            : csvTimestamp(csv, fields[5], "confirmedTimestamp");
+                    
+                    rows.field(groupId).field(fields[0]).field(fields[1]).field(Long.toString(amount)).field(status)
+                        .field(timestamp.toString())
+                        .field(confirmedTimestamp == null ? null : confirmedTimestamp.toString())
+                        .endRow();
+                    if (CONFIRMED.equals(status)) {
+                        ledger.addPayment(payer, receiver, amount);
+                    }
+                }
+                long imported = rows.finish();
+                
+                BalanceDAO.applyTotals(conn, ledger);
+                GroupChangeDAO.recordInserted(conn, groupId, version, GroupChangeDAO.PAYMENT, lastId);
+                
+                conn.commit();
+                return imported;
+            } catch (SQLException | IOException | RuntimeException e) {
+                if (rows != null) {
+                    rows.cancel();
+                }
+                conn.rollback();
+                throw e;
+            }
+            
+        } catch (SQLException e) {
+            IMPORT_PAYMENTS_CSV.error();
+            System.out.println("Error importing payments: " + e.getMessage());
+            e.printStackTrace();
+            return -1;
+        } finally {
+            IMPORT_PAYMENTS_CSV.record(start);
+        }
+    }
+    
+    private static LocalDateTime csvTimestamp(CsvReader csv, String value, String column) {
+        try {
+            return LocalDateTime.parse(value.trim().replace(' ', 'T'));
+        } catch (DateTimeParseException e) {
+            throw CsvCopy.invalid(csv, "invalid " + column + " '" + value + "'");
         }
     }
     
@@ -324,24 +884,25 @@ public class PaymentDAO {
      * @return the total amount of payments made by the user
      */
     public BigDecimal getTotalPaymentsMadeByUser(String groupId, String username) {
-        String sql = "SELECT SUM(amount) FROM Payments WHERE group_id = ? AND payer = ? AND status = 'confirmed'";
-        
+        long start = System.nanoTime();
         try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+             PreparedStatement pstmt = conn.prepareStatement(GET_TOTAL_PAYMENTS_MADE_BY_USER_SQL)) {
             
             pstmt.setString(1, groupId);
             pstmt.setString(2, username);
             
             try (ResultSet rs = pstmt.executeQuery()) {
                 if (rs.next()) {
-                    BigDecimal result = rs.getBigDecimal(1);
-                    return result != null ? result : BigDecimal.ZERO;
+                    return Money.ofCents(rs.getLong(1)).toBigDecimal();
                 }
             }
             
         } catch (SQLException e) {
+            GET_TOTAL_PAYMENTS_MADE_BY_USER.error();
             System.out.println("Error getting total payments made by user: " + e.getMessage());
             e.printStackTrace();
+        } finally {
+            GET_TOTAL_PAYMENTS_MADE_BY_USER.record(start);
         }
         
         return BigDecimal.ZERO;
@@ -355,26 +916,51 @@ public class PaymentDAO {
      * @return the total amount of payments received by the user
      */
     public BigDecimal getTotalPaymentsReceivedByUser(String groupId, String username) {
-        String sql = "SELECT SUM(amount) FROM Payments WHERE group_id = ? AND receiver = ? AND status = 'confirmed'";
-        
+        long start = System.nanoTime();
         try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+             PreparedStatement pstmt = conn.prepareStatement(GET_TOTAL_PAYMENTS_RECEIVED_BY_USER_SQL)) {
             
             pstmt.setString(1, groupId);
             pstmt.setString(2, username);
             
             try (ResultSet rs = pstmt.executeQuery()) {
                 if (rs.next()) {
-                    BigDecimal result = rs.getBigDecimal(1);
-                    return result != null ? result : BigDecimal.ZERO;
+                    return Money.ofCents(rs.getLong(1)).toBigDecimal();
                 }
             }
             
         } catch (SQLException e) {
+            GET_TOTAL_PAYMENTS_RECEIVED_BY_USER.error();
             System.out.println("Error getting total payments received by user: " + e.getMessage());
             e.printStackTrace();
+        } finally {
+            GET_TOTAL_PAYMENTS_RECEIVED_BY_USER.record(start);
         }
         
         return BigDecimal.ZERO;
     }
+    
+    /**
+     * Map the current row of a result set to a payment.
+     * 
+     * @param rs the result set, positioned on a Payments row
+     * @return the payment
+     * @throws SQLException if a database access error occurs
+     */
+    static PaymentDTO mapPayment(ResultSet rs) throws SQLException {
+        PaymentDTO payment = new PaymentDTO();
+        payment.setId(rs.getInt("payment_id"));
+        payment.setPayer(rs.getString("payer"));
+        payment.setReceiver(rs.getString("receiver"));
+        payment.setMoney(Money.read(rs, "amount"));
+        payment.setStatus(rs.getString("status"));
+        payment.setTimestamp(rs.getTimestamp("timestamp").toLocalDateTime());
+        
+        Timestamp confirmedTimestamp = rs.getTimestamp("confirmedTimestamp");
+        if (confirmedTimestamp != null) {
+            payment.setConfirmedTimestamp(confirmedTimestamp.toLocalDateTime());
+        }
+        
+        return payment;
+    }
 }
\ No newline at end of file
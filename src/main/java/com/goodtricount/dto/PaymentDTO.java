@@ -11,9 +11,10 @@ public class PaymentDTO implements Serializable {
     
     private static final long serialVersionUID = 1L;
     
+    private int id;
     private String payer;
     private String receiver;
-    private BigDecimal amount;
+    private Money amount;
     private String status; // "pending" or "confirmed"
     private LocalDateTime timestamp;
     private LocalDateTime confirmedTimestamp;
@@ -36,7 +37,7 @@ public class PaymentDTO implements Serializable {
     public PaymentDTO(String payer, String receiver, BigDecimal amount, String status, LocalDateTime timestamp) {
         this.payer = payer;
         this.receiver = receiver;
-        this.amount = amount;
+        this.amount = amount == null ? null : Money.of(amount);
         this.status = status;
         this.timestamp = timestamp;
     }
@@ -55,7 +56,7 @@ public class PaymentDTO implements Serializable {
                      LocalDateTime timestamp, LocalDateTime confirmedTimestamp) {
         this.payer = payer;
         this.receiver = receiver;
-        this.amount = amount;
+        this.amount = amount == null ? null : Money.of(amount);
         this.status = status;
         this.timestamp = timestamp;
         this.confirmedTimestamp = confirmedTimestamp;
@@ -63,6 +64,17 @@ public class PaymentDTO implements Serializable {
     
     // Getters and Setters
     
+    /**
+     * Get the ID of the payment in the database, 0 if it was not read from it.
+     */
+    public int getId() {
+        return id;
+    }
+    
+    public void setId(int id) {
+        this.id = id;
+    }
+    
     public String getPayer() {
         return payer;
     }
@@ -80,10 +92,21 @@ public class PaymentDTO implements Serializable {
     }
     
     public BigDecimal getAmount() {
-        return amount;
+        return amount == null ? null : amount.toBigDecimal();
     }
     
+    /**
+     * Set the amount, which must have at most two decimals, see {@link Money#of}.
+     */
     public void setAmount(BigDecimal amount) {
+        this.amount = amount == null ? null : Money.of(amount);
+    }
+    
+    public Money getMoney() {
+        return amount;
+    }
+    
+    public void setMoney(Money amount) {
         this.amount = amount;
     }
     
@@ -114,7 +137,8 @@ public class PaymentDTO implements Serializable {
     @Override
     public String toString() {
         return "PaymentDTO{" +
-                "payer='" + payer + '\'' +
+                "id=" + id +
+                ", payer='" + payer + '\'' +
                 ", receiver='" + receiver + '\'' +
                 ", amount=" + amount +
                 ", status='" + status + '\'' +
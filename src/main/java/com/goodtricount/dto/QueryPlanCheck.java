@@ -0,0 +1,206 @@
+package com.goodtricount.dto;
+
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks that every filtered DAO statement is served by an index.
+ *
+ * <p>Runs against the database configured for the application (use a local PostgreSQL, see
+ * {@link DatabaseConfig}). It creates a scratch schema, applies the migrations, seeds it with a
+ * large synthetic dataset, runs {@code EXPLAIN} on each DAO statement and exits with status 1 if
+ * any plan contains a sequential scan. The scratch schema is dropped afterwards unless
+ * {@code --keep} is passed.</p>
+ *
+ * <p>The statements are the DAOs' own package-private {@code *_SQL} constants, so the check
+ * plans exactly what the application runs. Statements without a filter ({@code getAllUsers},
+ * {@code getAllGroups}) read whole tables by design and are not checked.</p>
+ */
+public class QueryPlanCheck {
+
+    private static final String SCHEMA = "goodtricount_plan_check";
+
+    private final Connection conn;
+    private final List<String> failures = new ArrayList<>();
+    private int checked;
+
+    private QueryPlanCheck(Connection conn) {
+        this.conn = conn;
+    }
+
+    public static void main(String[] args) throws Exception {
+        boolean keep = args.length > 0 && "--keep".equals(args[0]);
+        DatabaseConfig config = DatabaseConfig.fromEnvironment();
+
+        try (Connection conn = DriverManager.getConnection(config.getUrl(), config.getDriverProperties())) {
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("DROP SCHEMA IF EXISTS " + SCHEMA + " CASCADE");
+                stmt.execute("CREATE SCHEMA " + SCHEMA);
+                stmt.execute("SET search_path TO " + SCHEMA);
+            }
+
+            QueryPlanCheck check = new QueryPlanCheck(conn);
+            try {
+                System.out.println("Applying migrations...");
+                new SchemaMigrator().migrate(conn);
+
+                System.out.println("Seeding data...");
+                check.seed();
+
+                System.out.println("Checking query plans...");
+                check.run();
+            } finally {
+                if (!keep) {
+                    try (Statement stmt = conn.createStatement()) {
+                        stmt.execute("DROP SCHEMA " + SCHEMA + " CASCADE");
+                    }
+                }
+            }
+
+            System.out.println(check.checked + " statements checked, " + check.failures.size() + " with sequential scans");
+            for (String failure : check.failures) {
+                System.out.println(failure);
+            }
+            if (!check.failures.isEmpty()) {
+                System.exit(1);
+            }
+        }
+    }
+
+    private void seed() throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("INSERT INTO Users SELECT 'user' || i, 'password', 'user' || i || '@example.com', 'User ' || i " +
+                         "FROM generate_series(1, 20000) i");
+            stmt.execute("INSERT INTO Groups SELECT 'group' || g, 'Group ' || g FROM generate_series(1, 5000) g");
+            stmt.execute("INSERT INTO GroupParticipants " +
+                         "SELECT 'group' || g, 'user' || ((g * 7 + k * 131) % 20000 + 1) " +
+                         "FROM generate_series(1, 5000) g, generate_series(0, 7) k ON CONFLICT DO NOTHING");
+            stmt.execute("INSERT INTO GroupAdmins SELECT 'group' || g, 'user' || (g * 7 % 20000 + 1) " +
+                         "FROM generate_series(1, 5000) g");
+            stmt.execute("INSERT INTO Expenses (group_id, payer, amount, description) " +
+                         "SELECT 'group' || (i % 5000 + 1), 'user' || (((i % 5000 + 1) * 7 + (i % 8) * 131) % 20000 + 1), " +
+                         "i % 10000 + 100, 'Expense ' || i FROM generate_series(1, 200000) i");
+            stmt.execute("INSERT INTO Payments (group_id, payer, receiver, amount, status, timestamp, confirmedTimestamp) " +
+                         "SELECT 'group' || (i % 5000 + 1), " +
+                         "'user' || (((i % 5000 + 1) * 7 + (i % 8) * 131) % 20000 + 1), " +
+                         "'user' || (((i % 5000 + 1) * 7 + ((i + 1) % 8) * 131) % 20000 + 1), " +
+                         "i % 5000 + 100, CASE WHEN i % 10 = 0 THEN 'pending' ELSE 'confirmed' END, " +
+                         "now() - i * interval '1 minute', CASE WHEN i % 10 = 0 THEN NULL ELSE now() END " +
+                         "FROM generate_series(1, 100000) i");
+            BalanceDAO.rebuildBalances(conn);
+            stmt.execute("INSERT INTO GroupChanges (group_id, version, entity, entity_id) " +
+                         "SELECT group_id, expense_id + 1, 'expense', expense_id FROM Expenses " +
+                         "UNION ALL SELECT group_id, payment_id + 200001, 'payment', payment_id FROM Payments " +
+                         "UNION ALL SELECT id, 300001, 'group', 0 FROM Groups");
+            stmt.execute("ANALYZE");
+        }
+    }
+
+    private void run() throws SQLException {
+        Array groupIds = conn.createArrayOf("varchar", new Object[] { "group1", "group2", "group3" });
+
+        // UserDAO
+        check("UserDAO.getUserByUsername", UserDAO.GET_USER_BY_USERNAME_SQL, "user42");
+        check("UserDAO.updateUser", UserDAO.UPDATE_USER_SQL, "x", "x@example.com", "X", "user42");
+        check("UserDAO.deleteUser", UserDAO.DELETE_USER_SQL, "user42", "user42", "user42");
+        check("UserDAO.userExists", UserDAO.USER_EXISTS_SQL, "user42");
+        check("UserDAO.emailExists", UserDAO.EMAIL_EXISTS_SQL, "user42@example.com");
+
+        // GroupDAO
+        check("GroupDAO.getGroupById", GroupDAO.GET_GROUP_BY_ID_SQL, "group1");
+        check("GroupDAO.getParticipants", GroupDAO.GET_PARTICIPANTS_SQL, "group1");
+        check("GroupDAO.getAdmins", GroupDAO.GET_ADMINS_SQL, "group1");
+        check("GroupDAO.getGroupsForUser", GroupDAO.GET_GROUPS_FOR_USER_SQL, "user42");
+        check("GroupDAO.loadGroups participants", GroupDAO.LOAD_PARTICIPANTS_SQL, groupIds);
+        check("GroupDAO.loadGroups admins", GroupDAO.LOAD_ADMINS_SQL, groupIds);
+        check("GroupDAO.loadGroups expenses", GroupDAO.LOAD_EXPENSES_SQL, groupIds);
+        check("GroupDAO.loadGroups payments", GroupDAO.LOAD_PAYMENTS_SQL, groupIds);
+        check("GroupDAO.updateGroup lock", GroupDAO.LOCK_GROUP_SQL, "group1");
+        check("GroupDAO.updateGroup", GroupDAO.UPDATE_GROUP_SQL, "New name", "group1");
+        Array usernames = conn.createArrayOf("varchar", new Object[] { "user8", "user139" });
+        check("GroupDAO.deleteParticipants", GroupDAO.DELETE_PARTICIPANTS_SQL, "group1", usernames);
+        check("GroupDAO.deleteAdmins", GroupDAO.DELETE_ADMINS_SQL, "group1", usernames);
+        usernames.free();
+        check("GroupDAO.deleteGroup", GroupDAO.DELETE_GROUP_SQL, "group1");
+        check("GroupDAO.addParticipant", GroupDAO.ADD_PARTICIPANT_SQL, "group1", "user8");
+        check("GroupDAO.addAdmin", GroupDAO.ADD_ADMIN_SQL, "group1", "user8", "group1", "user8");
+        check("GroupDAO.loadMembership", GroupDAO.LOAD_MEMBERSHIP_SQL, "group1", "group1");
+        check("GroupDAO.getGroupDetail", GroupDAO.GET_GROUP_DETAIL_SQL, "group1");
+
+        // GroupChangeDAO
+        check("GroupChangeDAO.getVersion", GroupChangeDAO.GET_VERSION_SQL, "group1");
+        check("GroupChangeDAO.getChangesSince", GroupChangeDAO.GET_CHANGES_SINCE_SQL,
+              100000L, 100000L, 100000L, "group1");
+        Array entityIds = conn.createArrayOf("integer", new Object[] { 42, 43 });
+        check("GroupChangeDAO.recordChanges", GroupChangeDAO.RECORD_SQL, "group1", GroupChangeDAO.EXPENSE, entityIds);
+        entityIds.free();
+        check("GroupChangeDAO.lastId expenses", GroupChangeDAO.LAST_EXPENSE_ID_SQL, "group1");
+        check("GroupChangeDAO.lastId payments", GroupChangeDAO.LAST_PAYMENT_ID_SQL, "group1");
+        check("GroupChangeDAO.recordInserted expenses", GroupChangeDAO.RECORD_INSERTED_EXPENSES_SQL,
+              400000L, "group1", 1000);
+        check("GroupChangeDAO.recordInserted payments", GroupChangeDAO.RECORD_INSERTED_PAYMENTS_SQL,
+              400000L, "group1", 1000);
+
+        // ExpenseDAO
+        check("ExpenseDAO.getExpenseById", ExpenseDAO.GET_EXPENSE_BY_ID_SQL, 42);
+        check("ExpenseDAO.getExpensesForGroup", ExpenseDAO.GET_EXPENSES_FOR_GROUP_SQL, "group1");
+        check("ExpenseDAO.getExpensesForGroup page", ExpenseDAO.GET_EXPENSES_PAGE_SQL, "group1", 1000, 51);
+        check("ExpenseDAO.updateExpense lock", ExpenseDAO.LOCK_EXPENSE_SQL, 42);
+        check("ExpenseDAO.updateExpense", ExpenseDAO.UPDATE_EXPENSE_SQL, "user8", 10, "x", 42);
+        check("ExpenseDAO.deleteExpense", ExpenseDAO.DELETE_EXPENSE_SQL, 42);
+        check("ExpenseDAO.getTotalExpensesForGroup", ExpenseDAO.GET_TOTAL_EXPENSES_FOR_GROUP_SQL, "group1");
+        check("ExpenseDAO.getTotalExpensesPaidByUser", ExpenseDAO.GET_TOTAL_EXPENSES_PAID_BY_USER_SQL, "group1", "user8");
+
+        // PaymentDAO
+        check("PaymentDAO.getPaymentById", PaymentDAO.GET_PAYMENT_BY_ID_SQL, 42);
+        check("PaymentDAO.getPaymentsForGroup", PaymentDAO.GET_PAYMENTS_FOR_GROUP_SQL, "group1");
+        check("PaymentDAO.getPaymentsForGroup first page", PaymentDAO.GET_PAYMENTS_FIRST_PAGE_SQL, "group1", 51);
+        check("PaymentDAO.getPaymentsForGroup page", PaymentDAO.GET_PAYMENTS_PAGE_SQL,
+              "group1", LocalDateTime.now().minusDays(30), 1000, 51);
+        check("PaymentDAO.getPaymentsMadeByUser", PaymentDAO.GET_PAYMENTS_MADE_BY_USER_SQL, "group1", "user8");
+        check("PaymentDAO.getPaymentsReceivedByUser", PaymentDAO.GET_PAYMENTS_RECEIVED_BY_USER_SQL, "group1", "user8");
+        check("PaymentDAO.updatePayment lock", PaymentDAO.LOCK_PAYMENT_SQL, 42);
+        check("PaymentDAO.updatePayment", PaymentDAO.UPDATE_PAYMENT_SQL, "user8", "user139", 10, "confirmed",
+              LocalDateTime.now(), LocalDateTime.now(), 42);
+        check("PaymentDAO.confirmPayment", PaymentDAO.CONFIRM_PAYMENT_SQL, LocalDateTime.now(), 42);
+        check("PaymentDAO.deletePayment", PaymentDAO.DELETE_PAYMENT_SQL, 42);
+        check("PaymentDAO.getTotalPaymentsMadeByUser", PaymentDAO.GET_TOTAL_PAYMENTS_MADE_BY_USER_SQL, "group1", "user8");
+        check("PaymentDAO.getTotalPaymentsReceivedByUser", PaymentDAO.GET_TOTAL_PAYMENTS_RECEIVED_BY_USER_SQL,
+              "group1", "user8");
+        check("PaymentDAO.suggestSettlement", PaymentDAO.GET_PENDING_PAYMENTS_SQL, "group1");
+
+        // BalanceDAO
+        check("BalanceDAO.loadLedger", BalanceDAO.LOAD_LEDGER_SQL, "group1", "group1");
+
+        groupIds.free();
+    }
+
+    private void check(String name, String sql, Object... params) throws SQLException {
+        StringBuilder plan = new StringBuilder();
+        try (PreparedStatement pstmt = conn.prepareStatement("EXPLAIN " + sql)) {
+            for (int i = 0; i < params.length; i++) {
+                pstmt.setObject(i + 1, params[i]);
+            }
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    plan.append(rs.getString(1)).append('\n');
+                }
+            }
+        }
+
+        checked++;
+        boolean sequential = plan.indexOf("Seq Scan") >= 0;
+        System.out.println((sequential ? "SEQ SCAN " : "ok       ") + name);
+        if (sequential) {
+            failures.add(name + ":\n" + plan);
+        }
+    }
+}
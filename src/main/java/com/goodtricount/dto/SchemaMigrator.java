@@ -0,0 +1,175 @@
+package com.goodtricount.dto;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Applies the versioned schema migrations of the GoodTricount database.
+ *
+ * <p>Migrations are SQL scripts in {@code db/migration} on the classpath, named
+ * {@code V<version>__<description>.sql} and listed in order in {@link #MIGRATIONS}.
+ * Applied versions are recorded in the {@code schema_version} table together with a checksum
+ * of the script, so on startup only the missing migrations run, and a script that was changed
+ * after being applied is reported instead of silently diverging.</p>
+ *
+ * <p>Each migration runs in its own transaction. A session advisory lock keeps several
+ * application instances from migrating the same database at once.</p>
+ */
+public class SchemaMigrator {
+
+    private static final String LOCATION = "db/migration/";
+
+    /** Migration scripts, in the order they must be applied. Never edit or reorder applied ones. */
+    private static final String[] MIGRATIONS = {
+        "V1__create_tables.sql",
+        "V2__create_group_balances.sql",
+        "V3__add_query_indexes.sql",
+        "V4__add_history_indexes.sql",
+        "V5__store_amounts_in_cents.sql",
+        "V6__add_group_changes.sql",
+        "V7__notify_group_changes.sql",
+    };
+
+    private static final long LOCK_KEY = 0x676f6f6474726963L; // "goodtric"
+
+    /**
+     * Bring the database schema up to date.
+     *
+     * @return true if the schema is up to date, false otherwise
+     */
+    public boolean migrate() {
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            migrate(conn);
+            return true;
+        } catch (SQLException e) {
+            System.out.println("Error migrating database: " + e.getMessage());
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Bring the database schema up to date using the given connection.
+     *
+     * @param conn the database connection, in auto-commit mode
+     * @return the number of migrations applied
+     * @throws SQLException if a migration fails or an applied migration has changed
+     */
+    public int migrate(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("SELECT pg_advisory_lock(" + LOCK_KEY + ")");
+        }
+
+        try {
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("CREATE TABLE IF NOT EXISTS schema_version (" +
+                              "version INTEGER PRIMARY KEY, " +
+                              "description VARCHAR(200) NOT NULL, " +
+                              "checksum BIGINT NOT NULL, " +
+                              "applied_at TIMESTAMP NOT NULL DEFAULT now()" +
+                              ")");
+            }
+
+            Map<Integer, Long> applied = new HashMap<>();
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT version, checksum FROM schema_version")) {
+                while (rs.next()) {
+                    applied.put(rs.getInt("version"), rs.getLong("checksum"));
+                }
+            }
+
+            int count = 0;
+            for (String name : MIGRATIONS) {
+                int version = versionOf(name);
+                String script = load(name);
+                long checksum = checksum(script);
+
+                Long appliedChecksum = applied.get(version);
+                if (appliedChecksum != null) {
+                    if (appliedChecksum != checksum) {
+                        throw new SQLException("Migration " + name + " was modified after being applied " +
+                                               "(checksum " + checksum + ", expected " + appliedChecksum + ")");
+                    }
+                    continue;
+                }
+
+                apply(conn, version, name, script, checksum);
+                count++;
+            }
+            return count;
+        } finally {
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("SELECT pg_advisory_unlock(" + LOCK_KEY + ")");
+            }
+        }
+    }
+
+    private void apply(Connection conn, int version, String name, String script, long checksum) throws SQLException {
+        long start = System.currentTimeMillis();
+        conn.setAutoCommit(false);
+        try {
+            try (Statement stmt = conn.createStatement()) {
+                // The driver sends a parameterless multi-statement script in one round trip
+                stmt.execute(script);
+            }
+            try (PreparedStatement pstmt = conn.prepareStatement(
+                    "INSERT INTO schema_version (version, description, checksum) VALUES (?, ?, ?)")) {
+                pstmt.setInt(1, version);
+                pstmt.setString(2, descriptionOf(name));
+                pstmt.setLong(3, checksum);
+                pstmt.executeUpdate();
+            }
+            conn.commit();
+            System.out.println("Applied migration " + name + " in " + (System.currentTimeMillis() - start) + " ms");
+        } catch (SQLException e) {
+            conn.rollback();
+            throw new SQLException("Migration " + name + " failed: " + e.getMessage(), e.getSQLState(), e);
+        } finally {
+            conn.setAutoCommit(true);
+        }
+    }
+
+    private static int versionOf(String name) {
+        return Integer.parseInt(name.substring(1, name.indexOf("__")));
+    }
+
+    private static String descriptionOf(String name) {
+        return name.substring(name.indexOf("__") + 2, name.lastIndexOf('.')).replace('_', ' ');
+    }
+
+    private static String load(String name) throws SQLException {
+        try (InputStream in = SchemaMigrator.class.getClassLoader().getResourceAsStream(LOCATION + name)) {
+            if (in == null) {
+                throw new SQLException("Migration script not found: " + LOCATION + name);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new SQLException("Cannot read migration script " + name, e);
+        }
+    }
+
+    /**
+     * Checksum of a script, insensitive to line endings.
+     */
+    private static long checksum(String script) {
+        CRC32 crc = new CRC32();
+        crc.update(script.replace("\r\n", "\n").getBytes(StandardCharsets.UTF_8));
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,83 @@
+package com.goodtricount.dto;
+
+/**
+ * Access to the runtime settings of the GoodTricount application.
+ * A setting named {@code db.pool.max} is read from the system property
+ * {@code goodtricount.db.pool.max} and, if that is not set, from the
+ * environment variable {@code GOODTRICOUNT_DB_POOL_MAX}.
+ */
+public final class Settings {
+
+    private static final String PROPERTY_PREFIX = "goodtricount.";
+    private static final String ENV_PREFIX = "GOODTRICOUNT_";
+
+    private Settings() {
+    }
+
+    /**
+     * Get a string setting.
+     *
+     * @param key the setting name, e.g. {@code db.url}
+     * @param defaultValue the value to use when the setting is not defined
+     * @return the configured value, or the default value
+     */
+    public static String getString(String key, String defaultValue) {
+        String value = System.getProperty(PROPERTY_PREFIX + key);
+        if (value == null || value.trim().isEmpty()) {
+            value = System.getenv(ENV_PREFIX + key.toUpperCase().replace('.', '_'));
+        }
+        return value == null || value.trim().isEmpty() ? defaultValue : value.trim();
+    }
+
+    /**
+     * Get an integer setting.
+     *
+     * @param key the setting name
+     * @param defaultValue the value to use when the setting is not defined
+     * @return the configured value, or the default value
+     * @throws IllegalArgumentException if the configured value is not a number
+     */
+    public static int getInt(String key, int defaultValue) {
+        String value = getString(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value for setting " + key + ": " + value, e);
+        }
+    }
+
+    /**
+     * Get a long setting.
+     *
+     * @param key the setting name
+     * @param defaultValue the value to use when the setting is not defined
+     * @return the configured value, or the default value
+     * @throws IllegalArgumentException if the configured value is not a number
+     */
+    public static long getLong(String key, long defaultValue) {
+        String value = getString(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value for setting " + key + ": " + value, e);
+        }
+    }
+
+    /**
+     * Get a boolean setting.
+     *
+     * @param key the setting name
+     * @param defaultValue the value to use when the setting is not defined
+     * @return the configured value, or the default value
+     */
+    public static boolean getBoolean(String key, boolean defaultValue) {
+        String value = getString(key, null);
+        return value == null ? defaultValue : Boolean.parseBoolean(value);
+    }
+}
@@ -0,0 +1,90 @@
+package com.goodtricount.dto;
+
+import java.util.Arrays;
+
+/**
+ * The transfers computed by {@link SettlementSolver}.
+ * Participants are referred to by their index in the balances passed to the solver
+ * and amounts are in cents.
+ */
+public class SettlementPlan {
+
+    private int[] payers;
+    private int[] receivers;
+    private long[] amounts;
+    private int size;
+    private boolean optimal;
+
+    /**
+     * Constructor with the expected number of participants
+     *
+     * @param participants the number of participants being settled
+     */
+    public SettlementPlan(int participants) {
+        int capacity = Math.max(1, participants);
+        this.payers = new int[capacity];
+        this.receivers = new int[capacity];
+        this.amounts = new long[capacity];
+    }
+
+    /**
+     * Add a transfer to the plan.
+     *
+     * @param payer the index of the participant who pays
+     * @param receiver the index of the participant who receives
+     * @param amount the amount in cents
+     */
+    void add(int payer, int receiver, long amount) {
+        if (size == payers.length) {
+            payers = Arrays.copyOf(payers, size * 2);
+            receivers = Arrays.copyOf(receivers, size * 2);
+            amounts = Arrays.copyOf(amounts, size * 2);
+        }
+        payers[size] = payer;
+        receivers[size] = receiver;
+        amounts[size] = amount;
+        size++;
+    }
+
+    void setOptimal(boolean optimal) {
+        this.optimal = optimal;
+    }
+
+    /**
+     * @return the number of transfers
+     */
+    public int size() {
+        return size;
+    }
+
+    public int getPayer(int transfer) {
+        return payers[transfer];
+    }
+
+    public int getReceiver(int transfer) {
+        return receivers[transfer];
+    }
+
+    public long getAmount(int transfer) {
+        return amounts[transfer];
+    }
+
+    /**
+     * @return true if the plan is proven to use the minimum number of transfers
+     */
+    public boolean isOptimal() {
+        return optimal;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("SettlementPlan{optimal=").append(optimal).append(", transfers=[");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                builder.append(", ");
+            }
+            builder.append(payers[i]).append("->").append(receivers[i]).append(':').append(amounts[i]);
+        }
+        return builder.append("]}").toString();
+    }
+}
@@ -0,0 +1,339 @@
+package com.goodtricount.dto;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Computes the transfers that settle the debts of a group ("who owes whom").
+ *
+ * <p>Balances are handled as integer cents. A balance is positive when the group owes the user
+ * money and negative when the user owes money to the group; every transfer goes from a debtor to
+ * a creditor.</p>
+ *
+ * <p>The minimum number of transfers is {@code n - k}, where {@code n} is the number of non-zero
+ * balances and {@code k} the largest number of disjoint zero-sum subsets they can be split into.
+ * The solver first settles debtors and creditors with exactly opposite balances, which never makes
+ * the result worse. If the remaining balances are few enough it finds the optimal partition with a
+ * dynamic program over subsets; otherwise, or if the time budget runs out, it falls back to a
+ * greedy matching of the largest debts with the largest credits, which needs at most
+ * {@code n - 1} transfers and runs in {@code O(n log n)}.</p>
+ */
+public class SettlementSolver {
+
+    private final int exactLimit;
+    private final long timeBudgetNanos;
+
+    /**
+     * Create a solver configured from the environment:
+     * {@code settlement.exactLimit} (default 16) and {@code settlement.timeBudgetMs} (default 50).
+     */
+    public SettlementSolver() {
+        this(Settings.getInt("settlement.exactLimit", 16), Settings.getLong("settlement.timeBudgetMs", 50));
+    }
+
+    /**
+     * Constructor with all fields
+     *
+     * @param exactLimit the maximum number of non-zero balances solved exactly (at most 24)
+     * @param timeBudgetMillis the time after which the exact search gives up
+     */
+    public SettlementSolver(int exactLimit, long timeBudgetMillis) {
+        if (exactLimit < 0 || exactLimit > 24) {
+            throw new IllegalArgumentException("exactLimit must be between 0 and 24: " + exactLimit);
+        }
+        this.exactLimit = exactLimit;
+        this.timeBudgetNanos = timeBudgetMillis * 1_000_000L;
+    }
+
+    /**
+     * Compute the pending payments that settle a group.
+     *
+     * @param balances the balances of the group
+     * @return the suggested payments, with status "pending"
+     */
+    public List<PaymentDTO> settle(List<BalanceDTO> balances) {
+        long[] cents = new long[balances.size()];
+        for (int i = 0; i < cents.length; i++) {
+            cents[i] = balances.get(i).getBalanceMoney().getCents();
+        }
+        absorbResidue(cents);
+
+        SettlementPlan plan = solve(cents);
+        String[] usernames = new String[balances.size()];
+        for (int i = 0; i < usernames.length; i++) {
+            usernames[i] = balances.get(i).getUsername();
+        }
+        return toPayments(plan, usernames);
+    }
+
+    /**
+     * Compute the pending payments that settle a group, working on the ledger's arrays of cents.
+     *
+     * @param ledger the ledger of the group
+     * @return the suggested payments, with status "pending"
+     */
+    public List<PaymentDTO> settle(GroupLedger ledger) {
+        long[] cents = ledger.computeBalances();
+        absorbResidue(cents);
+
+        SettlementPlan plan = solve(cents);
+        String[] usernames = new String[ledger.size()];
+        for (int i = 0; i < usernames.length; i++) {
+            usernames[i] = ledger.getUsername(i);
+        }
+        return toPayments(plan, usernames);
+    }
+
+    /**
+     * Spread the residue of balances that do not add up to zero, e.g. because they were rounded
+     * elsewhere or the group has no participants to share the expenses, evenly over all users.
+     */
+    private static void absorbResidue(long[] cents) {
+        long residue = 0;
+        for (long balance : cents) {
+            residue += balance;
+        }
+        if (residue != 0 && cents.length > 0) {
+            for (int i = 0; i < cents.length; i++) {
+                cents[i] -= Money.splitCents(residue, cents.length, i);
+            }
+        }
+    }
+
+    private static List<PaymentDTO> toPayments(SettlementPlan plan, String[] usernames) {
+        LocalDateTime now = LocalDateTime.now();
+        List<PaymentDTO> payments = new ArrayList<>(plan.size());
+        for (int i = 0; i < plan.size(); i++) {
+            PaymentDTO payment = new PaymentDTO(usernames[plan.getPayer(i)], usernames[plan.getReceiver(i)],
+                    null, "pending", now);
+            payment.setMoney(Money.ofCents(plan.getAmount(i)));
+            payments.add(payment);
+        }
+        return payments;
+    }
+
+    /**
+     * Compute the transfers that bring every balance to zero.
+     *
+     * @param balances the balances in cents, indexed by participant; they must add up to zero
+     * @return the transfers, referring to participants by their index
+     */
+    public SettlementPlan solve(long[] balances) {
+        long deadline = System.nanoTime() + timeBudgetNanos;
+        long total = 0;
+        for (long balance : balances) {
+            total += balance;
+        }
+        if (total != 0) {
+            throw new IllegalArgumentException("Balances must add up to zero, got " + total);
+        }
+
+        long[] remaining = balances.clone();
+        SettlementPlan plan = new SettlementPlan(balances.length);
+
+        settleOppositePairs(remaining, plan);
+
+        int count = 0;
+        for (long balance : remaining) {
+            if (balance != 0) {
+                count++;
+            }
+        }
+        int[] open = new int[count];
+        for (int i = 0, j = 0; i < remaining.length; i++) {
+            if (remaining[i] != 0) {
+                open[j++] = i;
+            }
+        }
+
+        boolean optimal = count <= exactLimit && settleExactly(open, remaining, plan, deadline);
+        if (!optimal) {
+            settleGreedily(open, remaining, plan);
+        }
+        plan.setOptimal(optimal);
+        return plan;
+    }
+
+    /**
+     * Settle every debtor whose debt exactly matches the credit of a creditor.
+     */
+    private static void settleOppositePairs(long[] remaining, SettlementPlan plan) {
+        int[] creditors = select(remaining, true);
+        int[] debtors = select(remaining, false);
+        long[] magnitude = new long[remaining.length];
+        for (int i = 0; i < remaining.length; i++) {
+            magnitude[i] = Math.abs(remaining[i]);
+        }
+        sortByKey(creditors, magnitude);
+        sortByKey(debtors, magnitude);
+
+        int c = 0;
+        int d = 0;
+        while (c < creditors.length && d < debtors.length) {
+            long credit = magnitude[creditors[c]];
+            long debt = magnitude[debtors[d]];
+            if (credit == debt) {
+                plan.add(debtors[d], creditors[c], credit);
+                remaining[debtors[d]] = 0;
+                remaining[creditors[c]] = 0;
+                c++;
+                d++;
+            } else if (credit < debt) {
+                c++;
+            } else {
+                d++;
+            }
+        }
+    }
+
+    /**
+     * Find the largest partition of the open balances into zero-sum subsets and settle each
+     * subset with one transfer less than its size.
+     *
+     * @return false if the time budget ran out, leaving the balances untouched
+     */
+    private static boolean settleExactly(int[] open, long[] remaining, SettlementPlan plan, long deadline) {
+        int n = open.length;
+        if (n == 0) {
+            return true;
+        }
+
+        int full = (1 << n) - 1;
+        long[] sum = new long[full + 1];
+        byte[] groups = new byte[full + 1];
+        for (int mask = 1; mask <= full; mask++) {
+            if ((mask & 0xFFF) == 0 && System.nanoTime() > deadline) {
+                return false;
+            }
+            int low = Integer.numberOfTrailingZeros(mask);
+            int rest = mask & (mask - 1);
+            sum[mask] = sum[rest] + remaining[open[low]];
+
+            int best = 0;
+            for (int bits = mask; bits != 0; bits &= bits - 1) {
+                int without = mask & ~Integer.lowestOneBit(bits);
+                if (groups[without] > best) {
+                    best = groups[without];
+                }
+            }
+            groups[mask] = (byte) (sum[mask] == 0 ? best + 1 : best);
+        }
+
+        // Walk back from the full set; elements between two zero-sum masks form one subset
+        int[] subset = new int[n];
+        int size = 0;
+        int mask = full;
+        while (mask != 0) {
+            int target = sum[mask] == 0 ? groups[mask] - 1 : groups[mask];
+            int chosen = -1;
+            for (int bits = mask; bits != 0; bits &= bits - 1) {
+                int bit = Integer.numberOfTrailingZeros(bits);
+                if (groups[mask & ~(1 << bit)] == target) {
+                    chosen = bit;
+                    break;
+                }
+            }
+            subset[size++] = open[chosen];
+            mask &= ~(1 << chosen);
+            if (sum[mask] == 0) {
+                int[] members = new int[size];
+                System.arraycopy(subset, 0, members, 0, size);
+                settleGreedily(members, remaining, plan);
+                size = 0;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Settle the given balances by repeatedly matching the largest debt with the largest credit.
+     */
+    private static void settleGreedily(int[] members, long[] remaining, SettlementPlan plan) {
+        int[] creditors = new int[members.length];
+        int[] debtors = new int[members.length];
+        int creditorCount = 0;
+        int debtorCount = 0;
+        for (int member : members) {
+            if (remaining[member] > 0) {
+                creditors[creditorCount++] = member;
+            } else if (remaining[member] < 0) {
+                debtors[debtorCount++] = member;
+            }
+        }
+
+        long[] magnitude = new long[remaining.length];
+        for (int i = 0; i < remaining.length; i++) {
+            magnitude[i] = -Math.abs(remaining[i]);
+        }
+        creditors = trim(creditors, creditorCount);
+        debtors = trim(debtors, debtorCount);
+        sortByKey(creditors, magnitude);
+        sortByKey(debtors, magnitude);
+
+        int c = 0;
+        int d = 0;
+        while (c < creditors.length && d < debtors.length) {
+            int creditor = creditors[c];
+            int debtor = debtors[d];
+            long amount = Math.min(remaining[creditor], -remaining[debtor]);
+            plan.add(debtor, creditor, amount);
+            remaining[creditor] -= amount;
+            remaining[debtor] += amount;
+            if (remaining[creditor] == 0) {
+                c++;
+            }
+            if (remaining[debtor] == 0) {
+                d++;
+            }
+        }
+    }
+
+    private static int[] select(long[] balances, boolean positive) {
+        int count = 0;
+        for (long balance : balances) {
+            if (positive ? balance > 0 : balance < 0) {
+                count++;
+            }
+        }
+        int[] selected = new int[count];
+        for (int i = 0, j = 0; i < balances.length; i++) {
+            if (positive ? balances[i] > 0 : balances[i] < 0) {
+                selected[j++] = i;
+            }
+        }
+        return selected;
+    }
+
+    private static int[] trim(int[] values, int length) {
+        int[] trimmed = new int[length];
+        System.arraycopy(values, 0, trimmed, 0, length);
+        return trimmed;
+    }
+
+    /**
+     * Stable merge sort of indices by ascending key, without boxing.
+     */
+    static void sortByKey(int[] indices, long[] key) {
+        int[] buffer = new int[indices.length];
+        for (int width = 1; width < indices.length; width *= 2) {
+            for (int lo = 0; lo < indices.length - width; lo += 2 * width) {
+                int mid = lo + width;
+                int hi = Math.min(lo + 2 * width, indices.length);
+                int i = lo;
+                int j = mid;
+                int k = lo;
+                while (i < mid && j < hi) {
+                    buffer[k++] = key[indices[j]] < key[indices[i]] ? indices[j++] : indices[i++];
+                }
+                while (i < mid) {
+                    buffer[k++] = indices[i++];
+                }
+                while (j < hi) {
+                    buffer[k++] = indices[j++];
+                }
+                System.arraycopy(buffer, lo, indices, lo, hi - lo);
+            }
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package com.goodtricount.dto;
+
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded read-through cache of users by username, in front of {@link UserDAO}.
+ *
+ * <p>Eviction follows W-TinyLFU: new entries go to a small LRU window (1% of the capacity) and,
+ * when they fall out of it, are only admitted to the main LRU region if they have been requested
+ * more often than the entry they would replace, according to a count-min sketch of recent
+ * request frequencies. One-off lookups, such as a credential-stuffing run over random usernames,
+ * therefore cannot flush the users that log in regularly.</p>
+ *
+ * <p>Entries expire after a TTL. Unknown usernames are cached too, for a shorter TTL, so that
+ * repeated attempts against them do not reach the database. {@link UserDAO} invalidates entries
+ * when users are inserted, updated or deleted; changes made by other application instances are
+ * picked up when the entry expires.</p>
+ *
+ * <p>Configuration: {@code goodtricount.user.cache.maxSize} (default 10000, 0 disables the cache),
+ * {@code goodtricount.user.cache.ttlMs} (default 60000) and
+ * {@code goodtricount.user.cache.negativeTtlMs} (default 5000).</p>
+ */
+public class UserCache {
+
+    /**
+     * Loads a user from the database.
+     */
+    public interface Loader {
+
+        /**
+         * @param username the username
+         * @return the user, or null if there is no such user
+         * @throws SQLException if the user cannot be loaded; nothing is cached then
+         */
+        UserDTO load(String username) throws SQLException;
+    }
+
+    private static final class Entry {
+        final UserDTO user;
+        final long expiresAt;
+
+        Entry(UserDTO user, long expiresAt) {
+            this.user = user;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final int maxSize;
+    private final int windowSize;
+    private final long ttlNanos;
+    private final long negativeTtlNanos;
+
+    private final LinkedHashMap<String, Entry> window = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, Entry> main = new LinkedHashMap<>(16, 0.75f, true);
+    private final FrequencySketch sketch;
+    private long generation;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong negativeHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * Create a cache.
+     *
+     * @param maxSize the maximum number of entries, 0 to disable caching
+     * @param ttlMillis how long a user is cached
+     * @param negativeTtlMillis how long an unknown username is cached
+     */
+    public UserCache(int maxSize, long ttlMillis, long negativeTtlMillis) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("maxSize must not be negative");
+        }
+        this.maxSize = maxSize;
+        this.windowSize = Math.max(1, maxSize / 100);
+        this.ttlNanos = ttlMillis * 1_000_000L;
+        this.negativeTtlNanos = negativeTtlMillis * 1_000_000L;
+        this.sketch = new FrequencySketch(Math.max(maxSize, 16));
+    }
+
+    /**
+     * Create a cache configured from the environment and export its counters in {@link Metrics}.
+     *
+     * @return the cache
+     */
+    public static UserCache fromEnvironment() {
+        UserCache cache = new UserCache(
+                Settings.getInt("user.cache.maxSize", 10000),
+                Settings.getLong("user.cache.ttlMs", 60000),
+                Settings.getLong("user.cache.negativeTtlMs", 5000));
+
+        Metrics.counter("user_cache_hits_total", "User cache hits.", cache.hits::get);
+        Metrics.counter("user_cache_negative_hits_total", "User cache hits on unknown usernames.",
+                cache.negativeHits::get);
+        Metrics.counter("user_cache_misses_total", "User cache misses.", cache.misses::get);
+        Metrics.counter("user_cache_evictions_total", "Users evicted or not admitted because the cache is full.",
+                cache.evictions::get);
+        Metrics.counter("user_cache_expirations_total", "User cache entries dropped after their TTL.",
+                cache.expirations::get);
+        Metrics.counter("user_cache_invalidations_total", "User cache invalidations.", cache.invalidations::get);
+        Metrics.gauge("user_cache_size", "Users currently cached.", cache::size);
+        return cache;
+    }
+
+    /**
+     * Get a user, loading it on a miss.
+     *
+     * @param username the username
+     * @param loader loads the user on a miss
+     * @return a copy of the user, or null if there is no such user
+     * @throws SQLException if the loader fails
+     */
+    public UserDTO get(String username, Loader loader) throws SQLException {
+        if (maxSize == 0 || username == null) {
+            return loader.load(username);
+        }
+
+        long stamp;
+        synchronized (this) {
+            sketch.increment(username);
+            Entry entry = window.get(username);
+            if (entry == null) {
+                entry = main.get(username);
+            }
+            if (entry != null) {
+                if (entry.expiresAt - System.nanoTime() > 0) {
+                    if (entry.user == null) {
+                        negativeHits.incrementAndGet();
+                        return null;
+                    }
+                    hits.incrementAndGet();
+                    return copy(entry.user);
+                }
+                window.remove(username);
+                main.remove(username);
+                expirations.incrementAndGet();
+            }
+            misses.incrementAndGet();
+            stamp = generation;
+        }
+
+        UserDTO user = loader.load(username);
+        put(username, user, stamp);
+        return copy(user);
+    }
+
+    /**
+     * Drop a username from the cache, e.g. after the user was changed.
+     *
+     * @param username the username
+     */
+    public synchronized void invalidate(String username) {
+        generation++;
+        window.remove(username);
+        main.remove(username);
+        invalidations.incrementAndGet();
+    }
+
+    /**
+     * Drop every entry.
+     */
+    public synchronized void clear() {
+        generation++;
+        window.clear();
+        main.clear();
+    }
+
+    /**
+     * Get the number of cached entries, including unknown usernames.
+     *
+     * @return the number of entries
+     */
+    public synchronized int size() {
+        return window.size() + main.size();
+    }
+
+    /**
+     * Store a loaded user unless the cache was invalidated since the load started,
+     * in which case the result may already be stale.
+     */
+    private synchronized void put(String username, UserDTO user, long stamp) {
+        if (stamp != generation) {
+            return;
+        }
+
+        long ttl = user == null ? negativeTtlNanos : ttlNanos;
+        if (ttl <= 0) {
+            return;
+        }
+        Entry entry = new Entry(copy(user), System.nanoTime() + ttl);
+
+        if (main.containsKey(username)) {
+            main.put(username, entry);
+            return;
+        }
+        window.put(username, entry);
+        if (window.size() <= windowSize) {
+            return;
+        }
+
+        // The window is full: its least recently used entry competes for a place in the main region
+        Iterator<Map.Entry<String, Entry>> windowEldest = window.entrySet().iterator();
+        Map.Entry<String, Entry> candidate = windowEldest.next();
+        windowEldest.remove();
+
+        if (main.size() < maxSize - windowSize) {
+            main.put(candidate.getKey(), candidate.getValue());
+            return;
+        }
+
+        Iterator<Map.Entry<String, Entry>> mainEldest = main.entrySet().iterator();
+        if (!mainEldest.hasNext()) {
+            evictions.incrementAndGet();
+            return;
+        }
+        Map.Entry<String, Entry> victim = mainEldest.next();
+        if (sketch.frequency(candidate.getKey()) > sketch.frequency(victim.getKey())) {
+            mainEldest.remove();
+            main.put(candidate.getKey(), candidate.getValue());
+        }
+        evictions.incrementAndGet();
+    }
+
+    private static UserDTO copy(UserDTO user) {
+        if (user == null) {
+            return null;
+        }
+        return new UserDTO(user.getUsername(), user.getPassword(), user.getEmail(), user.getName());
+    }
+
+    /**
+     * Count-min sketch of 4-bit counters, halved after every 10 * width increments
+     * so that the frequencies reflect recent traffic.
+     */
+    private static final class FrequencySketch {
+
+        private static final int DEPTH = 4;
+        private static final int[] SEEDS = { 0x97cb3127, 0xb3a1f0c5, 0x5c2d5a5f, 0x8e5ff3b9 };
+
+        private final byte[] counters;
+        private final int mask;
+        private final int resetThreshold;
+        private int additions;
+
+        FrequencySketch(int expectedSize) {
+            int width = Integer.highestOneBit(expectedSize - 1) << 1;
+            this.counters = new byte[DEPTH * width];
+            this.mask = width - 1;
+            this.resetThreshold = 10 * width;
+        }
+
+        void increment(String key) {
+            int hash = key.hashCode();
+            for (int row = 0; row < DEPTH; row++) {
+                int index = row * (mask + 1) + index(hash, row);
+                if (counters[index] < 15) {
+                    counters[index]++;
+                }
+            }
+            if (++additions >= resetThreshold) {
+                for (int i = 0; i < counters.length; i++) {
+                    counters[i] >>= 1;
+                }
+                additions /= 2;
+            }
+        }
+
+        int frequency(String key) {
+            int hash = key.hashCode();
+            int frequency = 15;
+            for (int row = 0; row < DEPTH; row++) {
+                frequency = Math.min(frequency, counters[row * (mask + 1) + index(hash, row)]);
+            }
+            return frequency;
+        }
+
+        private int index(int hash, int row) {
+            int h = hash * SEEDS[row];
+            h ^= h >>> 16;
+            return h & mask;
+        }
+    }
+}
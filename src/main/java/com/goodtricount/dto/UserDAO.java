@@ -1,5 +1,8 @@
 package com.goodtricount.dto;
 
+import org.postgresql.util.PSQLException;
+import org.postgresql.util.ServerErrorMessage;
+
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -12,6 +15,42 @@ import java.util.List;
  * Handles database operations for users.
  */
 public class UserDAO {
+
+    /**
+     * Outcome of {@link #registerUser(UserDTO)}.
+     */
+    public enum Registration {
+        CREATED,
+        USERNAME_TAKEN,
+        EMAIL_TAKEN,
+        FAILED
+    }
+
+    private static final LatencyHistogram INSERT_USER = Metrics.dao("UserDAO.insertUser");
+    private static final LatencyHistogram REGISTER_USER = Metrics.dao("UserDAO.registerUser");
+    private static final LatencyHistogram GET_USER_BY_USERNAME = Metrics.dao("UserDAO.getUserByUsername");
+    private static final LatencyHistogram GET_ALL_USERS = Metrics.dao("UserDAO.getAllUsers");
+    private static final LatencyHistogram UPDATE_USER = Metrics.dao("UserDAO.updateUser");
+    private static final LatencyHistogram DELETE_USER = Metrics.dao("UserDAO.deleteUser");
+    private static final LatencyHistogram USER_EXISTS = Metrics.dao("UserDAO.userExists");
+    private static final LatencyHistogram EMAIL_EXISTS = Metrics.dao("UserDAO.emailExists");
+
+    private static final UserCache CACHE = UserCache.fromEnvironment();
+
+    static final String GET_USER_BY_USERNAME_SQL = "SELECT * FROM Users WHERE username = ?";
+
+    static final String UPDATE_USER_SQL = "UPDATE Users SET password = ?, email = ?, name = ? WHERE username = ?";
+
+    static final String DELETE_USER_SQL =
+            "WITH changed AS (" +
+            "SELECT group_id FROM GroupParticipants WHERE user_id = ? " +
+            "UNION SELECT group_id FROM GroupAdmins WHERE admin_id = ?), " +
+            GroupChangeDAO.BUMP_CHANGED_GROUPS +
+            "DELETE FROM Users WHERE username = ?";
+
+    static final String USER_EXISTS_SQL = "SELECT COUNT(*) FROM Users WHERE username = ?";
+
+    static final String EMAIL_EXISTS_SQL = "SELECT COUNT(*) FROM Users WHERE email = ?";
     
     /**
      * Insert a new user into the database.
@@ -22,6 +61,7 @@ public class UserDAO {
     public boolean insertUser(UserDTO user) {
         String sql = "INSERT INTO Users (username, password, email, name) VALUES (?, ?, ?, ?)";
         
+        long start = System.nanoTime();
         try (Connection conn = DatabaseConnection.getConnection();
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
             
@@ -31,26 +71,105 @@ public class UserDAO {
             pstmt.setString(4, user.getName());
             
             int rowsAffected = pstmt.executeUpdate();
+            CACHE.invalidate(user.getUsername());
             return rowsAffected > 0;
             
         } catch (SQLException e) {
+            INSERT_USER.error();
             System.out.println("Error inserting user: " + e.getMessage());
             e.printStackTrace();
             return false;
+        } finally {
+            INSERT_USER.record(start);
+        }
+    }
+    
+    /**
+     * Register a new user in a single statement.
+     * Unlike checking {@link #userExists(String)} and {@link #emailExists(String)} before
+     * {@link #insertUser(UserDTO)}, this is one round trip and stays correct when two
+     * registrations for the same username or email run concurrently: the unique constraints
+     * decide, and the violated constraint tells which value was taken.
+     * 
+     * @param user the user to register
+     * @return CREATED, USERNAME_TAKEN or EMAIL_TAKEN, or FAILED if the insertion failed otherwise
+     */
+    public Registration registerUser(UserDTO user) {
+        String sql = "INSERT INTO Users (username, password, email, name) VALUES (?, ?, ?, ?)";
+        
+        long start = System.nanoTime();
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            
+            pstmt.setString(1, user.getUsername());
+            pstmt.setString(2, user.getPassword());
+            pstmt.setString(3, user.getEmail());
+            pstmt.setString(4, user.getName());
+            
+            pstmt.executeUpdate();
+            CACHE.invalidate(user.getUsername());
+            return Registration.CREATED;
+            
+        } catch (SQLException e) {
+            Registration conflict = uniqueViolation(e);
+            if (conflict != null) {
+                return conflict;
+            }
+            REGISTER_USER.error();
+            System.out.println("Error registering user: " + e.getMessage());
+            e.printStackTrace();
+            return Registration.FAILED;
+        } finally {
+            REGISTER_USER.record(start);
         }
     }
     
+    /**
+     * Map a unique violation on Users to the value that was taken.
+     * 
+     * @param e the exception thrown by the insertion
+     * @return USERNAME_TAKEN or EMAIL_TAKEN, or null if it is not a unique violation on Users
+     */
+    private static Registration uniqueViolation(SQLException e) {
+        if (!"23505".equals(e.getSQLState())) {
+            return null;
+        }
+        
+        ServerErrorMessage message = e instanceof PSQLException ? ((PSQLException) e).getServerErrorMessage() : null;
+        boolean email;
+        if (message != null && message.getConstraint() != null) {
+            // users_pkey or users_email_key
+            email = message.getConstraint().toLowerCase().contains("email");
+        } else {
+            // No server details: fall back to the message, e.g. "Key (email)=(...) already exists"
+            email = String.valueOf(e.getMessage()).contains("(email)");
+        }
+        
+        return email ? Registration.EMAIL_TAKEN : Registration.USERNAME_TAKEN;
+    }
+    
     /**
      * Get a user by username.
+     * Users are served from a shared {@link UserCache} and only loaded from the database on a miss.
      * 
      * @param username the username of the user to get
      * @return the user, or null if not found
      */
     public UserDTO getUserByUsername(String username) {
-        String sql = "SELECT * FROM Users WHERE username = ?";
+        try {
+            return CACHE.get(username, this::loadUser);
+        } catch (SQLException e) {
+            System.out.println("Error getting user: " + e.getMessage());
+            e.printStackTrace();
+        }
         
+        return null;
+    }
+    
+    private UserDTO loadUser(String username) throws SQLException {
+        long start = System.nanoTime();
         try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+             PreparedStatement pstmt = conn.prepareStatement(GET_USER_BY_USERNAME_SQL)) {
             
             pstmt.setString(1, username);
             
@@ -66,8 +185,10 @@ public class UserDAO {
             }
             
         } catch (SQLException e) {
-            System.out.println("Error getting user: " + e.getMessage());
-            e.printStackTrace();
+            GET_USER_BY_USERNAME.error();
+            throw e;
+        } finally {
+            GET_USER_BY_USERNAME.record(start);
         }
         
         return null;
@@ -82,6 +203,7 @@ public class UserDAO {
         List<UserDTO> users = new ArrayList<>();
         String sql = "SELECT * FROM Users";
         
+        long start = System.nanoTime();
         try (Connection conn = DatabaseConnection.getConnection();
              PreparedStatement pstmt = conn.prepareStatement(sql);
              ResultSet rs = pstmt.executeQuery()) {
@@ -96,8 +218,11 @@ public class UserDAO {
             }
             
         } catch (SQLException e) {
+            GET_ALL_USERS.error();
             System.out.println("Error getting all users: " + e.getMessage());
             e.printStackTrace();
+        } finally {
+            GET_ALL_USERS.record(start);
         }
         
         return users;
@@ -110,10 +235,9 @@ public class UserDAO {
      * @return true if the user was updated successfully, false otherwise
      */
     public boolean updateUser(UserDTO user) {
-        String sql = "UPDATE Users SET password = ?, email = ?, name = ? WHERE username = ?";
-        
+        long start = System.nanoTime();
         try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+             PreparedStatement pstmt = conn.prepareStatement(UPDATE_USER_SQL)) {
             
             pstmt.setString(1, user.getPassword());
             pstmt.setString(2, user.getEmail());
@@ -121,36 +245,49 @@ public class UserDAO {
             pstmt.setString(4, user.getUsername());
             
             int rowsAffected = pstmt.executeUpdate();
+            CACHE.invalidate(user.getUsername());
             return rowsAffected > 0;
             
         } catch (SQLException e) {
+            UPDATE_USER.error();
             System.out.println("Error updating user: " + e.getMessage());
             e.printStackTrace();
             return false;
+        } finally {
+            UPDATE_USER.record(start);
         }
     }
     
     /**
      * Delete a user from the database.
+     * The user leaves every group with it, and the versions of those groups are incremented
+     * by the same statement.
      * 
      * @param username the username of the user to delete
      * @return true if the user was deleted successfully, false otherwise
      */
     public boolean deleteUser(String username) {
-        String sql = "DELETE FROM Users WHERE username = ?";
-        
+        long start = System.nanoTime();
         try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+             PreparedStatement pstmt = conn.prepareStatement(DELETE_USER_SQL)) {
             
             pstmt.setString(1, username);
+            pstmt.setString(2, username);
+            pstmt.setString(3, username);
             
             int rowsAffected = pstmt.executeUpdate();
+            CACHE.invalidate(username);
+            // The user's memberships were deleted with it
+            GroupDAO.MEMBERSHIPS.clear();
             return rowsAffected > 0;
             
         } catch (SQLException e) {
+            DELETE_USER.error();
             System.out.println("Error deleting user: " + e.getMessage());
             e.printStackTrace();
             return false;
+        } finally {
+            DELETE_USER.record(start);
         }
     }
     
@@ -161,10 +298,9 @@ public class UserDAO {
      * @return true if the user exists, false otherwise
      */
     public boolean userExists(String username) {
-        String sql = "SELECT COUNT(*) FROM Users WHERE username = ?";
-        
+        long start = System.nanoTime();
         try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+             PreparedStatement pstmt = conn.prepareStatement(USER_EXISTS_SQL)) {
             
             pstmt.setString(1, username);
             
@@ -175,38 +311,43 @@ public class UserDAO {
             }
             
         } catch (SQLException e) {
+            USER_EXISTS.error();
             System.out.println("Error checking if user exists: " + e.getMessage());
             e.printStackTrace();
+        } finally {
+            USER_EXISTS.record(start);
         }
         
-        return false;
-    }
-
-    /**
-     * Check if an email exists in the database.
-     *
-     * @param email the email to check
-     * @return true if the email exists, false otherwise
-     */
-    public boolean emailExists(String email) {
-        String sql = "SELECT COUNT(*) FROM Users WHERE email = ?";
-
-        try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-
-            pstmt.setString(1, email);
-
-            try (ResultSet rs = pstmt.executeQuery()) {
-                if (rs.next()) {
-                    return rs.getInt(1) > 0;
-                }
-            }
-
-        } catch (SQLException e) {
-            System.out.println("Error checking if email exists: " + e.getMessage());
-            e.printStackTrace();
-        }
-
+        return false;
+    }
+
+    /**
+     * Check if an email exists in the database.
+     *
+     * @param email the email to check
+     * @return true if the email exists, false otherwise
+     */
+    public boolean emailExists(String email) {
+        long start = System.nanoTime();
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(EMAIL_EXISTS_SQL)) {
+
+            pstmt.setString(1, email);
+
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getInt(1) > 0;
+                }
+            }
+
+        } catch (SQLException e) {
+            EMAIL_EXISTS.error();
+            System.out.println("Error checking if email exists: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            EMAIL_EXISTS.record(start);
+        }
+
         return false;
     }
 }
\ No newline at end of file
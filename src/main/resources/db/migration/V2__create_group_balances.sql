@@ -0,0 +1,23 @@
+-- Materialized per-user totals, kept up to date by ExpenseDAO and PaymentDAO.
+
+CREATE TABLE IF NOT EXISTS GroupBalances (
+    group_id VARCHAR(50) NOT NULL,
+    user_id VARCHAR(50) NOT NULL,
+    paid NUMERIC(12, 2) NOT NULL DEFAULT 0,
+    sent NUMERIC(12, 2) NOT NULL DEFAULT 0,
+    received NUMERIC(12, 2) NOT NULL DEFAULT 0,
+    PRIMARY KEY (group_id, user_id),
+    FOREIGN KEY (group_id) REFERENCES Groups(id) ON DELETE CASCADE,
+    FOREIGN KEY (user_id) REFERENCES Users(username)
+);
+
+-- Rebuild from the ledger; idempotent for databases that already had the table.
+DELETE FROM GroupBalances;
+
+INSERT INTO GroupBalances (group_id, user_id, paid, sent, received)
+SELECT group_id, user_id, SUM(paid), SUM(sent), SUM(received) FROM (
+    SELECT group_id, payer AS user_id, amount AS paid, 0 AS sent, 0 AS received FROM Expenses
+    UNION ALL SELECT group_id, payer, 0, amount, 0 FROM Payments WHERE status = 'confirmed'
+    UNION ALL SELECT group_id, receiver, 0, 0, amount FROM Payments WHERE status = 'confirmed'
+) movements
+GROUP BY group_id, user_id;
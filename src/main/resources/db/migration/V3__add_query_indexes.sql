@@ -0,0 +1,19 @@
+-- Secondary indexes for the DAO queries. Run QueryPlanCheck after changing a query.
+
+-- GroupDAO.getGroupsForUser
+CREATE INDEX IF NOT EXISTS idx_group_participants_user ON GroupParticipants (user_id, group_id);
+
+-- Cascading deletes of users
+CREATE INDEX IF NOT EXISTS idx_group_admins_admin ON GroupAdmins (admin_id);
+
+-- ExpenseDAO.getExpensesForGroup, getTotalExpensesForGroup, getTotalExpensesPaidByUser
+CREATE INDEX IF NOT EXISTS idx_expenses_group_payer ON Expenses (group_id, payer) INCLUDE (amount);
+
+-- PaymentDAO.getPaymentsForGroup, getPaymentsMadeByUser, getTotalPaymentsMadeByUser
+CREATE INDEX IF NOT EXISTS idx_payments_group_payer ON Payments (group_id, payer, status) INCLUDE (amount);
+
+-- PaymentDAO.getPaymentsReceivedByUser, getTotalPaymentsReceivedByUser
+CREATE INDEX IF NOT EXISTS idx_payments_group_receiver ON Payments (group_id, receiver, status) INCLUDE (amount);
+
+-- PaymentDAO.suggestSettlement (pending payments of a group)
+CREATE INDEX IF NOT EXISTS idx_payments_group_pending ON Payments (group_id) WHERE status = 'pending';
@@ -0,0 +1,7 @@
+-- Keyset pagination of a group's history.
+
+-- ExpenseDAO.getExpensesForGroup: WHERE group_id = ? AND expense_id > ? ORDER BY expense_id
+CREATE INDEX IF NOT EXISTS idx_expenses_group_id ON Expenses (group_id, expense_id);
+
+-- PaymentDAO.getPaymentsForGroup: WHERE group_id = ? AND (timestamp, payment_id) > (?, ?) ORDER BY timestamp, payment_id
+CREATE INDEX IF NOT EXISTS idx_payments_group_timestamp ON Payments (group_id, timestamp, payment_id);
@@ -0,0 +1,27 @@
+-- Store amounts as whole cents in BIGINT instead of NUMERIC, so that sums and balance
+-- updates are integer arithmetic. The DAOs convert with com.goodtricount.dto.Money.
+
+ALTER TABLE Expenses ALTER COLUMN amount TYPE BIGINT USING round(amount * 100)::BIGINT;
+
+ALTER TABLE Payments ALTER COLUMN amount TYPE BIGINT USING round(amount * 100)::BIGINT;
+
+ALTER TABLE GroupBalances
+    ALTER COLUMN paid DROP DEFAULT,
+    ALTER COLUMN sent DROP DEFAULT,
+    ALTER COLUMN received DROP DEFAULT;
+
+ALTER TABLE GroupBalances
+    ALTER COLUMN paid TYPE BIGINT USING round(paid * 100)::BIGINT,
+    ALTER COLUMN sent TYPE BIGINT USING round(sent * 100)::BIGINT,
+    ALTER COLUMN received TYPE BIGINT USING round(received * 100)::BIGINT;
+
+ALTER TABLE GroupBalances
+    ALTER COLUMN paid SET DEFAULT 0,
+    ALTER COLUMN sent SET DEFAULT 0,
+    ALTER COLUMN received SET DEFAULT 0;
+
+COMMENT ON COLUMN Expenses.amount IS 'Amount in cents';
+COMMENT ON COLUMN Payments.amount IS 'Amount in cents';
+COMMENT ON COLUMN GroupBalances.paid IS 'Total of expenses paid, in cents';
+COMMENT ON COLUMN GroupBalances.sent IS 'Total of confirmed payments sent, in cents';
+COMMENT ON COLUMN GroupBalances.received IS 'Total of confirmed payments received, in cents';
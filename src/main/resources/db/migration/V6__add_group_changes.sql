@@ -0,0 +1,19 @@
+-- Per-group version and change log, kept up to date by the DAOs through GroupChangeDAO.
+-- Every write to the name, members, expenses or payments of a group increments its version
+-- and records what it changed, in the same transaction, so that clients can revalidate a
+-- group by its version and pull only what changed since the version they have.
+
+ALTER TABLE Groups ADD COLUMN IF NOT EXISTS version BIGINT NOT NULL DEFAULT 1;
+
+CREATE TABLE IF NOT EXISTS GroupChanges (
+    group_id VARCHAR(50) NOT NULL,
+    version BIGINT NOT NULL,
+    entity VARCHAR(10) NOT NULL CHECK (entity IN ('group', 'expense', 'payment')),
+    entity_id INTEGER NOT NULL,
+    PRIMARY KEY (group_id, version, entity, entity_id),
+    FOREIGN KEY (group_id) REFERENCES Groups(id) ON DELETE CASCADE
+);
+
+COMMENT ON COLUMN Groups.version IS 'Incremented by every change to the group; 1 for a new group';
+COMMENT ON COLUMN GroupChanges.version IS 'The version of the group the change produced';
+COMMENT ON COLUMN GroupChanges.entity_id IS 'expense_id or payment_id; 0 for a change of the name or members';
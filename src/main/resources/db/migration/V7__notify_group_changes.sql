@@ -0,0 +1,27 @@
+-- Publish every new version of a group, and its deletion, on the group_changes channel, so that
+-- the application instances can push them to their subscribers (see GroupNotifications).
+-- The payload is '<version> <group id>', with version 0 for a deleted group. NOTIFY is delivered
+-- when the transaction commits, and not at all if it rolls back.
+
+CREATE OR REPLACE FUNCTION notify_group_change() RETURNS trigger AS $$
+BEGIN
+    IF TG_OP = 'DELETE' THEN
+        PERFORM pg_notify('group_changes', '0 ' || OLD.id);
+        RETURN OLD;
+    END IF;
+    PERFORM pg_notify('group_changes', NEW.version || ' ' || NEW.id);
+    RETURN NEW;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS groups_notify_version ON Groups;
+CREATE TRIGGER groups_notify_version
+    AFTER UPDATE OF version ON Groups
+    FOR EACH ROW WHEN (NEW.version <> OLD.version)
+    EXECUTE PROCEDURE notify_group_change();
+
+DROP TRIGGER IF EXISTS groups_notify_delete ON Groups;
+CREATE TRIGGER groups_notify_delete
+    AFTER DELETE ON Groups
+    FOR EACH ROW
+    EXECUTE PROCEDURE notify_group_change();
@@ -543,6 +543,19 @@ function renderMainMenu() {
     });
 }
 
+// Comparar nombres de usuario por puntos de código, el orden de COLLATE "C" en el servidor
+// (a < b compara unidades UTF-16, que difieren para los caracteres por encima de U+FFFF)
+function compareCodePoints(a, b) {
+    const x = Array.from(a, c => c.codePointAt(0));
+    const y = Array.from(b, c => c.codePointAt(0));
+    for (let i = 0; i < x.length && i < y.length; i++) {
+        if (x[i] !== y[i]) {
+            return x[i] - y[i];
+        }
+    }
+    return x.length - y.length;
+}
+
 // Calcular y mostrar los saldos del grupo
 function renderGroupDetail(group) {
     // Guardar el grupo actual para usarlo al añadir gastos
@@ -554,21 +567,40 @@ function renderGroupDetail(group) {
     // Mostrar u ocultar el botón de añadir gasto
     addExpenseBtn.classList.toggle('hidden', !isUserAdmin);
 
-    // Calcular saldos
-    const balances = {};
-    group.participants.forEach(p => balances[p] = 0);
+    // Calcular saldos en céntimos enteros con las mismas reglas que el servidor
+    // (BalanceDAO.computeBalances): saldo = pagado + enviado - recibido - parte, donde el total
+    // de los gastos se reparte una sola vez entre los participantes ordenados por nombre de
+    // usuario (por puntos de código, como BalanceDAO.loadLedger) y los primeros se llevan los
+    // céntimos que sobran (Money.splitCents)
+    const cents = {};
+    group.participants.forEach(p => cents[p] = 0);
+    const add = (user, value) => cents[user] = (cents[user] || 0) + value;
 
+    let total = 0;
     group.expenses.forEach(expense => {
-        const amountPerPerson = expense.amount / group.participants.length;
-        group.participants.forEach(p => {
-            if (p === expense.payer) {
-                balances[p] += expense.amount - amountPerPerson;
-            } else {
-                balances[p] -= amountPerPerson;
-            }
-        });
+        const amount = Math.round(expense.amount * 100);
+        total += amount;
+        add(expense.payer, amount);
+    });
+    group.payments.filter(p => p.status === 'confirmed').forEach(payment => {
+        const amount = Math.round(payment.amount * 100);
+        add(payment.payer, amount);
+        add(payment.receiver, -amount);
     });
 
+    const participants = [...group.participants].sort(compareCodePoints);
+    const count = participants.length;
+    if (count > 0) {
+        const share = Math.floor(total / count);
+        const remainder = total - share * count;
+        participants.forEach((p, index) => {
+            cents[p] -= index < remainder ? share + 1 : share;
+        });
+    }
+
+    const balances = {};
+    Object.entries(cents).forEach(([participant, value]) => balances[participant] = value / 100);
+
     // Crear la vista de saldos
     groupContent.innerHTML = `<h3>${t('expense_summary')}</h3>`;
 